@@ -24,22 +24,29 @@ class Display {
 }
 
 class Program {
-    // Program = Declarations decpart ; Block body
+    // Program = Declarations decpart ; Block body ; Functions functions
     Declarations decpart;
     Block body;
+    Functions functions;
 
     Program (Declarations d, Block b) {
+        this(d, b, new Functions());
+    }
+
+    Program (Declarations d, Block b, Functions f) {
         decpart = d;
         body = b;
+        functions = f;
     }
     
     public void display(){
-        StringBuilder disp = new StringBuilder("Program (abstract syntax):\n");
-        disp.append(decpart);
-        disp.append("\n");
-        disp.append(body);
-        Display.align(disp);
-	System.out.println(disp);
+        AstPrinter.display(this);
+    }
+
+    public String toString(){
+        StringBuilder disp = new StringBuilder();
+        AstPrinter.print(this, disp);
+        return disp.toString();
     }
 
 }
@@ -69,6 +76,7 @@ class Declaration {
 // Declaration = Variable v; Type t
     Variable v;
     Type t;
+    boolean temporary;   // made by an optimiser: not part of the output
 
     Declaration (Variable var, Type type) {
         v = var; t = type;
@@ -80,23 +88,83 @@ class Declaration {
 
 }
 
+class Functions extends ArrayList<Function> {
+    // Functions = Function*
+    // (in source order; main is not one of them)
+
+    private static final long serialVersionUID = 1L;
+
+    Function get (String name) { // the function called name, or null
+        for (Function f : this)
+            if (f.id.equals(name)) return f;
+        return null;
+    }
+}
+
+class Function {
+    // Function = Type t; String id; Declarations params, locals; Block body
+    Type t;
+    String id;
+    Declarations params, locals;
+    Block body;
+
+    Function (Type type, String name, Declarations p, Declarations l, Block b) {
+        t = type; id = name; params = p; locals = l; body = b;
+    }
+
+    String header ( ) { // first lines of toString( )
+      StringBuilder disp = new StringBuilder("Function: " + t + " " + id);
+      disp.append("\nParameters: ");
+      for (Declaration d : params)
+        disp.append(d).append("  ");
+      return disp.toString();
+    }
+
+    public String toString(){
+      StringBuilder disp = new StringBuilder(header());
+      disp.append("\n"); disp.append(locals);
+      disp.append("\n"); disp.append(body);
+      Display.align(disp);
+      return disp.toString();
+    }
+
+}
+
 class Type {
-    // Type = int | bool | char | float 
+    // Type = int | bool | char | float | Type [ size ] | void
     final static Type INT = new Type("int");
     final static Type BOOL = new Type("bool");
     final static Type CHAR = new Type("char");
     final static Type FLOAT = new Type("float");
+    final static Type VOID = new Type("void");   // only as a function result
     // final static Type UNDEFINED = new Type("undef");
     
     private String id;
+    private Type element;   // of an array type, else null
+    private int size;
 
     private Type (String t) { id = t; }
 
+    static Type array (Type element, int size) { // one per declaration
+        Type t = new Type(element + "[" + size + "]");
+        t.element = element;
+        t.size = size;
+        return t;
+    }
+
+    boolean isArray ( ) { return element != null; }
+
+    Type element ( ) { return element; }
+
+    int size ( ) { return size; }
+
     public String toString ( ) { return id; }
 }
 
 abstract class Statement {
-    // Statement = Skip | Block | Assignment | Conditional | Loop
+    // Statement = Skip | Block | Assignment | ArrayAssignment
+    //             | Conditional | Loop | CallStatement | Return
+    int line, column;   // where the Parser found it; 0 if made by a pass
 
 }
 
@@ -142,6 +210,27 @@ class Assignment extends Statement {
 
 }
 
+class ArrayAssignment extends Statement {
+    // ArrayAssignment = ArrayRef target; Expression source
+    ArrayRef target;
+    Expression source;
+
+    ArrayAssignment (ArrayRef t, Expression e) {
+        target = t;
+        source = e;
+    }
+
+    public String toString(){
+       StringBuilder disp = new StringBuilder("ArrayAssignment:\n");
+       disp.append(target);
+       disp.append("\n");
+       disp.append(source);
+       Display.align(disp);
+       return disp.toString();
+    }
+
+}
+
 class Conditional extends Statement {
 // Conditional = Expression test; Statement thenbranch, elsebranch
     Expression test;
@@ -189,17 +278,56 @@ class Loop extends Statement {
 
 }
 
+class CallStatement extends Statement {
+    // CallStatement = Call call (its result is dropped)
+    Call call;
+
+    CallStatement (Call c) { call = c; }
+
+    public String toString(){
+      StringBuilder disp = new StringBuilder("CallStatement:\n");
+      disp.append(call);
+      Display.align(disp);
+      return disp.toString();
+    }
+
+}
+
+class Return extends Statement {
+    // Return = Expression result (null in a void function)
+    Expression result;
+
+    Return (Expression e) { result = e; }
+
+    public String toString(){
+      if (result == null) return "Return";
+      StringBuilder disp = new StringBuilder("Return:\n");
+      disp.append(result);
+      Display.align(disp);
+      return disp.toString();
+    }
+
+}
+
 abstract class Expression {
-    // Expression = Variable | Value | Binary | Unary
+    // Expression = Variable | Value | ArrayRef | Binary | Unary | Call
 
 }
 
 class Variable extends Expression {
     // Variable = String id
     private String id;
+    private Symbols pool;     // pool that interned this name, if any,
+    private int index = -1;   // and its dense index there
 
     Variable (String s) { id = s; }
 
+    Variable (String s, Symbols p, int i) { id = s; pool = p; index = i; }
+
+    String name ( ) { return id; }
+
+    int index ( ) { return index; }
+
     public String toString( ) {
       StringBuilder disp = new StringBuilder("Variable: ");
       disp.append(id);
@@ -208,14 +336,99 @@ class Variable extends Expression {
     }
     
     public boolean equals (Object obj) {
-        String s = ((Variable) obj).id;
-        return id.equals(s); // case-sensitive identifiers
+        Variable v = (Variable) obj;
+        if (pool != null && pool == v.pool)
+            return index == v.index;
+        return id.equals(v.id); // case-sensitive identifiers
     }
 
     public int hashCode ( ) { return id.hashCode( ); }
 
 }
 
+class ArrayRef extends Expression {
+    // ArrayRef = Variable array; Expression index
+    Variable array;
+    Expression index;
+
+    ArrayRef (Variable a, Expression i) {
+        array = a; index = i;
+    }
+
+    static int check (int i, int size, String array) { // i, if in bounds
+        if (i < 0 || i >= size)
+            throw new IllegalStateException("index " + i + " out of bounds for "
+                                            + array + "[" + size + "]");
+        return i;
+    }
+
+    public String toString(){
+      StringBuilder disp = new StringBuilder("ArrayRef:");
+      disp.append("\n"); disp.append(array);
+      disp.append("\n"); disp.append(index);
+      Display.align(disp);
+      return disp.toString();
+    }
+
+}
+
+class Call extends Expression {
+    // Call = String name; Expression* args
+    String name;
+    ArrayList<Expression> args;
+
+    Call (String n, ArrayList<Expression> a) {
+        name = n; args = a;
+    }
+
+    static Call find (Statement s) { // the first Call in s, or null
+        Call c = null;
+        if (s instanceof Block) {
+            for (Statement m : ((Block) s).members)
+                if (c == null) c = find(m);
+        } else if (s instanceof Assignment) {
+            c = find(((Assignment) s).source);
+        } else if (s instanceof ArrayAssignment) {
+            c = find(((ArrayAssignment) s).target);
+            if (c == null) c = find(((ArrayAssignment) s).source);
+        } else if (s instanceof Conditional) {
+            Conditional k = (Conditional) s;
+            c = find(k.test);
+            if (c == null) c = find(k.thenbranch);
+            if (c == null && k.elsebranch != null) c = find(k.elsebranch);
+        } else if (s instanceof Loop) {
+            c = find(((Loop) s).test);
+            if (c == null) c = find(((Loop) s).body);
+        } else if (s instanceof CallStatement) {
+            c = ((CallStatement) s).call;
+        } else if (s instanceof Return) {
+            c = find(((Return) s).result);
+        }
+        return c;
+    }
+
+    static Call find (Expression e) {
+        if (e instanceof Call) return (Call) e;
+        if (e instanceof ArrayRef) return find(((ArrayRef) e).index);
+        if (e instanceof Unary) return find(((Unary) e).term);
+        if (e instanceof Binary) {
+            Call c = find(((Binary) e).term1);
+            return c != null ? c : find(((Binary) e).term2);
+        }
+        return null;
+    }
+
+    public String toString(){
+      StringBuilder disp = new StringBuilder("Call: " + name);
+      for (Expression a : args) {
+        disp.append("\n"); disp.append(a);
+      }
+      Display.align(disp);
+      return disp.toString();
+    }
+
+}
+
 abstract class Value extends Expression {
     // Value = IntValue | BoolValue |
     //         CharValue | FloatValue
@@ -336,6 +549,36 @@ class FloatValue extends Value {
 
 }
 
+class ArrayValue extends Value {
+    // The contents of an array, for the final state.  Elements are
+    // stored as the engines hold them: int and bool in an int[ ]
+    // (bools as 0 or 1), char in a char[ ] and float in a float[ ].
+    private final Object elements;
+
+    ArrayValue (Type t, Object a) { type = t; elements = a; undef = false; }
+
+    static Object storage (Type t) { // zeroed elements for array type t
+        Type e = t.element();
+        if (e == Type.FLOAT) return new float[t.size()];
+        if (e == Type.CHAR) return new char[t.size()];
+        return new int[t.size()];
+    }
+
+    public String toString( ) {
+        StringBuilder disp = new StringBuilder("ArrayValue: [");
+        Type e = type.element();
+        for (int k = 0; k < type.size(); k++) {
+            if (k > 0) disp.append(", ");
+            if (e == Type.FLOAT) disp.append(((float[]) elements)[k]);
+            else if (e == Type.CHAR) disp.append(((char[]) elements)[k]);
+            else if (e == Type.BOOL) disp.append(((int[]) elements)[k] != 0);
+            else disp.append(((int[]) elements)[k]);
+        }
+        return disp.append("]").toString();
+    }
+
+}
+
 class Binary extends Expression {
 // Binary = Operator op; Expression term1, term2
     Operator op;
@@ -397,6 +640,7 @@ class Operator {
     final static String INT = "int";
     final static String FLOAT = "float";
     final static String CHAR = "char";
+    final static String BOOL = "bool";   // parsed, but not a conversion
     // Typed Operators
     // RelationalOp = < | <= | == | != | >= | >
     final static String INT_LT = "INT<";
@@ -446,77 +690,168 @@ class Operator {
     final static String C2I = "C2I";
     final static String I2C = "I2C";
     
-    String val;
-    
-    Operator (String s) { val = s; }
+    // Each Operator is the one shared instance for its Opcode; the
+    // Parser and later passes get them from the lookups below.  The
+    // Opcode ordinal gives O(1) predicates and typed mappings.
+    final Opcode code;
+    final String val;
+
+    private Operator (Opcode c) { code = c; val = c.spelling; }
+
+    private static final Operator[] byCode = new Operator[Opcode.values().length];
+    static {
+        for (Opcode c : Opcode.values())
+            byCode[c.ordinal()] = new Operator(c);
+    }
+
+    static Operator of (Opcode c) { return byCode[c.ordinal()]; }
+
+    static Operator binary (String s) { // as spelt between two terms
+        switch (s) {
+          case AND:   return of(Opcode.AND);
+          case OR:    return of(Opcode.OR);
+          case LT:    return of(Opcode.LT);
+          case LE:    return of(Opcode.LE);
+          case EQ:    return of(Opcode.EQ);
+          case NE:    return of(Opcode.NE);
+          case GT:    return of(Opcode.GT);
+          case GE:    return of(Opcode.GE);
+          case PLUS:  return of(Opcode.PLUS);
+          case MINUS: return of(Opcode.MINUS);
+          case TIMES: return of(Opcode.TIMES);
+          case DIV:   return of(Opcode.DIV);
+        }
+        throw new IllegalArgumentException("not a binary operator: " + s);
+    }
+
+    static Operator unary (String s) { // as spelt before a term
+        switch (s) {
+          case NOT:   return of(Opcode.NOT);
+          case NEG:   return of(Opcode.NEG);
+          case INT:   return of(Opcode.INT);
+          case FLOAT: return of(Opcode.FLOAT);
+          case CHAR:  return of(Opcode.CHAR);
+          case BOOL:  return of(Opcode.BOOL);
+        }
+        throw new IllegalArgumentException("not a unary operator: " + s);
+    }
 
     public String toString( ) { return val; }
-    public boolean equals(Object obj) { return val.equals(obj); }
-    
-    boolean BooleanOp ( ) { return val.equals(AND) || val.equals(OR); }
+    public boolean equals(Object obj) { return obj == this || val.equals(obj); }
+    public int hashCode( ) { return val.hashCode(); }
+
+    boolean BooleanOp ( ) { return code == Opcode.AND || code == Opcode.OR; }
     boolean RelationalOp ( ) {
-        return val.equals(LT) || val.equals(LE) || val.equals(EQ)
-            || val.equals(NE) || val.equals(GT) || val.equals(GE);
+        return code.compareTo(Opcode.LT) >= 0 && code.compareTo(Opcode.GE) <= 0;
     }
     boolean ArithmeticOp ( ) {
-        return val.equals(PLUS) || val.equals(MINUS)
-            || val.equals(TIMES) || val.equals(DIV);
-    }
-    boolean NotOp ( ) { return val.equals(NOT) ; }
-    boolean NegateOp ( ) { return val.equals(NEG) ; }
-    boolean intOp ( ) { return val.equals(INT); }
-    boolean floatOp ( ) { return val.equals(FLOAT); }
-    boolean charOp ( ) { return val.equals(CHAR); }
-
-    final static String intMap[ ] [ ] = {
-        {PLUS, INT_PLUS}, {MINUS, INT_MINUS},
-        {TIMES, INT_TIMES}, {DIV, INT_DIV},
-        {EQ, INT_EQ}, {NE, INT_NE}, {LT, INT_LT},
-        {LE, INT_LE}, {GT, INT_GT}, {GE, INT_GE},
-        {NEG, INT_NEG}, {FLOAT, I2F}, {CHAR, I2C}
-    };
-
-    final static String floatMap[ ] [ ] = {
-        {PLUS, FLOAT_PLUS}, {MINUS, FLOAT_MINUS},
-        {TIMES, FLOAT_TIMES}, {DIV, FLOAT_DIV},
-        {EQ, FLOAT_EQ}, {NE, FLOAT_NE}, {LT, FLOAT_LT},
-        {LE, FLOAT_LE}, {GT, FLOAT_GT}, {GE, FLOAT_GE},
-        {NEG, FLOAT_NEG}, {INT, F2I}
-    };
-
-    final static String charMap[ ] [ ] = {
-        {EQ, CHAR_EQ}, {NE, CHAR_NE}, {LT, CHAR_LT},
-        {LE, CHAR_LE}, {GT, CHAR_GT}, {GE, CHAR_GE},
-        {INT, C2I}
-    };
-
-    final static String boolMap[ ] [ ] = {
-        {EQ, BOOL_EQ}, {NE, BOOL_NE}, {LT, BOOL_LT},
-        {LE, BOOL_LE}, {GT, BOOL_GT}, {GE, BOOL_GE},
-    };
-
-    final static private Operator map (String[][] tmap, String op) {
-        for (int i = 0; i < tmap.length; i++)
-            if (tmap[i][0].equals(op))
-                return new Operator(tmap[i][1]);
-        assert false : "should never reach here";
-        return null;
-    }
-
-    final static public Operator intMap (String op) {
+        return code.compareTo(Opcode.PLUS) >= 0 && code.compareTo(Opcode.DIV) <= 0;
+    }
+    boolean NotOp ( ) { return code == Opcode.NOT ; }
+    boolean NegateOp ( ) {
+        return code == Opcode.NEG || code == Opcode.INT_NEG
+            || code == Opcode.FLOAT_NEG;
+    }
+    boolean intOp ( ) { return code == Opcode.INT; }
+    boolean floatOp ( ) { return code == Opcode.FLOAT; }
+    boolean charOp ( ) { return code == Opcode.CHAR; }
+
+    // Typed mappings: entry [untyped ordinal] is the typed Operator,
+    // or null where the type has no such operation.
+    final static Operator intMap[ ] = typed(new Opcode[ ][ ] {
+        {Opcode.PLUS, Opcode.INT_PLUS}, {Opcode.MINUS, Opcode.INT_MINUS},
+        {Opcode.TIMES, Opcode.INT_TIMES}, {Opcode.DIV, Opcode.INT_DIV},
+        {Opcode.EQ, Opcode.INT_EQ}, {Opcode.NE, Opcode.INT_NE},
+        {Opcode.LT, Opcode.INT_LT}, {Opcode.LE, Opcode.INT_LE},
+        {Opcode.GT, Opcode.INT_GT}, {Opcode.GE, Opcode.INT_GE},
+        {Opcode.NEG, Opcode.INT_NEG}, {Opcode.FLOAT, Opcode.I2F},
+        {Opcode.CHAR, Opcode.I2C}
+    });
+
+    final static Operator floatMap[ ] = typed(new Opcode[ ][ ] {
+        {Opcode.PLUS, Opcode.FLOAT_PLUS}, {Opcode.MINUS, Opcode.FLOAT_MINUS},
+        {Opcode.TIMES, Opcode.FLOAT_TIMES}, {Opcode.DIV, Opcode.FLOAT_DIV},
+        {Opcode.EQ, Opcode.FLOAT_EQ}, {Opcode.NE, Opcode.FLOAT_NE},
+        {Opcode.LT, Opcode.FLOAT_LT}, {Opcode.LE, Opcode.FLOAT_LE},
+        {Opcode.GT, Opcode.FLOAT_GT}, {Opcode.GE, Opcode.FLOAT_GE},
+        {Opcode.NEG, Opcode.FLOAT_NEG}, {Opcode.INT, Opcode.F2I}
+    });
+
+    final static Operator charMap[ ] = typed(new Opcode[ ][ ] {
+        {Opcode.EQ, Opcode.CHAR_EQ}, {Opcode.NE, Opcode.CHAR_NE},
+        {Opcode.LT, Opcode.CHAR_LT}, {Opcode.LE, Opcode.CHAR_LE},
+        {Opcode.GT, Opcode.CHAR_GT}, {Opcode.GE, Opcode.CHAR_GE},
+        {Opcode.INT, Opcode.C2I}
+    });
+
+    final static Operator boolMap[ ] = typed(new Opcode[ ][ ] {
+        {Opcode.EQ, Opcode.BOOL_EQ}, {Opcode.NE, Opcode.BOOL_NE},
+        {Opcode.LT, Opcode.BOOL_LT}, {Opcode.LE, Opcode.BOOL_LE},
+        {Opcode.GT, Opcode.BOOL_GT}, {Opcode.GE, Opcode.BOOL_GE}
+    });
+
+    final static private Operator[] typed (Opcode[][] pairs) {
+        Operator[] tmap = new Operator[Opcode.values().length];
+        for (Opcode[] p : pairs)
+            tmap[p[0].ordinal()] = of(p[1]);
+        return tmap;
+    }
+
+    final static private Operator map (Operator[] tmap, Operator op) {
+        Operator t = tmap[op.code.ordinal()];
+        assert t != null : "should never reach here";
+        return t;
+    }
+
+    final static public Operator intMap (Operator op) {
         return map (intMap, op);
     }
 
-    final static public Operator floatMap (String op) {
+    final static public Operator floatMap (Operator op) {
         return map (floatMap, op);
     }
 
-    final static public Operator charMap (String op) {
+    final static public Operator charMap (Operator op) {
         return map (charMap, op);
     }
 
-    final static public Operator boolMap (String op) {
+    final static public Operator boolMap (Operator op) {
         return map (boolMap, op);
     }
 
 }
+
+enum Opcode {
+    // Dense operator codes, untyped operators first, in the order of
+    // the Operator constants; a switch on an Opcode is a tableswitch.
+    AND(Operator.AND), OR(Operator.OR),
+    LT(Operator.LT), LE(Operator.LE), EQ(Operator.EQ),
+    NE(Operator.NE), GT(Operator.GT), GE(Operator.GE),
+    PLUS(Operator.PLUS), MINUS(Operator.MINUS),
+    TIMES(Operator.TIMES), DIV(Operator.DIV),
+    NOT(Operator.NOT), NEG(Operator.NEG),
+    INT(Operator.INT), FLOAT(Operator.FLOAT), CHAR(Operator.CHAR),
+    BOOL(Operator.BOOL),
+    INT_LT(Operator.INT_LT), INT_LE(Operator.INT_LE), INT_EQ(Operator.INT_EQ),
+    INT_NE(Operator.INT_NE), INT_GT(Operator.INT_GT), INT_GE(Operator.INT_GE),
+    INT_PLUS(Operator.INT_PLUS), INT_MINUS(Operator.INT_MINUS),
+    INT_TIMES(Operator.INT_TIMES), INT_DIV(Operator.INT_DIV),
+    INT_NEG(Operator.INT_NEG),
+    FLOAT_LT(Operator.FLOAT_LT), FLOAT_LE(Operator.FLOAT_LE),
+    FLOAT_EQ(Operator.FLOAT_EQ), FLOAT_NE(Operator.FLOAT_NE),
+    FLOAT_GT(Operator.FLOAT_GT), FLOAT_GE(Operator.FLOAT_GE),
+    FLOAT_PLUS(Operator.FLOAT_PLUS), FLOAT_MINUS(Operator.FLOAT_MINUS),
+    FLOAT_TIMES(Operator.FLOAT_TIMES), FLOAT_DIV(Operator.FLOAT_DIV),
+    FLOAT_NEG(Operator.FLOAT_NEG),
+    CHAR_LT(Operator.CHAR_LT), CHAR_LE(Operator.CHAR_LE),
+    CHAR_EQ(Operator.CHAR_EQ), CHAR_NE(Operator.CHAR_NE),
+    CHAR_GT(Operator.CHAR_GT), CHAR_GE(Operator.CHAR_GE),
+    BOOL_LT(Operator.BOOL_LT), BOOL_LE(Operator.BOOL_LE),
+    BOOL_EQ(Operator.BOOL_EQ), BOOL_NE(Operator.BOOL_NE),
+    BOOL_GT(Operator.BOOL_GT), BOOL_GE(Operator.BOOL_GE),
+    I2F(Operator.I2F), F2I(Operator.F2I), C2I(Operator.C2I), I2C(Operator.I2C);
+
+    final String spelling;   // Operator.toString( )
+
+    Opcode (String s) { spelling = s; }
+}
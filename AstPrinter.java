@@ -0,0 +1,164 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+
+class AstPrinter {
+    // Streams the abstract syntax of a Program to an Appendable in one
+    // walk, producing exactly the text of Program.toString().
+    //
+    // The toString() methods build each subtree's text and then
+    // Display.align re-indents all of it at every enclosing level.  Here
+    // the indentation level is simply the number of enclosing nodes that
+    // align, and each newline is followed by that many INDENTs as it is
+    // written.  Pending nodes are kept as small frames on a heap stack,
+    // one per level of nesting, so extra memory depends on the depth of
+    // the tree, not its size, and deep trees print without recursion.
+    // Nodes the printer does not know are written via toString(),
+    // which gives the same result.
+
+    private final Appendable out;
+    private int level = 0;
+
+    private static final class Frame {  // a node being written
+        final Object node;
+        int step = 0;                   // next part of it, see part()
+
+        Frame (Object n) { node = n; }
+    }
+
+    AstPrinter (Appendable a) { out = a; }
+
+    static void print (Program p, Appendable a) {
+        new AstPrinter(a).write(p);
+    }
+
+    static void display (Program p) { // same output as Program.display()
+        Writer w = new BufferedWriter(new OutputStreamWriter(System.out));
+        print(p, w);
+        try {
+            w.write(System.lineSeparator());
+            w.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    void write (Program p) {
+        ArrayDeque<Frame> stack = new ArrayDeque<Frame>();
+        stack.push(new Frame(p));
+        level++;
+        while (!stack.isEmpty()) {
+            Frame f = stack.peek();
+            Object part = part(f.node, f.step++);
+            if (part == null) {         // node finished
+                stack.pop();
+                level--;
+            } else if (part instanceof String)
+                text((String) part);
+            else if (aligns(part)) {
+                stack.push(new Frame(part));
+                level++;
+            } else
+                text(String.valueOf(part));
+        }
+    }
+
+    private static boolean aligns (Object n) { // nodes expanded by part()
+        return n instanceof Program || n instanceof Declarations
+            || n instanceof Block || n instanceof Assignment
+            || n instanceof ArrayAssignment || n instanceof ArrayRef
+            || n instanceof Conditional || n instanceof Loop
+            || n instanceof Binary || n instanceof Unary
+            || n instanceof Function || n instanceof CallStatement
+            || n instanceof Return || n instanceof Call;
+    }
+
+    private static Object part (Object n, int step) {
+        // The step-th piece of n's text, as in its toString(): a String,
+        // a child node, or null after the last piece.
+        if (n instanceof Block) {
+            Block b = (Block) n;
+            if (step == 0) return "Block:";
+            int i = (step - 1) / 2;
+            if (i >= b.members.size()) return null;
+            return (step % 2 == 1) ? "\n" : b.members.get(i);
+        }
+        if (n instanceof Declarations) {
+            Declarations ds = (Declarations) n;
+            if (step == 0) return "Declarations:\n";
+            if (step > ds.size()) return null;
+            return ds.get(step - 1) + "  ";
+        }
+        Object[] parts = null;
+        if (n instanceof Program) {
+            Program p = (Program) n;
+            if (step >= 4) { // then each function
+                int i = (step - 4) / 2;
+                if (i >= p.functions.size()) return null;
+                return (step % 2 == 0) ? "\n" : p.functions.get(i);
+            }
+            parts = new Object[] { "Program (abstract syntax):\n", p.decpart,
+                                   "\n", p.body };
+        } else if (n instanceof Function) {
+            Function f = (Function) n;
+            parts = new Object[] { f.header() + "\n", f.locals, "\n", f.body };
+        } else if (n instanceof CallStatement) {
+            parts = new Object[] { "CallStatement:\n", ((CallStatement) n).call };
+        } else if (n instanceof Return) {
+            Return r = (Return) n;
+            parts = r.result == null ? new Object[] { "Return" }
+                                     : new Object[] { "Return:\n", r.result };
+        } else if (n instanceof Call) {
+            Call c = (Call) n;
+            if (step == 0) return "Call: " + c.name;
+            int i = (step - 1) / 2;
+            if (i >= c.args.size()) return null;
+            return (step % 2 == 1) ? "\n" : c.args.get(i);
+        } else if (n instanceof Assignment) {
+            Assignment a = (Assignment) n;
+            parts = new Object[] { "Assignment:\n", a.target, "\n", a.source };
+        } else if (n instanceof ArrayAssignment) {
+            ArrayAssignment a = (ArrayAssignment) n;
+            parts = new Object[] { "ArrayAssignment:\n", a.target, "\n", a.source };
+        } else if (n instanceof ArrayRef) {
+            ArrayRef r = (ArrayRef) n;
+            parts = new Object[] { "ArrayRef:\n", r.array, "\n", r.index };
+        } else if (n instanceof Conditional) {
+            Conditional c = (Conditional) n;
+            if (step == 4)
+                return (c.elsebranch instanceof Skip) ? null : "\n";
+            if (step == 5) return c.elsebranch == null ? "null" : c.elsebranch;
+            parts = new Object[] { "Conditional:\n", c.test, "\n", c.thenbranch };
+        } else if (n instanceof Loop) {
+            Loop l = (Loop) n;
+            parts = new Object[] { "Loop:\n", l.test, "\n", l.body };
+        } else if (n instanceof Binary) {
+            Binary b = (Binary) n;
+            parts = new Object[] { "Binary:\nOperator: " + b.op + "\n",
+                                   b.term1, "\n", b.term2 };
+        } else if (n instanceof Unary) {
+            Unary u = (Unary) n;
+            parts = new Object[] { "Unary:\nOperator: " + u.op + "\n", u.term };
+        }
+        return step < parts.length ? parts[step] : null;
+    }
+
+    private void text (String s) { // write s, indenting after newlines
+        try {
+            int from = 0;
+            for (int nl = s.indexOf('\n'); nl >= 0; nl = s.indexOf('\n', from)) {
+                out.append(s, from, nl + 1);
+                for (int i = 0; i < level; i++)
+                    out.append(Display.INDENT);
+                from = nl + 1;
+            }
+            out.append(s, from, s.length());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+} // AstPrinter
@@ -0,0 +1,131 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class BatchCompiler {
+    // Compiles many C++Lite sources in one JVM.  Every file is lexed
+    // and parsed as its own task on a work-stealing ForkJoinPool; each
+    // worker thread keeps one Frontend and reuses it for every file it
+    // takes.  Results are printed in input order, followed by a
+    // throughput summary on stderr.  A task that throws fails only its
+    // own file, with the exception as its diagnostic.
+    //
+    // java BatchCompiler [-q] [-s] [-O] [-j threads] (dir | file.cpp) ...
+    //   -q: print diagnostics only, not ASTs
+    //   -O: fold constants, and report how many AST nodes that removed
+    //   -s: stack-safe parsing (see Parser.stackSafe)
+    //   directories are searched recursively for *.cpp files
+
+    private static boolean quiet = false;
+    private static boolean stackSafe = false;
+    private static boolean optimize = false;
+
+    private static final ThreadLocal<Frontend> frontend =
+        ThreadLocal.withInitial(Frontend::new);
+
+    private static final class Result {
+        final Path file;
+        final Compilation compilation;
+        final String text;      // what to print for this file
+
+        Result (Path f, Compilation c, String t) {
+            file = f; compilation = c; text = t;
+        }
+    }
+
+    private static Result compile (Path file) {
+        Frontend fe = frontend.get();
+        fe.setStackSafe(stackSafe);
+        fe.setOptimize(optimize);
+        Compilation c = fe.compile(file);
+        String text;
+        if (!c.succeeded())
+            text = c.diagnostics().get(0).toString();
+        else if (quiet)
+            text = null;
+        else
+            text = c.program().toString();
+        return new Result(file, c, text);
+    }
+
+    static List<Path> sources (List<String> names) throws IOException {
+        List<Path> files = new ArrayList<Path>();
+        for (String name : names) {
+            Path p = Paths.get(name);
+            if (Files.isDirectory(p)) {
+                try (Stream<Path> s = Files.walk(p)) {
+                    files.addAll(s.filter(f -> f.toString().endsWith(".cpp"))
+                                  .sorted()
+                                  .collect(Collectors.toList()));
+                }
+            } else
+                files.add(p);
+        }
+        return files;
+    }
+
+    public static void main (String[] args) throws IOException, InterruptedException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<String> names = new ArrayList<String>();
+        for (int a = 0; a < args.length; a++) {
+            if (args[a].equals("-q")) quiet = true;
+            else if (args[a].equals("-s")) stackSafe = true;
+            else if (args[a].equals("-O")) optimize = true;
+            else if (args[a].equals("-j")) threads = Integer.parseInt(args[++a]);
+            else names.add(args[a]);
+        }
+        List<Path> files = sources(names);
+        PrintStream out = System.out;
+
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        List<Future<Result>> results = new ArrayList<Future<Result>>();
+        for (Path f : files)
+            results.add(pool.submit(() -> compile(f)));
+
+        int failed = 0;
+        long tokens = 0, bytes = 0, nodes = 0, removed = 0;
+        for (int i = 0; i < files.size(); i++) {
+            Result r;
+            try {
+                r = results.get(i).get();
+            } catch (ExecutionException e) { // this file fails; the rest go on
+                Diagnostic d = new Diagnostic(0, 0, "Internal compiler error: "
+                                              + e.getCause());
+                r = new Result(files.get(i), new Compilation(d), d.toString());
+            }
+            tokens += r.compilation.tokens();
+            bytes += r.compilation.bytes();
+            nodes += r.compilation.nodes();
+            removed += r.compilation.removed();
+            if (!r.compilation.succeeded()) failed++;
+            if (r.text != null) {
+                out.println("== " + r.file);
+                out.println(r.text);
+            }
+        }
+        pool.shutdown();
+        double secs = (System.nanoTime() - start) / 1e9;
+
+        System.err.printf("%d files (%d failed), %d tokens, %d bytes in %.3f s "
+                          + "on %d threads%n", files.size(), failed, tokens,
+                          bytes, secs, threads);
+        System.err.printf("%.1f files/s, %.0f tokens/s, %.2f MB/s%n",
+                          files.size() / secs, tokens / secs,
+                          bytes / secs / (1024 * 1024));
+        if (optimize)
+            System.err.printf("%d of %d AST nodes removed by constant folding%n",
+                              removed, nodes);
+        if (failed > 0) System.exit(1);
+    }
+
+} // BatchCompiler
@@ -0,0 +1,132 @@
+class Bytecode {
+    // Register bytecode for one typed Program, as produced by
+    // BytecodeCompiler and run by VM.  Instructions are an opcode
+    // followed by its operands, all in one int[ ]; operands are
+    // register numbers, jump targets (code indexes) or variable
+    // numbers.  There are two register files, int (int, char and
+    // bool values) and float.  Each file holds the variables first,
+    // then the constants, then temporaries; the constant pool is the
+    // initial contents of the constant registers.  Arrays are not in
+    // registers: element loads and stores name the array by its
+    // variable number, and BND checks an index against its bounds.
+    //
+    // main and each function are a Bytecode of their own, sharing
+    // one table of functions.  A function's registers and variables
+    // are numbered from 0 in its frame, as main's are, with its
+    // parameters first.  ARG and FARG put a value in a register of
+    // the frame a call is about to push, and CALL pushes it, runs
+    // the function and puts the value of its RET in a register;
+    // VCALL calls a void function.  NORET ends a function that falls
+    // off its end without returning a value.
+
+    static final int HALT = 0, MOV = 1, FMOV = 2,
+        IADD = 3, ISUB = 4, IMUL = 5, IDIV = 6, INEG = 7,
+        FADD = 8, FSUB = 9, FMUL = 10, FDIV = 11, FNEG = 12,
+        ILT = 13, ILE = 14, IEQ = 15, INE = 16, IGT = 17, IGE = 18,
+        FLT = 19, FLE = 20, FEQ = 21, FNE = 22, FGT = 23, FGE = 24,
+        NOT = 25, I2F = 26, F2I = 27, I2C = 28,
+        JMP = 29, JT = 30, JF = 31,
+        JLT = 32, JLE = 33, JEQ = 34, JNE = 35, JGT = 36, JGE = 37,
+        CHK = 38, DEF = 39,
+        ILOADA = 40, FLOADA = 41, CLOADA = 42,
+        ISTOREA = 43, FSTOREA = 44, CSTOREA = 45, BND = 46,
+        ARG = 47, FARG = 48, CALL = 49, FCALL = 50, VCALL = 51,
+        RET = 52, FRET = 53, RETV = 54, NORET = 55;
+
+    // Per opcode: its name, and one letter per operand: i int
+    // register, f float register, L jump target, v variable number,
+    // F function number; a and g are int and float registers of the
+    // frame the next call pushes.
+    static final String[ ][ ] format = {
+        {"HALT", ""}, {"MOV", "ii"}, {"FMOV", "ff"},
+        {"IADD", "iii"}, {"ISUB", "iii"}, {"IMUL", "iii"}, {"IDIV", "iii"},
+        {"INEG", "ii"},
+        {"FADD", "fff"}, {"FSUB", "fff"}, {"FMUL", "fff"}, {"FDIV", "fff"},
+        {"FNEG", "ff"},
+        {"ILT", "iii"}, {"ILE", "iii"}, {"IEQ", "iii"},
+        {"INE", "iii"}, {"IGT", "iii"}, {"IGE", "iii"},
+        {"FLT", "iff"}, {"FLE", "iff"}, {"FEQ", "iff"},
+        {"FNE", "iff"}, {"FGT", "iff"}, {"FGE", "iff"},
+        {"NOT", "ii"}, {"I2F", "fi"}, {"F2I", "if"}, {"I2C", "ii"},
+        {"JMP", "L"}, {"JT", "iL"}, {"JF", "iL"},
+        {"JLT", "iiL"}, {"JLE", "iiL"}, {"JEQ", "iiL"},
+        {"JNE", "iiL"}, {"JGT", "iiL"}, {"JGE", "iiL"},
+        {"CHK", "v"}, {"DEF", "v"},
+        {"ILOADA", "ivi"}, {"FLOADA", "fvi"}, {"CLOADA", "ivi"},
+        {"ISTOREA", "vii"}, {"FSTOREA", "vif"}, {"CSTOREA", "vii"},
+        {"BND", "vi"},
+        {"ARG", "ai"}, {"FARG", "gf"},
+        {"CALL", "Fi"}, {"FCALL", "Ff"}, {"VCALL", "F"},
+        {"RET", "i"}, {"FRET", "f"}, {"RETV", ""}, {"NORET", ""}
+    };
+
+    static int size (int opcode) { return 1 + format[opcode][1].length(); }
+
+    final int[] code;
+    final int[] iconsts;      // int constant pool, from register iconstBase
+    final int iconstBase;
+    final float[] fconsts;    // float constant pool, from fconstBase
+    final int fconstBase;
+    final int iregs, fregs;   // register file sizes
+    final Variable[] vars;    // by variable number, in declaration order
+    final Type[] types;
+    final int[] regs;         // each variable's register, or -1 for arrays
+    final boolean[] temporary; // see Declaration.temporary
+    Function function;        // null for main
+    Bytecode[] functions;     // by function number, shared
+
+    Bytecode (int[] code, int[] iconsts, int iconstBase,
+              float[] fconsts, int fconstBase, int iregs, int fregs,
+              Variable[] vars, Type[] types, int[] regs, boolean[] temporary) {
+        this.code = code;
+        this.iconsts = iconsts; this.iconstBase = iconstBase;
+        this.fconsts = fconsts; this.fconstBase = fconstBase;
+        this.iregs = iregs; this.fregs = fregs;
+        this.vars = vars; this.types = types; this.regs = regs;
+        this.temporary = temporary;
+    }
+
+    public String toString( ) { // disassembly, main's then each function's
+        StringBuilder disp = listing();
+        if (function == null)
+            for (Bytecode f : functions)
+                disp.append("\n").append(f.function.t).append(" ")
+                    .append(f.function.id).append(":\n").append(f.listing());
+        return disp.toString();
+    }
+
+    private StringBuilder listing ( ) {
+        StringBuilder disp = new StringBuilder();
+        for (int v = 0; v < vars.length; v++)
+            if (types[v].isArray())
+                disp.append(types[v]).append(" ").append(vars[v].name())
+                    .append("\n");
+            else
+                disp.append(types[v] == Type.FLOAT ? "f" : "r").append(regs[v])
+                    .append(" = ").append(vars[v].name()).append("\n");
+        for (int k = 0; k < iconsts.length; k++)
+            disp.append("r").append(iconstBase + k)
+                .append(" = ").append(iconsts[k]).append("\n");
+        for (int k = 0; k < fconsts.length; k++)
+            disp.append("f").append(fconstBase + k)
+                .append(" = ").append(fconsts[k]).append("\n");
+        for (int pc = 0; pc < code.length; pc += size(code[pc])) {
+            String[] f = format[code[pc]];
+            disp.append(String.format("%5d  %-5s", pc, f[0]));
+            for (int k = 0; k < f[1].length(); k++) {
+                disp.append(k == 0 ? " " : ", ");
+                char kind = f[1].charAt(k);
+                int operand = code[pc + 1 + k];
+                if (kind == 'i') disp.append("r").append(operand);
+                else if (kind == 'f') disp.append("f").append(operand);
+                else if (kind == 'v') disp.append(vars[operand].name());
+                else if (kind == 'F') disp.append(functions[operand].function.id);
+                else if (kind == 'a') disp.append("^r").append(operand);
+                else if (kind == 'g') disp.append("^f").append(operand);
+                else disp.append(operand);
+            }
+            disp.append("\n");
+        }
+        return disp;
+    }
+}
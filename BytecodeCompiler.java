@@ -0,0 +1,447 @@
+import java.util.*;
+
+class BytecodeCompiler {
+    // Compiles a typed Program (see TypeTransformer) to Bytecode.
+    // Variables live in registers, so an assignment's last
+    // instruction writes the variable directly and a Variable operand
+    // costs nothing.  Tests compile to conditional jumps: an int, char
+    // or bool comparison becomes one compare-and-branch, && and ||
+    // jump past their right operand, and a Loop tests at the bottom,
+    // so each iteration takes a single branch.
+    //
+    // Each read of a variable is preceded by a CHK of its defined
+    // flag, and each assignment followed by a DEF, to keep the
+    // Interpreter's "reference to undefined variable" error; neither
+    // is needed where the variable is already definitely assigned
+    // (see DefiniteAssignment).  Likewise an element access is
+    // preceded by a BND of its index unless RangeAnalysis proves the
+    // index in bounds.
+    //
+    // main and each function compile separately, each to a Bytecode
+    // with its own registers.  A call evaluates all its arguments
+    // before the first ARG, since an argument may itself call.
+
+    private int[] code = new int[256];
+    private int pc = 0;
+
+    private final Map<Variable, Integer> number = new HashMap<Variable, Integer>();
+    private final Variable[] vars;
+    private final Type[] types;
+    private final int[] regs;
+    private final boolean[] temporary;
+    private final Functions functions;
+    private final Function function;   // being compiled, or null for main
+    private DefiniteAssignment da;
+    private BitSet safe;               // assigned before this statement
+    private RangeAnalysis ranges;
+
+    private final Map<Integer, Integer> iconsts = new LinkedHashMap<Integer, Integer>();
+    private final Map<Integer, Integer> fconsts = new LinkedHashMap<Integer, Integer>();
+    private int ivars = 0, fvars = 0;  // variable registers per file
+    private int itemp, ftemp;          // next free temporary
+    private int imax, fmax;            // registers used so far
+
+    private BytecodeCompiler (Declarations d, Functions fs, Function f) {
+        functions = fs;
+        function = f;
+        int n = d.size();
+        vars = new Variable[n];
+        types = new Type[n];
+        regs = new int[n];
+        temporary = new boolean[n];
+        for (int v = 0; v < n; v++) {
+            Declaration dv = d.get(v);
+            if (number.put(dv.v, v) != null)
+                throw new IllegalArgumentException(
+                    "duplicate declaration of " + dv.v.name());
+            vars[v] = dv.v;
+            types[v] = dv.t;
+            temporary[v] = dv.temporary;
+            regs[v] = dv.t.isArray() ? -1 : dv.t == Type.FLOAT ? fvars++ : ivars++;
+        }
+    }
+
+    static Bytecode compile (Program p) {
+        Bytecode[] functions = new Bytecode[p.functions.size()];
+        for (int k = 0; k < functions.length; k++) {
+            Function f = p.functions.get(k);
+            BytecodeCompiler c = new BytecodeCompiler(
+                StaticTypeCheck.variables(f), p.functions, f);
+            functions[k] = c.unit(f.body, DefiniteAssignment.of(f), RangeAnalysis.of(f));
+        }
+        BytecodeCompiler c = new BytecodeCompiler(p.decpart, p.functions, null);
+        Bytecode main = c.unit(p.body, DefiniteAssignment.of(p), RangeAnalysis.of(p));
+        main.functions = functions;
+        for (Bytecode f : functions)
+            f.functions = functions;
+        return main;
+    }
+
+    private Bytecode unit (Block body, DefiniteAssignment da, RangeAnalysis ranges) {
+        this.da = da;
+        this.ranges = ranges;
+        constants(body);
+        imax = ivars + iconsts.size();
+        fmax = fvars + fconsts.size();
+        statement(body);
+        emit(function == null ? Bytecode.HALT
+             : function.t == Type.VOID ? Bytecode.RETV : Bytecode.NORET);
+        int[] ipool = new int[iconsts.size()];
+        int k = 0;
+        for (int value : iconsts.keySet())
+            ipool[k++] = value;
+        float[] fpool = new float[fconsts.size()];
+        k = 0;
+        for (int bits : fconsts.keySet())
+            fpool[k++] = Float.intBitsToFloat(bits);
+        Bytecode b = new Bytecode(Arrays.copyOf(code, pc), ipool, ivars,
+                                  fpool, fvars, imax, fmax,
+                                  vars, types, regs, temporary);
+        b.function = function;
+        return b;
+    }
+
+    // Constants are collected before any code is emitted, so that
+    // they sit below every temporary.
+
+    private void constants (Statement s) {
+        if (s instanceof Assignment) {
+            constants(((Assignment) s).source);
+        } else if (s instanceof ArrayAssignment) {
+            constants(((ArrayAssignment) s).target);
+            constants(((ArrayAssignment) s).source);
+        } else if (s instanceof Conditional) {
+            Conditional c = (Conditional) s;
+            constants(c.test);
+            constants(c.thenbranch);
+            if (c.elsebranch != null) constants(c.elsebranch);
+        } else if (s instanceof Loop) {
+            constants(((Loop) s).test);
+            constants(((Loop) s).body);
+        } else if (s instanceof Block) {
+            for (Statement m : ((Block) s).members)
+                constants(m);
+        } else if (s instanceof CallStatement) {
+            constants(((CallStatement) s).call);
+        } else if (s instanceof Return) {
+            Expression result = ((Return) s).result;
+            if (result != null) constants(result);
+        }
+    }
+
+    private void constants (Expression e) {
+        if (e instanceof Value) {
+            Value v = (Value) e;
+            if (v.isUndef())
+                throw new IllegalArgumentException("undefined constant");
+            if (v.type() == Type.FLOAT) {
+                int bits = Float.floatToRawIntBits(v.floatValue());
+                if (!fconsts.containsKey(bits))
+                    fconsts.put(bits, fvars + fconsts.size());
+            } else
+                pool(intValue(v));
+        } else if (e instanceof Binary) {
+            Opcode op = ((Binary) e).op.code;
+            if (op == Opcode.AND || op == Opcode.OR) {
+                pool(0);        // the values of a test, when stored
+                pool(1);
+            }
+            constants(((Binary) e).term1);
+            constants(((Binary) e).term2);
+        } else if (e instanceof Unary) {
+            constants(((Unary) e).term);
+        } else if (e instanceof ArrayRef) {
+            constants(((ArrayRef) e).index);
+        } else if (e instanceof Call) {
+            for (Expression a : ((Call) e).args)
+                constants(a);
+        }
+    }
+
+    private void pool (int value) {
+        if (!iconsts.containsKey(value))
+            iconsts.put(value, ivars + iconsts.size());
+    }
+
+    private static int intValue (Value v) { // int, char or bool
+        return v.type() == Type.CHAR ? v.charValue() : v.intValue();
+    }
+
+    private void emit (int... words) {
+        if (pc + words.length > code.length)
+            code = Arrays.copyOf(code, 2 * code.length + words.length);
+        for (int w : words)
+            code[pc++] = w;
+    }
+
+    private static final class Label { // a jump target, maybe not yet placed
+        int at = -1;
+        int[] refs = new int[4];  // code indexes waiting for at
+        int n = 0;
+    }
+
+    private void jump (int opcode, int a, int b, Label l) {
+        emit(opcode);
+        if (a >= 0) emit(a);
+        if (b >= 0) emit(b);
+        if (l.at < 0) {
+            if (l.n == l.refs.length) l.refs = Arrays.copyOf(l.refs, 2 * l.n);
+            l.refs[l.n++] = pc;
+        }
+        emit(l.at);
+    }
+
+    private void place (Label l) {
+        l.at = pc;
+        for (int k = 0; k < l.n; k++)
+            code[l.refs[k]] = pc;
+    }
+
+    private int variable (Variable v) {
+        Integer n = number.get(v);
+        if (n == null)
+            throw new IllegalArgumentException("undeclared variable " + v.name());
+        return n;
+    }
+
+    private void statement (Statement s) {
+        itemp = ivars + iconsts.size();   // no temporary outlives an
+        ftemp = fvars + fconsts.size();   // expression
+        safe = da.before(s);
+        if (s instanceof Assignment) {
+            Assignment a = (Assignment) s;
+            int v = variable(a.target);
+            int r = expression(a.source, regs[v]);
+            if (r != regs[v])
+                emit(types[v] == Type.FLOAT ? Bytecode.FMOV : Bytecode.MOV,
+                     regs[v], r);
+            if (!safe.get(v)) emit(Bytecode.DEF, v);
+        } else if (s instanceof ArrayAssignment) {
+            ArrayAssignment a = (ArrayAssignment) s;
+            int v = variable(a.target.array);
+            int k = index(a.target);
+            int r = expression(a.source, -1);
+            Type t = types[v].element();
+            emit(t == Type.FLOAT ? Bytecode.FSTOREA
+                 : t == Type.CHAR ? Bytecode.CSTOREA : Bytecode.ISTOREA, v, k, r);
+        } else if (s instanceof Block) {
+            for (Statement m : ((Block) s).members)
+                statement(m);
+        } else if (s instanceof Loop) {
+            Loop l = (Loop) s;
+            Label body = new Label(), test = new Label();
+            jump(Bytecode.JMP, -1, -1, test);
+            place(body);
+            statement(l.body);
+            place(test);
+            itemp = ivars + iconsts.size();
+            ftemp = fvars + fconsts.size();
+            safe = da.before(s);
+            branch(l.test, true, body);
+        } else if (s instanceof Conditional) {
+            Conditional c = (Conditional) s;
+            Label elsebranch = new Label();
+            branch(c.test, false, elsebranch);
+            statement(c.thenbranch);
+            if (c.elsebranch == null || c.elsebranch instanceof Skip)
+                place(elsebranch);
+            else {
+                Label end = new Label();
+                jump(Bytecode.JMP, -1, -1, end);
+                place(elsebranch);
+                statement(c.elsebranch);
+                place(end);
+            }
+        } else if (s instanceof CallStatement) {
+            call(((CallStatement) s).call, -1);
+        } else if (s instanceof Return) {
+            Expression result = ((Return) s).result;
+            if (result == null)
+                emit(Bytecode.RETV);
+            else
+                emit(function.t == Type.FLOAT ? Bytecode.FRET : Bytecode.RET,
+                     expression(result, -1));
+        }
+        // Skip: no code
+    }
+
+    private int itemp( ) { imax = Math.max(imax, itemp + 1); return itemp++; }
+
+    private int ftemp( ) { fmax = Math.max(fmax, ftemp + 1); return ftemp++; }
+
+    private int expression (Expression e, int dst) {
+        // Code for e; returns the register holding its value, which
+        // is dst if dst >= 0 and e needed an instruction.
+        if (e instanceof Variable) {
+            int v = variable((Variable) e);
+            if (!safe.get(v)) emit(Bytecode.CHK, v);
+            return regs[v];
+        }
+        if (e instanceof Value) {
+            Value v = (Value) e;
+            if (v.type() == Type.FLOAT)
+                return fconsts.get(Float.floatToRawIntBits(v.floatValue()));
+            return iconsts.get(intValue(v));
+        }
+        if (e instanceof ArrayRef) {
+            ArrayRef r = (ArrayRef) e;
+            int v = variable(r.array);
+            int k = index(r);
+            Type t = types[v].element();
+            if (dst < 0) dst = t == Type.FLOAT ? ftemp() : itemp();
+            emit(t == Type.FLOAT ? Bytecode.FLOADA
+                 : t == Type.CHAR ? Bytecode.CLOADA : Bytecode.ILOADA, dst, v, k);
+            return dst;
+        }
+        if (e instanceof Call)
+            return call((Call) e, dst);
+        if (e instanceof Binary)
+            return binary((Binary) e, dst);
+        return unary((Unary) e, dst);
+    }
+
+    private int call (Call c, int dst) { // as expression( ); -1 if void
+        int k = 0;
+        while (!functions.get(k).id.equals(c.name))
+            k++;
+        Function f = functions.get(k);
+        int[] r = new int[c.args.size()];
+        for (int i = 0; i < r.length; i++)
+            r[i] = expression(c.args.get(i), -1);
+        int ireg = 0, freg = 0;   // the parameters' registers, in f's frame
+        for (int i = 0; i < r.length; i++)
+            if (f.params.get(i).t == Type.FLOAT)
+                emit(Bytecode.FARG, freg++, r[i]);
+            else
+                emit(Bytecode.ARG, ireg++, r[i]);
+        if (f.t == Type.VOID) {
+            emit(Bytecode.VCALL, k);
+            return -1;
+        }
+        boolean floats = f.t == Type.FLOAT;
+        if (dst < 0) dst = floats ? ftemp() : itemp();
+        emit(floats ? Bytecode.FCALL : Bytecode.CALL, k, dst);
+        return dst;
+    }
+
+    private int index (ArrayRef r) { // the register of r's index, checked
+        int k = expression(r.index, -1);
+        if (!ranges.inBounds(r)) emit(Bytecode.BND, variable(r.array), k);
+        return k;
+    }
+
+    private int binary (Binary b, int dst) {
+        Opcode op = b.op.code;
+        int opcode;
+        switch (op) {
+          case AND: case OR: {
+            if (dst < 0) dst = itemp();
+            Label no = new Label(), end = new Label();
+            branch(b, false, no);
+            emit(Bytecode.MOV, dst, iconst(1));
+            jump(Bytecode.JMP, -1, -1, end);
+            place(no);
+            emit(Bytecode.MOV, dst, iconst(0));
+            place(end);
+            return dst;
+          }
+          case INT_PLUS:  opcode = Bytecode.IADD; break;
+          case INT_MINUS: opcode = Bytecode.ISUB; break;
+          case INT_TIMES: opcode = Bytecode.IMUL; break;
+          case INT_DIV:   opcode = Bytecode.IDIV; break;
+          case FLOAT_PLUS:  opcode = Bytecode.FADD; break;
+          case FLOAT_MINUS: opcode = Bytecode.FSUB; break;
+          case FLOAT_TIMES: opcode = Bytecode.FMUL; break;
+          case FLOAT_DIV:   opcode = Bytecode.FDIV; break;
+          case FLOAT_LT: opcode = Bytecode.FLT; break;
+          case FLOAT_LE: opcode = Bytecode.FLE; break;
+          case FLOAT_EQ: opcode = Bytecode.FEQ; break;
+          case FLOAT_NE: opcode = Bytecode.FNE; break;
+          case FLOAT_GT: opcode = Bytecode.FGT; break;
+          case FLOAT_GE: opcode = Bytecode.FGE; break;
+          default:
+            opcode = compare(op);   // int, char and bool compares
+            if (opcode < 0)
+                throw new IllegalArgumentException("untyped operator " + op);
+            opcode += Bytecode.ILT;
+        }
+        int r1 = expression(b.term1, -1);
+        int r2 = expression(b.term2, -1);
+        boolean f = opcode >= Bytecode.FADD && opcode <= Bytecode.FDIV;
+        if (dst < 0) dst = f ? ftemp() : itemp();
+        emit(opcode, dst, r1, r2);
+        return dst;
+    }
+
+    private static int compare (Opcode op) { // LT..GE as 0..5, or -1
+        switch (op) {
+          case INT_LT: case CHAR_LT: case BOOL_LT: return 0;
+          case INT_LE: case CHAR_LE: case BOOL_LE: return 1;
+          case INT_EQ: case CHAR_EQ: case BOOL_EQ: return 2;
+          case INT_NE: case CHAR_NE: case BOOL_NE: return 3;
+          case INT_GT: case CHAR_GT: case BOOL_GT: return 4;
+          case INT_GE: case CHAR_GE: case BOOL_GE: return 5;
+          default: return -1;
+        }
+    }
+
+    private int iconst (int value) { return iconsts.get(value); }
+
+    private int unary (Unary u, int dst) {
+        int opcode;
+        switch (u.op.code) {
+          case NOT: opcode = Bytecode.NOT; break;
+          case INT_NEG: opcode = Bytecode.INEG; break;
+          case FLOAT_NEG: opcode = Bytecode.FNEG; break;
+          case I2F: opcode = Bytecode.I2F; break;
+          case F2I: opcode = Bytecode.F2I; break;
+          case I2C: opcode = Bytecode.I2C; break;
+          case C2I: return expression(u.term, dst);  // same bits
+          default:
+            throw new IllegalArgumentException("untyped operator " + u.op);
+        }
+        int r = expression(u.term, -1);
+        boolean f = opcode == Bytecode.FNEG || opcode == Bytecode.I2F;
+        if (dst < 0) dst = f ? ftemp() : itemp();
+        emit(opcode, dst, r);
+        return dst;
+    }
+
+    private void branch (Expression e, boolean sense, Label l) {
+        // Jump to l when e is sense; fall through otherwise.
+        if (e instanceof Binary) {
+            Binary b = (Binary) e;
+            Opcode op = b.op.code;
+            if (op == Opcode.AND || op == Opcode.OR) {
+                if (sense == (op == Opcode.OR)) {   // either operand decides
+                    branch(b.term1, sense, l);
+                    branch(b.term2, sense, l);
+                } else {                            // both must agree
+                    Label skip = new Label();
+                    branch(b.term1, !sense, skip);
+                    branch(b.term2, sense, l);
+                    place(skip);
+                }
+                return;
+            }
+            int rel = compare(op);
+            if (rel >= 0) {
+                if (!sense) rel = 5 - rel;   // LT<->GE, LE<->GT, EQ<->NE
+                int r1 = expression(b.term1, -1);
+                int r2 = expression(b.term2, -1);
+                jump(Bytecode.JLT + rel, r1, r2, l);
+                return;
+            }
+        } else if (e instanceof Unary && ((Unary) e).op.code == Opcode.NOT) {
+            branch(((Unary) e).term, !sense, l);
+            return;
+        } else if (e instanceof BoolValue) {
+            if (((BoolValue) e).boolValue() == sense)
+                jump(Bytecode.JMP, -1, -1, l);
+            return;
+        }
+        int r = expression(e, -1);
+        jump(sense ? Bytecode.JT : Bytecode.JF, r, -1, l);
+    }
+
+} // BytecodeCompiler
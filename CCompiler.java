@@ -0,0 +1,519 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class CCompiler {
+    // Translates a typed Program (see TypeTransformer) to portable C99
+    // with the same results as the Java engines.  Each variable is a
+    // local of main, v0, v1, ... in declaration order, with a defined
+    // flag d0, d1, ...; the flag is tested and set only where
+    // DefiniteAssignment cannot prove the variable already assigned.
+    // Arrays are static, so zeroed, and have no flag; an index is
+    // checked by idx unless RangeAnalysis proves it in bounds.  Where
+    // C and Java differ, a small helper does what Java does:
+    //   - int +, -, * and negation wrap (done in unsigned);
+    //   - int / by zero is an error, and INT_MIN / -1 is INT_MIN;
+    //   - float to int truncates, with NaN as 0 and saturation;
+    //   - float literals are written in hex, so they are exact, and
+    //     FP_CONTRACT is off, so a * b + c is not fused;
+    //   - operands are evaluated left to right: C leaves their order
+    //     open, so where both can fail (CHK, idx, quo), the left one
+    //     goes to a scratch t0, t1, ... first, in a comma expression;
+    //     a call can always fail, and so do its arguments.
+    // Each function is a C function f_ and its name, with its
+    // parameters and locals numbered as main's variables are; its
+    // arrays are locals, zeroed on each call.  A program killed by
+    // SIGSEGV has overflowed the C stack, which is reported as the
+    // Java engines report it.  The program writes its final state to
+    // stdout, one line per variable: its number, its defined flag and its value (for an
+    // array, each element), floats as their bits.  A runtime error
+    // goes to stderr, with exit status 1.
+    //
+    // run builds the C with a local compiler (cc -O2 by default),
+    // runs it and reads that state back as Values.
+
+    static final String[] CC =   // no tail calls, so a runaway recursion overflows
+        { "cc", "-O2", "-ffp-contract=off", "-fno-optimize-sibling-calls" };
+
+    private final StringBuilder out;
+    private final Map<Variable, Integer> number = new HashMap<Variable, Integer>();
+    private final Declarations decpart;
+    private final Function function;   // being translated, or null for main
+    private final Functions functions;
+    private final DefiniteAssignment da;
+    private final RangeAnalysis ranges;
+    private BitSet safe;      // assigned before this statement
+    private boolean fails;    // the last expression( ) can stop the program
+    private final List<String> scratch = new ArrayList<String>();   // C types
+    private int indent = 1;
+
+    private CCompiler (StringBuilder out, Declarations d, Function f, Functions fs,
+                       DefiniteAssignment da, RangeAnalysis ranges) {
+        this.out = out;
+        decpart = d;
+        function = f;
+        functions = fs;
+        for (int v = 0; v < decpart.size(); v++)
+            if (number.put(decpart.get(v).v, v) != null)
+                throw new IllegalArgumentException(
+                    "duplicate declaration of " + decpart.get(v).v.name());
+        this.da = da;
+        this.ranges = ranges;
+    }
+
+    static String compile (Program p) {
+        StringBuilder out = new StringBuilder(PRELUDE);
+        for (Function f : p.functions)
+            out.append(header(f)).append(";\n");
+        if (!p.functions.isEmpty()) out.append("\n");
+        for (Function f : p.functions)
+            new CCompiler(out, StaticTypeCheck.variables(f), f, p.functions,
+                          DefiniteAssignment.of(f), RangeAnalysis.of(f)).function();
+        new CCompiler(out, p.decpart, null, p.functions,
+                      DefiniteAssignment.of(p), RangeAnalysis.of(p)).program(p.body);
+        return out.toString();
+    }
+
+    private static String header (Function f) {
+        StringBuilder h = new StringBuilder("static ")
+            .append(f.t == Type.VOID ? "void" : ctype(f.t)).append(" f_").append(f.id)
+            .append(" (");
+        for (int v = 0; v < f.params.size(); v++)
+            h.append(v == 0 ? "" : ", ").append(ctype(f.params.get(v).t))
+             .append(" v").append(v);
+        return h.append(f.params.isEmpty() ? "void)" : ")").toString();
+    }
+
+    private static final String PRELUDE =
+        "/* C++Lite program, translated by CCompiler */\n"
+        + "#include <limits.h>\n"
+        + "#include <math.h>\n"
+        + "#include <stdio.h>\n"
+        + "#include <stdlib.h>\n"
+        + "#include <string.h>\n"
+        + "\n"
+        + "#pragma STDC FP_CONTRACT OFF\n"
+        + "\n"
+        + "static void fail (const char *msg, const char *name) {\n"
+        + "    fprintf(stderr, \"%s%s\\n\", msg, name);\n"
+        + "    exit(1);\n"
+        + "}\n"
+        + "\n"
+        + "#define CHK(d, v, name) \\\n"
+        + "    ((d) ? (v) : (fail(\"reference to undefined variable \", name), (v)))\n"
+        + "\n"
+        + "static int add (int a, int b) { return (int) ((unsigned) a + (unsigned) b); }\n"
+        + "static int sub (int a, int b) { return (int) ((unsigned) a - (unsigned) b); }\n"
+        + "static int mul (int a, int b) { return (int) ((unsigned) a * (unsigned) b); }\n"
+        + "static int neg (int a) { return (int) (0u - (unsigned) a); }\n"
+        + "\n"
+        + "static int idx (int i, int n, const char *a) {\n"
+        + "    if (i < 0 || i >= n) {\n"
+        + "        fprintf(stderr, \"index %d out of bounds for %s[%d]\\n\", i, a, n);\n"
+        + "        exit(1);\n"
+        + "    }\n"
+        + "    return i;\n"
+        + "}\n"
+        + "\n"
+        + "static int quo (int a, int b) {\n"
+        + "    if (b == 0) fail(\"/ by zero\", \"\");\n"
+        + "    return b == -1 ? neg(a) : a / b;\n"
+        + "}\n"
+        + "\n"
+        + "static int f2i (float f) {\n"
+        + "    if (f != f) return 0;\n"
+        + "    if (f >= 2147483648.0f) return INT_MAX;\n"
+        + "    if (f <= -2147483648.0f) return INT_MIN;\n"
+        + "    return (int) f;\n"
+        + "}\n"
+        + "\n"
+        + "static unsigned bits (float f) {\n"
+        + "    unsigned u;\n"
+        + "    memcpy(&u, &f, sizeof u);\n"
+        + "    return u;\n"
+        + "}\n"
+        + "\n";
+
+    private void function ( ) {
+        out.append(header(function)).append(" {\n");
+        body(function.params.size(), function.body);
+        if (function.t != Type.VOID)
+            line("fail(\"function " + function.id + " ended without a return\", \"\");");
+        out.append("}\n\n");
+    }
+
+    private void body (int params, Block b) { // the declarations from params on, and b
+        boolean arrays = false;
+        for (int v = params; v < decpart.size(); v++) {
+            Declaration d = decpart.get(v);
+            arrays |= d.t.isArray();
+            if (d.t.isArray())
+                out.append(function == null ? "    static " : "    ")
+                   .append(ctype(d.t.element()))
+                   .append(" v").append(v).append("[").append(d.t.size())
+                   .append(function == null ? "];" : "] = {0};");
+            else
+                out.append("    ").append(ctype(d.t))
+                   .append(" v").append(v).append(" = 0; ")
+                   .append("int d").append(v).append(" = 0;");
+            out.append("   /* ").append(d.t).append(" ")
+               .append(d.v.name()).append(" */\n");
+        }
+        if (arrays) out.append("    int k;   /* element scratch */\n");
+        int at = out.length();
+        out.append("\n");
+        statement(b);
+        StringBuilder temps = new StringBuilder();
+        for (int t = 0; t < scratch.size(); t++)
+            temps.append("    ").append(scratch.get(t)).append(" t").append(t)
+                 .append(";   /* operand scratch */\n");
+        out.insert(at, temps);
+    }
+
+    private void program (Block b) {
+        out.append("int main (void) {\n");
+        body(0, b);
+        out.append("\n");
+        for (int v = 0; v < decpart.size(); v++) {
+            Type t = decpart.get(v).t;
+            String format = t == Type.FLOAT || t.isArray() && t.element() == Type.FLOAT
+                ? " %u" : " %d";
+            if (t.isArray())
+                out.append("    printf(\"").append(v).append(" 1\");\n")
+                   .append("    for (k = 0; k < ").append(t.size()).append("; k++) ")
+                   .append("printf(\"").append(format).append("\", ")
+                   .append(format.equals(" %u") ? "bits(v" + v + "[k])" : "v" + v + "[k]")
+                   .append(");\n")
+                   .append("    printf(\"\\n\");\n");
+            else
+                out.append("    printf(\"").append(v).append(" %d").append(format)
+                   .append("\\n\", d").append(v).append(", ")
+                   .append(t == Type.FLOAT ? "bits(v" + v + ")" : "v" + v).append(");\n");
+        }
+        out.append("    return 0;\n}\n");
+    }
+
+    private static String ctype (Type t) {
+        if (t == Type.FLOAT) return "float";
+        return t == Type.CHAR ? "unsigned short" : "int";
+    }
+
+    private int variable (Variable v) {
+        Integer k = number.get(v);
+        if (k == null)
+            throw new IllegalArgumentException("undeclared variable " + v.name());
+        return k;
+    }
+
+    private void line (String s) {
+        for (int i = 0; i < indent; i++)
+            out.append("    ");
+        out.append(s).append("\n");
+    }
+
+    private void statement (Statement s) {
+        safe = da.before(s);
+        if (s instanceof Assignment) {
+            Assignment a = (Assignment) s;
+            int v = variable(a.target);
+            line("v" + v + " = " + expression(a.source) + ";"
+                 + (safe.get(v) ? "" : " d" + v + " = 1;"));
+        } else if (s instanceof ArrayAssignment) {
+            // the index, and its check, come before the source
+            ArrayAssignment a = (ArrayAssignment) s;
+            Expression i = a.target.index;
+            if (ranges.inBounds(a.target) && (i instanceof Value
+                    || i instanceof Variable && safe.get(variable((Variable) i))))
+                line(element(a.target) + " = " + expression(a.source) + ";");
+            else
+                line("k = " + index(a.target) + "; v" + variable(a.target.array)
+                     + "[k] = " + expression(a.source) + ";");
+        } else if (s instanceof Block) {
+            for (Statement m : ((Block) s).members)
+                statement(m);
+        } else if (s instanceof Loop) {
+            Loop l = (Loop) s;
+            line("while (" + expression(l.test) + ") {");
+            indent++;
+            statement(l.body);
+            indent--;
+            line("}");
+        } else if (s instanceof Conditional) {
+            Conditional c = (Conditional) s;
+            line("if (" + expression(c.test) + ") {");
+            indent++;
+            statement(c.thenbranch);
+            indent--;
+            if (c.elsebranch != null && !(c.elsebranch instanceof Skip)) {
+                line("} else {");
+                indent++;
+                statement(c.elsebranch);
+                indent--;
+            }
+            line("}");
+        } else if (s instanceof CallStatement)
+            line(call(((CallStatement) s).call) + ";");
+        else if (s instanceof Return) {
+            Return r = (Return) s;
+            line(r.result == null ? "return;" : "return " + expression(r.result) + ";");
+        }
+        // Skip: nothing
+    }
+
+    private String expression (Expression e) { // sets fails
+        if (e instanceof Variable) {
+            int v = variable((Variable) e);
+            fails = !safe.get(v);
+            if (!fails) return "v" + v;
+            return "CHK(d" + v + ", v" + v + ", \""
+                + ((Variable) e).name() + "\")";
+        }
+        if (e instanceof Value) {
+            fails = false;
+            return literal((Value) e);
+        }
+        if (e instanceof ArrayRef)
+            return element((ArrayRef) e);
+        if (e instanceof Call)
+            return call((Call) e);
+        if (e instanceof Unary) {
+            Unary u = (Unary) e;
+            String a = expression(u.term);
+            switch (u.op.code) {
+              case NOT:       return "(!" + a + ")";
+              case INT_NEG:   return "neg(" + a + ")";
+              case FLOAT_NEG: return "(-" + a + ")";
+              case I2F:       return "((float) " + a + ")";
+              case F2I:       return "f2i(" + a + ")";
+              case C2I:       return a;
+              case I2C:       return "((int) (unsigned short) " + a + ")";
+            }
+            throw new IllegalArgumentException("not a typed operator: " + u.op);
+        }
+        Binary b = (Binary) e;
+        String a = expression(b.term1);
+        boolean first = fails;
+        String z = expression(b.term2);
+        if (first && fails && !b.op.BooleanOp()) { // fix the left one first
+            String t = "t" + scratch.size();
+            scratch.add(floats(b.op.code) ? "float" : "int");
+            z = binary(b.op, t, z);
+            return "(" + t + " = " + a + ", " + z + ")";
+        }
+        fails |= first || b.op.code == Opcode.INT_DIV && !nonzero(b.term2);
+        return binary(b.op, a, z);
+    }
+
+    private String call (Call c) { // sets fails
+        // C passes arguments in any order: each that can fail, but the
+        // last, is fixed first
+        Function f = functions.get(c.name);
+        String[] args = new String[c.args.size()];
+        boolean[] failing = new boolean[args.length];
+        int last = -1;
+        for (int i = 0; i < args.length; i++) {
+            args[i] = expression(c.args.get(i));
+            failing[i] = fails;
+            if (fails) last = i;
+        }
+        StringBuilder fixed = new StringBuilder("(");
+        for (int i = 0; i < last; i++)
+            if (failing[i]) {
+                String a = args[i];
+                args[i] = "t" + scratch.size();
+                scratch.add(ctype(f.params.get(i).t));
+                fixed.append(args[i]).append(" = ").append(a).append(", ");
+            }
+        fails = true;   // a call can overflow the stack, or fail in f
+        String call = "f_" + c.name + "(" + String.join(", ", args) + ")";
+        return fixed.length() == 1 ? call : fixed + call + ")";
+    }
+
+    private static boolean nonzero (Expression e) { // a literal divisor quo passes
+        return e instanceof IntValue && ((IntValue) e).intValue() != 0;
+    }
+
+    private static String binary (Operator op, String a, String z) {
+        switch (op.code) {
+          case AND:       return "(" + a + " && " + z + ")";
+          case OR:        return "(" + a + " || " + z + ")";
+          case INT_PLUS:  return "add(" + a + ", " + z + ")";
+          case INT_MINUS: return "sub(" + a + ", " + z + ")";
+          case INT_TIMES: return "mul(" + a + ", " + z + ")";
+          case INT_DIV:   return "quo(" + a + ", " + z + ")";
+          case FLOAT_PLUS:  return "(" + a + " + " + z + ")";
+          case FLOAT_MINUS: return "(" + a + " - " + z + ")";
+          case FLOAT_TIMES: return "(" + a + " * " + z + ")";
+          case FLOAT_DIV:   return "(" + a + " / " + z + ")";
+        }
+        return "(" + a + " " + relation(op) + " " + z + ")";
+    }
+
+    private static boolean floats (Opcode o) { // float operands
+        switch (o) {
+          case FLOAT_PLUS: case FLOAT_MINUS: case FLOAT_TIMES: case FLOAT_DIV:
+          case FLOAT_LT: case FLOAT_LE: case FLOAT_EQ: case FLOAT_NE:
+          case FLOAT_GT: case FLOAT_GE:
+            return true;
+          default:
+            return false;
+        }
+    }
+
+    private String element (ArrayRef r) {
+        return "v" + variable(r.array) + "[" + index(r) + "]";
+    }
+
+    private String index (ArrayRef r) { // sets fails
+        String i = expression(r.index);
+        if (ranges.inBounds(r)) return i;
+        fails = true;
+        int size = decpart.get(variable(r.array)).t.size();
+        return "idx(" + i + ", " + size + ", \""
+            + r.array.name() + "\")";
+    }
+
+    private static String relation (Operator op) {
+        switch (op.code) {
+          case INT_LT: case CHAR_LT: case BOOL_LT: case FLOAT_LT: return "<";
+          case INT_LE: case CHAR_LE: case BOOL_LE: case FLOAT_LE: return "<=";
+          case INT_EQ: case CHAR_EQ: case BOOL_EQ: case FLOAT_EQ: return "==";
+          case INT_NE: case CHAR_NE: case BOOL_NE: case FLOAT_NE: return "!=";
+          case INT_GT: case CHAR_GT: case BOOL_GT: case FLOAT_GT: return ">";
+          case INT_GE: case CHAR_GE: case BOOL_GE: case FLOAT_GE: return ">=";
+        }
+        throw new IllegalArgumentException("not a typed operator: " + op);
+    }
+
+    private static String literal (Value v) {
+        if (v.isUndef())
+            throw new IllegalArgumentException("undefined constant");
+        if (v.type() == Type.FLOAT) {
+            float f = v.floatValue();
+            if (Float.isNaN(f)) return "NAN";
+            if (Float.isInfinite(f)) return f > 0 ? "INFINITY" : "(-INFINITY)";
+            return "(" + Float.toHexString(f) + "f)";
+        }
+        if (v.type() == Type.CHAR) return Integer.toString(v.charValue());
+        int i = v.intValue();   // int, or bool as 0 or 1
+        return i == Integer.MIN_VALUE ? "INT_MIN" : "(" + i + ")";
+    }
+
+    // Building and running
+
+    static Value[] run (Program p, String... cc) throws IOException, InterruptedException {
+        // the final value of each variable, by declaration number
+        Path dir = Files.createTempDirectory("clite");
+        try {
+            Path src = dir.resolve("program.c"), exe = dir.resolve("program");
+            Files.write(src, compile(p).getBytes(StandardCharsets.US_ASCII));
+            List<String> command = new ArrayList<String>(Arrays.asList(cc));
+            command.addAll(Arrays.asList("-o", exe.toString(), src.toString()));
+            Process build = new ProcessBuilder(command).redirectErrorStream(true).start();
+            String log = new String(build.getInputStream().readAllBytes());
+            if (build.waitFor() != 0)
+                throw new IOException(String.join(" ", cc) + " failed:\n" + log);
+
+            Process run = new ProcessBuilder(exe.toString()).start();
+            Value[] values = new Value[p.decpart.size()];
+            try (BufferedReader r = new BufferedReader(
+                     new InputStreamReader(run.getInputStream()))) {
+                for (String line; (line = r.readLine()) != null; ) {
+                    String[] f = line.split(" ");
+                    int v = Integer.parseInt(f[0]);
+                    Type t = p.decpart.get(v).t;
+                    if (t.isArray())
+                        values[v] = array(t, f);
+                    else
+                        values[v] = value(t, !f[1].equals("0"), Long.parseLong(f[2]));
+                }
+            }
+            String err = new String(run.getErrorStream().readAllBytes()).trim();
+            int status = run.waitFor();
+            if (status == 128 + 11 && err.isEmpty())   // SIGSEGV, on the stack's guard
+                throw new IllegalStateException("stack overflow");
+            if (status != 0)
+                throw new IllegalStateException(err);
+            return values;
+        } finally {
+            try (java.util.stream.Stream<Path> files = Files.list(dir)) {
+                for (Path f : (Iterable<Path>) files::iterator)
+                    Files.delete(f);
+            }
+            Files.delete(dir);
+        }
+    }
+
+    private static Value value (Type t, boolean defined, long word) {
+        if (!defined) return Value.mkValue(t);
+        if (t == Type.FLOAT) return new FloatValue(Float.intBitsToFloat((int) word));
+        if (t == Type.INT) return new IntValue((int) word);
+        if (t == Type.CHAR) return new CharValue((char) word);
+        return new BoolValue(word != 0);
+    }
+
+    private static Value array (Type t, String[] f) { // elements from f[2]
+        Object a = ArrayValue.storage(t);
+        for (int k = 0; k < t.size(); k++) {
+            long word = Long.parseLong(f[2 + k]);
+            if (a instanceof float[]) ((float[]) a)[k] = Float.intBitsToFloat((int) word);
+            else if (a instanceof char[]) ((char[]) a)[k] = (char) word;
+            else ((int[]) a)[k] = (int) word;
+        }
+        return new ArrayValue(t, a);
+    }
+
+    public static void main (String args[]) throws IOException, InterruptedException {
+        // java CCompiler [-O] [-s] [-o file.c] [-cc "command"] file
+        //   -O: optimise first (see ConstantFolder, LoopOptimizer)
+        //   -o: write the C source instead of building and running it
+        //   -cc: compiler and flags (default: CC)
+        //   -s: stack-safe parsing (see Parser.stackSafe)
+        Frontend fe = new Frontend();
+        fe.setTyped(true);
+        String out = null;
+        String[] cc = CC;
+        int a = 0;
+        for (; args[a].startsWith("-"); a++)
+            if (args[a].equals("-s")) fe.setStackSafe(true);
+            else if (args[a].equals("-O")) fe.setOptimize(true);
+            else if (args[a].equals("-o")) out = args[++a];
+            else if (args[a].equals("-cc")) cc = args[++a].trim().split("\\s+");
+        Compilation c = fe.compile(Paths.get(args[a]));
+        if (!c.succeeded()) {
+            System.err.println(c.diagnostics().get(0));
+            System.exit(1);
+        }
+        Program p = c.program();
+        if (out != null) {
+            Files.write(Paths.get(out), compile(p).getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+        Value[] values = null;
+        try {
+            values = run(p, cc);
+        } catch (IllegalStateException e) {
+            System.err.println("Runtime error: " + e.getMessage());
+            System.exit(1);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+        for (int v = 0; v < p.decpart.size(); v++) {
+            Declaration d = p.decpart.get(v);
+            if (!d.temporary)
+                System.out.println(d.v.name() + " = " + values[v]);
+        }
+    } // main
+
+} // CCompiler
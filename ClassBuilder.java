@@ -0,0 +1,223 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+class ClassBuilder {
+    // Minimal class-file writer: a constant pool and the code of some
+    // public static methods, written as a final class with no fields
+    // and no constructor.  Code goes to the current method until
+    // method( ) ends it.  The class is version 49, which the JVM
+    // verifies by type inference, so no StackMapTable is needed.
+    // Branch offsets are 16 bits, which limits a method to 32K of code.
+
+    // the opcodes used by JvmCompiler
+    static final int ICONST_0 = 3, FCONST_0 = 11, BIPUSH = 16, SIPUSH = 17,
+        LDC = 18, LDC_W = 19, ILOAD = 21, FLOAD = 23, ALOAD = 25,
+        IALOAD = 46, FALOAD = 48, AALOAD = 50, CALOAD = 52,
+        ISTORE = 54, FSTORE = 56, ASTORE = 58,
+        IASTORE = 79, FASTORE = 81, CASTORE = 85, POP = 87, DUP = 89,
+        IADD = 96, FADD = 98, ISUB = 100, FSUB = 102, IMUL = 104,
+        FMUL = 106, IDIV = 108, FDIV = 110, INEG = 116, FNEG = 118,
+        IXOR = 130, I2F = 134, F2I = 139, I2C = 146,
+        FCMPL = 149, FCMPG = 150,
+        IFEQ = 153, IFNE = 154, IFLT = 155, IFGE = 156, IFGT = 157, IFLE = 158,
+        IF_ICMPEQ = 159, IF_ICMPNE = 160, IF_ICMPLT = 161, IF_ICMPGE = 162,
+        IF_ICMPGT = 163, IF_ICMPLE = 164, GOTO = 167,
+        IRETURN = 172, FRETURN = 174, RETURN = 177,
+        INVOKESPECIAL = 183, INVOKESTATIC = 184, NEW = 187, NEWARRAY = 188,
+        ATHROW = 191, CHECKCAST = 192, WIDE = 196;
+
+    // NEWARRAY element types
+    static final int T_CHAR = 5, T_FLOAT = 6, T_INT = 10;
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> entries = new HashMap<String, Integer>();
+    private int poolCount = 1;
+    private final ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+    private int methods;
+
+    private byte[] code = new byte[1024];
+    private int length = 0;
+    private int stack = 0, maxStack = 0;
+    int maxLocals;
+
+    // Constant pool entries, each added once
+
+    private int entry (String key, int tag, int a, int b, String s) {
+        Integer i = entries.get(key);
+        if (i != null) return i;
+        try {
+            pool.writeByte(tag);
+            if (s != null) pool.writeUTF(s);
+            else if (tag == 3 || tag == 4) pool.writeInt(a);
+            else if (tag == 7 || tag == 8) pool.writeShort(a);
+            else { pool.writeShort(a); pool.writeShort(b); }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);   // not for a byte array
+        }
+        entries.put(key, poolCount);
+        return poolCount++;
+    }
+
+    int utf8 (String s) { return entry("U" + s, 1, 0, 0, s); }
+
+    int classRef (String name) { return entry("C" + name, 7, utf8(name), 0, null); }
+
+    int string (String s) { return entry("S" + s, 8, utf8(s), 0, null); }
+
+    int integer (int v) { return entry("I" + v, 3, v, 0, null); }
+
+    int floatConst (float f) {
+        int bits = Float.floatToRawIntBits(f);
+        return entry("F" + bits, 4, bits, 0, null);
+    }
+
+    int methodRef (String owner, String name, String desc) {
+        int nt = entry("N" + name + desc, 12, utf8(name), utf8(desc), null);
+        return entry("M" + owner + "." + name + desc, 10, classRef(owner), nt, null);
+    }
+
+    // Code
+
+    private void u1 (int b) {
+        if (length == code.length) code = Arrays.copyOf(code, 2 * length);
+        code[length++] = (byte) b;
+    }
+
+    private void u2 (int s) { u1(s >> 8); u1(s); }
+
+    private void adjust (int delta) {
+        stack += delta;
+        maxStack = Math.max(maxStack, stack);
+    }
+
+    void op (int opcode, int delta) { u1(opcode); adjust(delta); }
+
+    void op1 (int opcode, int operand, int delta) { op(opcode, delta); u1(operand); }
+
+    void op2 (int opcode, int operand, int delta) { op(opcode, delta); u2(operand); }
+
+    void local (int opcode, int index, int delta) { // load or store
+        if (index > 255) {
+            u1(WIDE);
+            op2(opcode, index, delta);
+        } else op1(opcode, index, delta);
+    }
+
+    void iconst (int v) {
+        if (v >= -1 && v <= 5) op(ICONST_0 + v, 1);
+        else if (v == (byte) v) op1(BIPUSH, v & 0xff, 1);
+        else if (v == (short) v) op2(SIPUSH, v & 0xffff, 1);
+        else ldc(integer(v));
+    }
+
+    void fconst (float f) {
+        if (Float.floatToRawIntBits(f) == 0 || f == 1.0f || f == 2.0f)
+            op(FCONST_0 + (int) f, 1);
+        else ldc(floatConst(f));
+    }
+
+    private void ldc (int index) {
+        if (index < 256) op1(LDC, index, 1);
+        else op2(LDC_W, index, 1);
+    }
+
+    static final class Label { // a jump target, maybe not yet placed
+        int at = -1;
+        int stack = -1;            // operand stack depth on arrival
+        int[] refs = new int[4];   // branch instruction offsets
+        int n = 0;
+    }
+
+    void jump (int opcode, Label l, int delta) { // branch to l
+        int from = length;
+        op(opcode, delta);
+        if (l.stack < 0) l.stack = stack;
+        if (l.at >= 0) {
+            u2(l.at - from);
+        } else {
+            if (l.n == l.refs.length) l.refs = Arrays.copyOf(l.refs, 2 * l.n);
+            l.refs[l.n++] = from;
+            u2(0);
+        }
+        // after a goto the code that follows is reached only through a
+        // label, or is dead; either way the depth here carries on
+    }
+
+    void place (Label l) {
+        l.at = length;
+        if (l.stack >= 0) stack = l.stack;
+        for (int k = 0; k < l.n; k++) {
+            int from = l.refs[k];
+            int offset = length - from;
+            code[from + 1] = (byte) (offset >> 8);
+            code[from + 2] = (byte) offset;
+        }
+    }
+
+    int size( ) { return length; }
+
+    int stack( ) { return stack; }   // operand stack depth here
+
+    void method (String methodName, String desc) { // ends the current method
+        if (length > 32767)
+            throw new IllegalArgumentException(
+                "method too large for 16-bit branches: " + length + " bytes");
+        int name = utf8(methodName), type = utf8(desc), codeAttr = utf8("Code");
+        DataOutputStream out = new DataOutputStream(methodBytes);
+        try {
+            out.writeShort(0x0009);          // public static
+            out.writeShort(name);
+            out.writeShort(type);
+            out.writeShort(1);               // attributes: Code
+            out.writeShort(codeAttr);
+            out.writeInt(12 + length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(length);
+            out.write(code, 0, length);
+            out.writeShort(0);               // exception table
+            out.writeShort(0);               // code attributes
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        methods++;
+        length = 0;
+        stack = maxStack = 0;
+        maxLocals = 0;
+    }
+
+    byte[] toBytes (String className, String methodName, String desc) {
+        method(methodName, desc);
+        return toBytes(className);
+    }
+
+    byte[] toBytes (String className) { // with the methods ended so far
+        int thisClass = classRef(className);
+        int superClass = classRef("java/lang/Object");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            out.writeShort(poolCount);
+            poolBytes.writeTo(out);
+            out.writeShort(0x0031);          // public final super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);               // interfaces
+            out.writeShort(0);               // fields
+            out.writeShort(methods);
+            methodBytes.writeTo(out);
+            out.writeShort(0);               // class attributes
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,617 @@
+import java.lang.reflect.Array;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntSupplier;
+
+public class ClosureCompiler {
+    // Converts a typed Program (see TypeTransformer) once into a tree
+    // of closures and runs that instead of the AST.  Each Expression
+    // becomes an IntSupplier (int and char), FloatSupplier or
+    // BooleanSupplier with its operator already chosen, and each
+    // Statement a Runnable, so executing involves no instanceof
+    // tests, no operator switches and no Value objects.  Common
+    // shapes, such as a variable or a constant as an operand, get
+    // closures of their own.
+    //
+    // State is held as in the Interpreter, in primitive arrays, here
+    // indexed by variable number in declaration order; bools are 0 or
+    // 1 in ints[ ].  Reads of a variable that is definitely assigned
+    // (see DefiniteAssignment) skip its defined check, and assignments
+    // to it leave its flag alone.  Each array is allocated once and
+    // captured by the closures that use it; element accesses whose
+    // index RangeAnalysis proves in bounds skip ArrayRef.check.
+    //
+    // Each function is compiled once, by a ClosureCompiler of its own
+    // whose arrays hold its parameters and locals.  A call evaluates
+    // the arguments, stores them in the parameters and runs the body;
+    // a Return leaves its result in the callee's ival or fval and
+    // sets returning, which the function's Blocks and Loops test.  A
+    // call to a function that is already running saves the running
+    // activation's variables first and puts them back after, so the
+    // closures can keep their arrays.  Calls nest on the Java stack,
+    // so the program runs as the Interpreter's does (onDeepStack).
+
+    interface FloatSupplier { float getAsFloat( ); }
+
+    private final Declarations decpart;
+    private final Map<Variable, Integer> number = new HashMap<Variable, Integer>();
+    private final int[] ints;
+    private final float[] floats;
+    private final boolean[] defined;
+    private final Object[] arrays; // int[ ], char[ ] or float[ ]
+    private DefiniteAssignment da;
+    private BitSet safe;           // assigned before this statement
+    private RangeAnalysis ranges;
+
+    private final Function function;   // compiled here, or null for main
+    private final Map<String, ClosureCompiler> functions;   // shared
+    private Runnable body;             // the function's
+    private int depth;                 // its activations running
+    private boolean returning;         // a Return is unwinding to the call
+    private int ival;                  // its result
+    private float fval;
+
+    ClosureCompiler (Program p) { // for main, with p's functions compiled
+        this(p.decpart, null, new HashMap<String, ClosureCompiler>());
+        for (Function f : p.functions)
+            functions.put(f.id, new ClosureCompiler(
+                StaticTypeCheck.variables(f), f, functions));
+        for (Function f : p.functions) {
+            ClosureCompiler c = functions.get(f.id);
+            c.da = DefiniteAssignment.of(f);
+            c.ranges = RangeAnalysis.of(f);
+            c.body = c.statement(f.body);
+        }
+    }
+
+    private ClosureCompiler (Declarations d, Function f,
+                             Map<String, ClosureCompiler> fs) {
+        function = f;
+        functions = fs;
+        decpart = d;
+        int n = d.size();
+        for (int v = 0; v < n; v++)
+            if (number.put(d.get(v).v, v) != null)
+                throw new IllegalArgumentException(
+                    "duplicate declaration of " + d.get(v).v.name());
+        ints = new int[n];
+        floats = new float[n];
+        defined = new boolean[n];
+        arrays = new Object[n];
+        for (int v = 0; v < n; v++)
+            if (d.get(v).t.isArray())
+                arrays[v] = ArrayValue.storage(d.get(v).t);
+    }
+
+    private int variable (Variable v) {
+        Integer k = number.get(v);
+        if (k == null)
+            throw new IllegalArgumentException("undeclared variable " + v.name());
+        return k;
+    }
+
+    private Type type (Expression e) { // of a typed expression
+        if (e instanceof Variable) return decpart.get(variable((Variable) e)).t;
+        if (e instanceof Value) return ((Value) e).type();
+        if (e instanceof ArrayRef) return element((ArrayRef) e);
+        if (e instanceof Call) return functions.get(((Call) e).name).function.t;
+        Opcode op = e instanceof Binary ? ((Binary) e).op.code
+                                        : ((Unary) e).op.code;
+        switch (op) {
+          case INT_PLUS: case INT_MINUS: case INT_TIMES: case INT_DIV:
+          case INT_NEG: case F2I: case C2I:
+            return Type.INT;
+          case FLOAT_PLUS: case FLOAT_MINUS: case FLOAT_TIMES: case FLOAT_DIV:
+          case FLOAT_NEG: case I2F:
+            return Type.FLOAT;
+          case I2C:
+            return Type.CHAR;
+          default:
+            return Type.BOOL;
+        }
+    }
+
+    private Type element (ArrayRef r) {
+        return decpart.get(variable(r.array)).t.element();
+    }
+
+    private IntSupplier index (ArrayRef r) { // r's index, checked
+        IntSupplier k = ints(r.index);
+        if (ranges.inBounds(r)) return k;
+        int n = decpart.get(variable(r.array)).t.size();
+        String name = r.array.name();
+        return () -> ArrayRef.check(k.getAsInt(), n, name);
+    }
+
+    private IllegalStateException undefined (int v) {
+        return new IllegalStateException("reference to undefined variable "
+                                         + decpart.get(v).v.name());
+    }
+
+    Runnable compile (Statement s) { // s run from the current state
+        BitSet now = new BitSet();
+        for (int v = 0; v < defined.length; v++)
+            if (defined[v]) now.set(v);
+        da = new DefiniteAssignment(decpart, s, now);
+        ranges = new RangeAnalysis(decpart, s);
+        return statement(s);
+    }
+
+    private Runnable statement (Statement s) {
+        safe = da.before(s);
+        if (s instanceof Assignment)
+            return assignment((Assignment) s);
+        if (s instanceof ArrayAssignment)
+            return assignment((ArrayAssignment) s);
+        if (s instanceof Block) {
+            Block b = (Block) s;
+            int n = b.members.size();
+            if (n == 0) return () -> { };
+            if (n <= 2) { // each member compiled once, or nesting is exponential
+                Runnable first = statement(b.members.get(0));
+                if (n == 1) return first;
+                Runnable second = statement(b.members.get(1));
+                if (function != null)
+                    return () -> { first.run(); if (!returning) second.run(); };
+                return () -> { first.run(); second.run(); };
+            }
+            Runnable[] all = new Runnable[n];
+            for (int i = 0; i < n; i++)
+                all[i] = statement(b.members.get(i));
+            if (function != null)
+                return () -> {
+                    for (int i = 0; i < n && !returning; i++)
+                        all[i].run();
+                };
+            return () -> {
+                for (Runnable r : all)
+                    r.run();
+            };
+        }
+        if (s instanceof Loop) {
+            Loop l = (Loop) s;
+            BooleanSupplier test = bools(l.test);
+            Runnable body = statement(l.body);
+            if (function != null)
+                return () -> {
+                    while (!returning && test.getAsBoolean())
+                        body.run();
+                };
+            return () -> {
+                while (test.getAsBoolean())
+                    body.run();
+            };
+        }
+        if (s instanceof Conditional) {
+            Conditional c = (Conditional) s;
+            BooleanSupplier test = bools(c.test);
+            Runnable then = statement(c.thenbranch);
+            if (c.elsebranch == null || c.elsebranch instanceof Skip)
+                return () -> { if (test.getAsBoolean()) then.run(); };
+            Runnable otherwise = statement(c.elsebranch);
+            return () -> {
+                if (test.getAsBoolean()) then.run();
+                else otherwise.run();
+            };
+        }
+        if (s instanceof CallStatement)
+            return invoke(((CallStatement) s).call);
+        if (s instanceof Return)
+            return result(((Return) s).result);
+        return () -> { };   // Skip
+    }
+
+    private Runnable result (Expression e) { // of a Return
+        if (e == null) return () -> returning = true;
+        Type t = function.t;
+        if (t == Type.FLOAT) {
+            FloatSupplier r = floats(e);
+            return () -> { fval = r.getAsFloat(); returning = true; };
+        }
+        if (t == Type.BOOL) {
+            BooleanSupplier r = bools(e);
+            return () -> { ival = r.getAsBoolean() ? 1 : 0; returning = true; };
+        }
+        IntSupplier r = ints(e);
+        return () -> { ival = r.getAsInt(); returning = true; };
+    }
+
+    private Runnable invoke (Call c) { // c, its result in the callee's ival or fval
+        ClosureCompiler f = functions.get(c.name);
+        int n = c.args.size();
+        IntSupplier[] is = new IntSupplier[n];
+        FloatSupplier[] fs = new FloatSupplier[n];
+        for (int i = 0; i < n; i++) {
+            Type t = f.decpart.get(i).t;
+            if (t == Type.FLOAT) {
+                fs[i] = floats(c.args.get(i));
+            } else if (t == Type.BOOL) {
+                BooleanSupplier a = bools(c.args.get(i));
+                is[i] = () -> a.getAsBoolean() ? 1 : 0;
+            } else
+                is[i] = ints(c.args.get(i));
+        }
+        return () -> {
+            int[] iv = new int[n];   // all of them before the call starts
+            float[] fv = new float[n];
+            for (int i = 0; i < n; i++)
+                if (fs[i] != null) fv[i] = fs[i].getAsFloat();
+                else iv[i] = is[i].getAsInt();
+            f.call(iv, fv);
+        };
+    }
+
+    private void call (int[] iargs, float[] fargs) { // one activation
+        int n = decpart.size(), params = function.params.size();
+        Object[] saved = depth++ > 0 ? save() : null;
+        for (int v = 0; v < params; v++)
+            if (decpart.get(v).t == Type.FLOAT) floats[v] = fargs[v];
+            else ints[v] = iargs[v];
+        Arrays.fill(defined, 0, params, true);
+        Arrays.fill(defined, params, n, false);
+        for (Object a : arrays)
+            if (a instanceof int[]) Arrays.fill((int[]) a, 0);
+            else if (a instanceof char[]) Arrays.fill((char[]) a, (char) 0);
+            else if (a instanceof float[]) Arrays.fill((float[]) a, 0);
+        body.run();
+        if (!returning && function.t != Type.VOID)
+            throw new IllegalStateException("function " + function.id
+                                            + " ended without a return");
+        returning = false;
+        depth--;
+        if (saved != null) restore(saved);
+    }
+
+    private Object[] save ( ) { // the variables of the running activation
+        int n = decpart.size();
+        Object[] saved = new Object[3 + n];
+        saved[0] = ints.clone();
+        saved[1] = floats.clone();
+        saved[2] = defined.clone();
+        for (int v = 0; v < n; v++)
+            if (arrays[v] != null) {
+                Object a = arrays[v];
+                Object copy = Array.newInstance(a.getClass().getComponentType(),
+                                                Array.getLength(a));
+                System.arraycopy(a, 0, copy, 0, Array.getLength(a));
+                saved[3 + v] = copy;
+            }
+        return saved;
+    }
+
+    private void restore (Object[] saved) {
+        int n = decpart.size();
+        System.arraycopy(saved[0], 0, ints, 0, n);
+        System.arraycopy(saved[1], 0, floats, 0, n);
+        System.arraycopy(saved[2], 0, defined, 0, n);
+        for (int v = 0; v < n; v++)
+            if (arrays[v] != null)
+                System.arraycopy(saved[3 + v], 0, arrays[v], 0,
+                                 Array.getLength(arrays[v]));
+    }
+
+    private Runnable assignment (Assignment a) {
+        int v = variable(a.target);
+        int[] iv = ints;
+        float[] fv = floats;
+        boolean[] def = defined;
+        boolean known = safe.get(v);   // def[v] already set
+        Type t = decpart.get(v).t;
+        if (t == Type.FLOAT) {
+            FloatSupplier src = floats(a.source);
+            if (known) return () -> fv[v] = src.getAsFloat();
+            return () -> { fv[v] = src.getAsFloat(); def[v] = true; };
+        }
+        if (t == Type.BOOL) {
+            BooleanSupplier src = bools(a.source);
+            if (known) return () -> iv[v] = src.getAsBoolean() ? 1 : 0;
+            return () -> { iv[v] = src.getAsBoolean() ? 1 : 0; def[v] = true; };
+        }
+        if (a.source instanceof Binary) { // v = v + k and the like
+            Binary b = (Binary) a.source;
+            if (b.op.code == Opcode.INT_PLUS && b.term1.equals(a.target)
+                    && b.term2 instanceof IntValue) {
+                int k = ((Value) b.term2).intValue();
+                if (known) return () -> iv[v] += k;
+                return () -> {
+                    if (!def[v]) throw undefined(v);
+                    iv[v] += k;
+                };
+            }
+        }
+        IntSupplier src = ints(a.source);
+        if (known) return () -> iv[v] = src.getAsInt();
+        return () -> { iv[v] = src.getAsInt(); def[v] = true; };
+    }
+
+    private Runnable assignment (ArrayAssignment a) {
+        Object array = arrays[variable(a.target.array)];
+        IntSupplier k = index(a.target);
+        Type t = element(a.target);
+        if (t == Type.FLOAT) {
+            float[] fa = (float[]) array;
+            FloatSupplier src = floats(a.source);
+            return () -> { int i = k.getAsInt(); fa[i] = src.getAsFloat(); };
+        }
+        if (t == Type.CHAR) {
+            char[] ca = (char[]) array;
+            IntSupplier src = ints(a.source);
+            return () -> { int i = k.getAsInt(); ca[i] = (char) src.getAsInt(); };
+        }
+        int[] ia = (int[]) array;
+        if (t == Type.BOOL) {
+            BooleanSupplier src = bools(a.source);
+            return () -> { int i = k.getAsInt(); ia[i] = src.getAsBoolean() ? 1 : 0; };
+        }
+        IntSupplier src = ints(a.source);
+        return () -> { int i = k.getAsInt(); ia[i] = src.getAsInt(); };
+    }
+
+    IntSupplier ints (Expression e) { // an int or char expression
+        int[] iv = ints;
+        boolean[] def = defined;
+        if (e instanceof Call) {
+            ClosureCompiler f = functions.get(((Call) e).name);
+            Runnable call = invoke((Call) e);
+            return () -> { call.run(); return f.ival; };
+        }
+        if (e instanceof Variable) {
+            int v = variable((Variable) e);
+            if (safe.get(v)) return () -> iv[v];
+            return () -> {
+                if (!def[v]) throw undefined(v);
+                return iv[v];
+            };
+        }
+        if (e instanceof Value) {
+            Value c = (Value) e;
+            int k = c.type() == Type.CHAR ? c.charValue() : c.intValue();
+            return () -> k;
+        }
+        if (e instanceof ArrayRef) {
+            ArrayRef r = (ArrayRef) e;
+            Object array = arrays[variable(r.array)];
+            IntSupplier k = index(r);
+            if (array instanceof char[]) {
+                char[] ca = (char[]) array;
+                return () -> ca[k.getAsInt()];
+            }
+            int[] ia = (int[]) array;
+            return () -> ia[k.getAsInt()];
+        }
+        if (e instanceof Unary) {
+            Unary u = (Unary) e;
+            switch (u.op.code) {
+              case INT_NEG: {
+                IntSupplier a = ints(u.term);
+                return () -> -a.getAsInt();
+              }
+              case C2I:
+                return ints(u.term);
+              case I2C: {
+                IntSupplier a = ints(u.term);
+                return () -> (char) a.getAsInt();
+              }
+              case F2I: {
+                FloatSupplier a = floats(u.term);
+                return () -> (int) a.getAsFloat();
+              }
+            }
+            throw new IllegalArgumentException("not an int operator: " + u.op);
+        }
+        Binary b = (Binary) e;
+        IntSupplier a = ints(b.term1);
+        if (b.term2 instanceof Value) {     // constant right operand
+            Value c = (Value) b.term2;
+            int k = c.type() == Type.CHAR ? c.charValue() : c.intValue();
+            switch (b.op.code) {
+              case INT_PLUS:  return () -> a.getAsInt() + k;
+              case INT_MINUS: return () -> a.getAsInt() - k;
+              case INT_TIMES: return () -> a.getAsInt() * k;
+              case INT_DIV:   return () -> a.getAsInt() / k;
+            }
+        }
+        IntSupplier z = ints(b.term2);
+        switch (b.op.code) {
+          case INT_PLUS:  return () -> a.getAsInt() + z.getAsInt();
+          case INT_MINUS: return () -> a.getAsInt() - z.getAsInt();
+          case INT_TIMES: return () -> a.getAsInt() * z.getAsInt();
+          case INT_DIV:   return () -> a.getAsInt() / z.getAsInt();
+        }
+        throw new IllegalArgumentException("not an int operator: " + b.op);
+    }
+
+    FloatSupplier floats (Expression e) { // a float expression
+        float[] fv = floats;
+        boolean[] def = defined;
+        if (e instanceof Call) {
+            ClosureCompiler f = functions.get(((Call) e).name);
+            Runnable call = invoke((Call) e);
+            return () -> { call.run(); return f.fval; };
+        }
+        if (e instanceof Variable) {
+            int v = variable((Variable) e);
+            if (safe.get(v)) return () -> fv[v];
+            return () -> {
+                if (!def[v]) throw undefined(v);
+                return fv[v];
+            };
+        }
+        if (e instanceof Value) {
+            float k = ((Value) e).floatValue();
+            return () -> k;
+        }
+        if (e instanceof ArrayRef) {
+            ArrayRef r = (ArrayRef) e;
+            float[] fa = (float[]) arrays[variable(r.array)];
+            IntSupplier k = index(r);
+            return () -> fa[k.getAsInt()];
+        }
+        if (e instanceof Unary) {
+            Unary u = (Unary) e;
+            switch (u.op.code) {
+              case FLOAT_NEG: {
+                FloatSupplier a = floats(u.term);
+                return () -> -a.getAsFloat();
+              }
+              case I2F: {
+                IntSupplier a = ints(u.term);
+                return () -> (float) a.getAsInt();
+              }
+            }
+            throw new IllegalArgumentException("not a float operator: " + u.op);
+        }
+        Binary b = (Binary) e;
+        FloatSupplier a = floats(b.term1);
+        FloatSupplier z = floats(b.term2);
+        switch (b.op.code) {
+          case FLOAT_PLUS:  return () -> a.getAsFloat() + z.getAsFloat();
+          case FLOAT_MINUS: return () -> a.getAsFloat() - z.getAsFloat();
+          case FLOAT_TIMES: return () -> a.getAsFloat() * z.getAsFloat();
+          case FLOAT_DIV:   return () -> a.getAsFloat() / z.getAsFloat();
+        }
+        throw new IllegalArgumentException("not a float operator: " + b.op);
+    }
+
+    BooleanSupplier bools (Expression e) { // a bool expression
+        int[] iv = ints;
+        boolean[] def = defined;
+        if (e instanceof Call) {
+            ClosureCompiler f = functions.get(((Call) e).name);
+            Runnable call = invoke((Call) e);
+            return () -> { call.run(); return f.ival != 0; };
+        }
+        if (e instanceof Variable) {
+            int v = variable((Variable) e);
+            if (safe.get(v)) return () -> iv[v] != 0;
+            return () -> {
+                if (!def[v]) throw undefined(v);
+                return iv[v] != 0;
+            };
+        }
+        if (e instanceof Value) {
+            boolean k = ((Value) e).boolValue();
+            return () -> k;
+        }
+        if (e instanceof ArrayRef) {
+            ArrayRef r = (ArrayRef) e;
+            int[] ia = (int[]) arrays[variable(r.array)];
+            IntSupplier k = index(r);
+            return () -> ia[k.getAsInt()] != 0;
+        }
+        if (e instanceof Unary) {
+            Unary u = (Unary) e;
+            if (u.op.code != Opcode.NOT)
+                throw new IllegalArgumentException("not a bool operator: " + u.op);
+            BooleanSupplier a = bools(u.term);
+            return () -> !a.getAsBoolean();
+        }
+        Binary b = (Binary) e;
+        Opcode op = b.op.code;
+        switch (op) {
+          case AND: {
+            BooleanSupplier a = bools(b.term1), z = bools(b.term2);
+            return () -> a.getAsBoolean() && z.getAsBoolean();
+          }
+          case OR: {
+            BooleanSupplier a = bools(b.term1), z = bools(b.term2);
+            return () -> a.getAsBoolean() || z.getAsBoolean();
+          }
+          case FLOAT_LT: case FLOAT_LE: case FLOAT_EQ:
+          case FLOAT_NE: case FLOAT_GT: case FLOAT_GE: {
+            FloatSupplier a = floats(b.term1), z = floats(b.term2);
+            switch (op) {
+              case FLOAT_LT: return () -> a.getAsFloat() < z.getAsFloat();
+              case FLOAT_LE: return () -> a.getAsFloat() <= z.getAsFloat();
+              case FLOAT_EQ: return () -> a.getAsFloat() == z.getAsFloat();
+              case FLOAT_NE: return () -> a.getAsFloat() != z.getAsFloat();
+              case FLOAT_GT: return () -> a.getAsFloat() > z.getAsFloat();
+              default:       return () -> a.getAsFloat() >= z.getAsFloat();
+            }
+          }
+        }
+        IntSupplier a, z;    // int, char and bool compares, as ints
+        if (type(b.term1) == Type.BOOL) {
+            BooleanSupplier p = bools(b.term1), q = bools(b.term2);
+            a = () -> p.getAsBoolean() ? 1 : 0;
+            z = () -> q.getAsBoolean() ? 1 : 0;
+        } else {
+            a = ints(b.term1);
+            if (b.term2 instanceof Value) {   // constant right operand
+                Value c = (Value) b.term2;
+                int k = c.type() == Type.CHAR ? c.charValue() : c.intValue();
+                switch (op) {
+                  case INT_LT: case CHAR_LT: return () -> a.getAsInt() < k;
+                  case INT_LE: case CHAR_LE: return () -> a.getAsInt() <= k;
+                  case INT_EQ: case CHAR_EQ: return () -> a.getAsInt() == k;
+                  case INT_NE: case CHAR_NE: return () -> a.getAsInt() != k;
+                  case INT_GT: case CHAR_GT: return () -> a.getAsInt() > k;
+                  case INT_GE: case CHAR_GE: return () -> a.getAsInt() >= k;
+                }
+            }
+            z = ints(b.term2);
+        }
+        switch (op) {
+          case INT_LT: case CHAR_LT: case BOOL_LT:
+            return () -> a.getAsInt() < z.getAsInt();
+          case INT_LE: case CHAR_LE: case BOOL_LE:
+            return () -> a.getAsInt() <= z.getAsInt();
+          case INT_EQ: case CHAR_EQ: case BOOL_EQ:
+            return () -> a.getAsInt() == z.getAsInt();
+          case INT_NE: case CHAR_NE: case BOOL_NE:
+            return () -> a.getAsInt() != z.getAsInt();
+          case INT_GT: case CHAR_GT: case BOOL_GT:
+            return () -> a.getAsInt() > z.getAsInt();
+          case INT_GE: case CHAR_GE: case BOOL_GE:
+            return () -> a.getAsInt() >= z.getAsInt();
+        }
+        throw new IllegalArgumentException("not a bool operator: " + b.op);
+    }
+
+    Value value (int v) { // variable v's current value, or undef
+        Type t = decpart.get(v).t;
+        if (t.isArray()) return new ArrayValue(t, arrays[v]);
+        if (!defined[v]) return Value.mkValue(t);
+        if (t == Type.INT) return new IntValue(ints[v]);
+        if (t == Type.FLOAT) return new FloatValue(floats[v]);
+        if (t == Type.CHAR) return new CharValue((char) ints[v]);
+        return new BoolValue(ints[v] != 0);
+    }
+
+    public void display ( ) { // final state, in declaration order
+        for (int v = 0; v < decpart.size(); v++)
+            if (!decpart.get(v).temporary)
+                System.out.println(decpart.get(v).v.name() + " = " + value(v));
+    }
+
+    public static void main (String args[]) {
+        // java ClosureCompiler [-O] [-s] file
+        //   -O: optimise first (see ConstantFolder, LoopOptimizer)
+        //   -s: stack-safe parsing (see Parser.stackSafe)
+        Frontend fe = new Frontend();
+        fe.setTyped(true);
+        int a = 0;
+        for (; args[a].startsWith("-"); a++)
+            if (args[a].equals("-s")) fe.setStackSafe(true);
+            else if (args[a].equals("-O")) fe.setOptimize(true);
+        Compilation c = fe.compile(Paths.get(args[a]));
+        if (!c.succeeded()) {
+            System.err.println(c.diagnostics().get(0));
+            System.exit(1);
+        }
+        ClosureCompiler cc = new ClosureCompiler(c.program());
+        Runnable program = cc.compile(c.program().body);
+        try {
+            Interpreter.onDeepStack(program);
+        } catch (IllegalStateException | ArithmeticException e) {
+            System.err.println("Runtime error: " + e.getMessage());
+            System.exit(1);
+        }
+        cc.display();
+    } // main
+
+} // ClosureCompiler
@@ -0,0 +1,38 @@
+import java.util.Collections;
+import java.util.List;
+
+public class Compilation {
+    // Result of compiling one source: the Program, or the Diagnostics
+    // that stopped it.
+
+    private final Program program;
+    private final List<Diagnostic> diagnostics;
+    int tokens;           // tokens scanned
+    long bytes;           // source size
+    int nodes, removed;   // AST size, and nodes folded away (optimize)
+
+    Compilation (Program p) {
+        program = p;
+        diagnostics = Collections.emptyList();
+    }
+
+    Compilation (Diagnostic d) {
+        program = null;
+        diagnostics = Collections.singletonList(d);
+    }
+
+    public boolean succeeded( ) { return program != null; }
+
+    public Program program( ) { return program; }
+
+    public List<Diagnostic> diagnostics( ) { return diagnostics; }
+
+    public int tokens( ) { return tokens; }
+
+    public long bytes( ) { return bytes; }
+
+    public int nodes( ) { return nodes; }
+
+    public int removed( ) { return removed; }
+
+} // Compilation
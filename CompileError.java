@@ -0,0 +1,15 @@
+public class CompileError extends RuntimeException {
+    // Thrown by the Lexer, the Parser, StaticTypeCheck and JvmCompiler
+    // when they give up on a source.
+
+    private static final long serialVersionUID = 1L;
+
+    private final Diagnostic diagnostic;
+
+    public CompileError (Diagnostic d) {
+        super(d.toString(), null, false, false);
+        diagnostic = d;
+    }
+
+    public Diagnostic diagnostic( ) { return diagnostic; }
+} // CompileError
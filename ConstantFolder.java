@@ -0,0 +1,342 @@
+// Constant folding for C++Lite: an AST-to-AST pass that evaluates
+// operators on literals, picks the live branch of a Conditional with
+// a literal test, and drops Loops that never run, Skips and empty
+// Blocks.
+
+public class ConstantFolder {
+    // F works on both untyped and typed Programs (before or after
+    // TypeTransformer), and returns a new Program that shares the
+    // Variables and Declarations of its input.  Folding follows the
+    // Interpreter exactly: operands that it would reject, such as
+    // int + bool, and integer division by zero are left alone to fail
+    // at run time, and float arithmetic is done in float.  Nothing
+    // that the original program would evaluate is dropped, so reads
+    // of undefined variables still fail where they did.
+
+    // the untyped operation behind each operator, typed or not
+    private static final Opcode[] base = new Opcode[Opcode.values().length];
+
+    static {
+        for (Opcode o : Opcode.values())
+            if (o.compareTo(Opcode.BOOL) <= 0) base[o.ordinal()] = o;
+        Operator[][] maps = { Operator.intMap, Operator.floatMap,
+                              Operator.charMap, Operator.boolMap };
+        for (Operator[] m : maps)
+            for (int i = 0; i < m.length; i++)
+                if (m[i] != null) base[m[i].code.ordinal()] = Opcode.values()[i];
+    }
+
+    public static Program F (Program p) {
+        Block body = block(p.body);
+        Functions functions = new Functions();
+        for (Function f : p.functions)
+            functions.add(new Function(f.t, f.id, f.params, f.locals, block(f.body)));
+        return new Program(p.decpart, body, functions);
+    }
+
+    static int size (Program p) { // AST nodes
+        int n = size(p.body);
+        for (Function f : p.functions)
+            n += size(f.body);
+        return n;
+    }
+
+    static int size (Statement s) {
+        if (s instanceof Block) {
+            int n = 1;
+            for (Statement m : ((Block) s).members)
+                n += size(m);
+            return n;
+        }
+        if (s instanceof Assignment) {
+            Assignment a = (Assignment) s;
+            return 1 + size(a.target) + size(a.source);
+        }
+        if (s instanceof ArrayAssignment) {
+            ArrayAssignment a = (ArrayAssignment) s;
+            return 1 + size(a.target) + size(a.source);
+        }
+        if (s instanceof Conditional) {
+            Conditional c = (Conditional) s;
+            return 1 + size(c.test) + size(c.thenbranch)
+                + (c.elsebranch == null ? 0 : size(c.elsebranch));
+        }
+        if (s instanceof Loop)
+            return 1 + size(((Loop) s).test) + size(((Loop) s).body);
+        if (s instanceof CallStatement)
+            return 1 + size(((CallStatement) s).call);
+        if (s instanceof Return) {
+            Expression result = ((Return) s).result;
+            return 1 + (result == null ? 0 : size(result));
+        }
+        return 1;   // Skip
+    }
+
+    private static int size (Expression e) {
+        if (e instanceof Binary)
+            return 1 + size(((Binary) e).term1) + size(((Binary) e).term2);
+        if (e instanceof Unary)
+            return 1 + size(((Unary) e).term);
+        if (e instanceof ArrayRef)
+            return 2 + size(((ArrayRef) e).index);
+        if (e instanceof Call) {
+            int n = 1;
+            for (Expression a : ((Call) e).args)
+                n += size(a);
+            return n;
+        }
+        return 1;
+    }
+
+    // Statements: each returns its replacement, or null if nothing is
+    // left of it
+
+    private static Block block (Block b) {
+        Block result = new Block();
+        for (Statement m : b.members) {
+            Statement s = F(m);
+            if (s != null) result.members.add(s);
+        }
+        return result;
+    }
+
+    static Statement F (Statement s) {
+        if (s instanceof Block) {
+            Block b = block((Block) s);
+            return b.members.isEmpty() ? null : b;
+        }
+        if (s instanceof Assignment) {
+            Assignment a = (Assignment) s;
+            return new Assignment(a.target, F(a.source));
+        }
+        if (s instanceof ArrayAssignment) {
+            ArrayAssignment a = (ArrayAssignment) s;
+            return new ArrayAssignment((ArrayRef) F(a.target), F(a.source));
+        }
+        if (s instanceof Conditional) {
+            Conditional c = (Conditional) s;
+            Expression test = F(c.test);
+            Statement thenbranch = F(c.thenbranch);
+            Statement elsebranch = c.elsebranch == null ? null : F(c.elsebranch);
+            if (test instanceof BoolValue)
+                return ((BoolValue) test).boolValue() ? thenbranch : elsebranch;
+            if (thenbranch == null) thenbranch = new Skip();
+            if (elsebranch == null)
+                return new Conditional(test, thenbranch);
+            return new Conditional(test, thenbranch, elsebranch);
+        }
+        if (s instanceof Loop) {
+            Loop l = (Loop) s;
+            Expression test = F(l.test);
+            if (test instanceof BoolValue && !((BoolValue) test).boolValue())
+                return null;     // never runs
+            Statement body = F(l.body);
+            return new Loop(test, body == null ? new Skip() : body);
+        }
+        if (s instanceof CallStatement)
+            return new CallStatement((Call) F(((CallStatement) s).call));
+        if (s instanceof Return) {
+            Expression result = ((Return) s).result;
+            return result == null ? s : new Return(F(result));
+        }
+        return null;   // Skip
+    }
+
+    // Expressions
+
+    static Expression F (Expression e) {
+        if (e instanceof Binary) {
+            Binary b = (Binary) e;
+            Expression t1 = F(b.term1);
+            Expression t2 = F(b.term2);
+            Expression r = fold(b.op, t1, t2);
+            return r != null ? r : new Binary(b.op, t1, t2);
+        }
+        if (e instanceof Unary) {
+            Unary u = (Unary) e;
+            Expression t = F(u.term);
+            if (t instanceof Value) {
+                Value r = fold(u.op, (Value) t);
+                if (r != null) return r;
+            }
+            return new Unary(u.op, t);
+        }
+        if (e instanceof ArrayRef) { // elements change: only the index folds
+            ArrayRef r = (ArrayRef) e;
+            return new ArrayRef(r.array, F(r.index));
+        }
+        if (e instanceof Call) {
+            Call c = (Call) e;
+            java.util.ArrayList<Expression> args = new java.util.ArrayList<Expression>();
+            for (Expression a : c.args)
+                args.add(F(a));
+            return new Call(c.name, args);
+        }
+        return e;   // Variable or Value
+    }
+
+    private static Expression fold (Operator op, Expression t1, Expression t2) {
+        Opcode o = base[op.code.ordinal()];
+        if (o == Opcode.AND || o == Opcode.OR) { // short circuit
+            boolean or = o == Opcode.OR;
+            if (t1 instanceof BoolValue) {
+                if (((BoolValue) t1).boolValue() == or)
+                    return t1;                    // t2 is never evaluated
+                if (isBool(t2)) return t2;
+            }
+            if (t2 instanceof BoolValue && ((BoolValue) t2).boolValue() != or
+                && isBool(t1))
+                return t1;                        // e && true, e || false
+            return null;
+        }
+        if (t1 instanceof Value && t2 instanceof Value)
+            return fold(o, (Value) t1, (Value) t2);
+        return identity(op.code, t1, t2);
+    }
+
+    private static boolean isBool (Expression e) { // bool whatever the types
+        if (e instanceof BoolValue) return true;
+        if (e instanceof Binary) {
+            Operator op = ((Binary) e).op;
+            Opcode o = base[op.code.ordinal()];
+            return op.BooleanOp() || Operator.of(o).RelationalOp();
+        }
+        return e instanceof Unary && ((Unary) e).op.NotOp();
+    }
+
+    private static Expression identity (Opcode o, Expression t1, Expression t2) {
+        // x*1, x/1, 1*x, x+0, 0+x, x-0 on typed operators, whose
+        // operands have the type of the result; float x+0 is not x
+        // when x is -0.0, so it is kept
+        switch (o) {
+          case INT_PLUS:
+            return isInt(t1, 0) ? t2 : isInt(t2, 0) ? t1 : null;
+          case INT_MINUS:
+            return isInt(t2, 0) ? t1 : null;
+          case INT_TIMES:
+            return isInt(t1, 1) ? t2 : isInt(t2, 1) ? t1 : null;
+          case INT_DIV:
+            return isInt(t2, 1) ? t1 : null;
+          case FLOAT_TIMES:
+            return isFloat(t1, 1) ? t2 : isFloat(t2, 1) ? t1 : null;
+          case FLOAT_DIV:
+            return isFloat(t2, 1) ? t1 : null;
+          default:
+            return null;
+        }
+    }
+
+    private static boolean isInt (Expression e, int v) {
+        return e instanceof IntValue && ((IntValue) e).intValue() == v;
+    }
+
+    private static boolean isFloat (Expression e, float v) {
+        return e instanceof FloatValue && ((FloatValue) e).floatValue() == v;
+    }
+
+    private static boolean numeric (Type t) {
+        return t == Type.INT || t == Type.CHAR || t == Type.FLOAT;
+    }
+
+    private static int i (Value v) { // int, char or bool as an int
+        return v.type() == Type.CHAR ? v.charValue() : v.intValue();
+    }
+
+    private static float f (Value v) {
+        return v.type() == Type.FLOAT ? v.floatValue() : i(v);
+    }
+
+    static Value fold (Opcode o, Value x, Value y) { // null if not foldable
+        Type t1 = x.type(), t2 = y.type();
+        if (x.isUndef() || y.isUndef()) return null;
+        if (Operator.of(o).RelationalOp()) {
+            int c;
+            if (t1 == Type.BOOL && t2 == Type.BOOL)
+                c = Integer.compare(i(x), i(y));
+            else if (!numeric(t1) || !numeric(t2))
+                return null;
+            else if (t1 == Type.FLOAT || t2 == Type.FLOAT) {
+                float a = f(x), b = f(y);   // NaN compares false
+                switch (o) {
+                  case LT: return new BoolValue(a < b);
+                  case LE: return new BoolValue(a <= b);
+                  case EQ: return new BoolValue(a == b);
+                  case NE: return new BoolValue(a != b);
+                  case GT: return new BoolValue(a > b);
+                  default: return new BoolValue(a >= b);
+                }
+            } else
+                c = Integer.compare(i(x), i(y));
+            switch (o) {
+              case LT: return new BoolValue(c < 0);
+              case LE: return new BoolValue(c <= 0);
+              case EQ: return new BoolValue(c == 0);
+              case NE: return new BoolValue(c != 0);
+              case GT: return new BoolValue(c > 0);
+              default: return new BoolValue(c >= 0);
+            }
+        }
+        if (!Operator.of(o).ArithmeticOp() || !numeric(t1) || !numeric(t2))
+            return null;
+        if (t1 == Type.FLOAT || t2 == Type.FLOAT) {
+            float a = f(x), b = f(y);
+            switch (o) {
+              case PLUS:  return new FloatValue(a + b);
+              case MINUS: return new FloatValue(a - b);
+              case TIMES: return new FloatValue(a * b);
+              default:    return new FloatValue(a / b);
+            }
+        }
+        int a = i(x), b = i(y);
+        switch (o) {
+          case PLUS:  return new IntValue(a + b);
+          case MINUS: return new IntValue(a - b);
+          case TIMES: return new IntValue(a * b);
+          default:    return b == 0 ? null : new IntValue(a / b);
+        }
+    }
+
+    static Value fold (Operator op, Value x) { // null if not foldable
+        Type t = x.type();
+        if (x.isUndef()) return null;
+        switch (op.code) {
+          case NOT:
+            return t == Type.BOOL ? new BoolValue(!x.boolValue()) : null;
+          case NEG: case INT_NEG: case FLOAT_NEG:
+            if (t == Type.FLOAT) return new FloatValue(-x.floatValue());
+            return numeric(t) ? new IntValue(-i(x)) : null;
+          case INT: case F2I: case C2I:
+            if (t == Type.FLOAT) return new IntValue((int) x.floatValue());
+            return numeric(t) ? new IntValue(i(x)) : null;
+          case FLOAT: case I2F:
+            return numeric(t) ? new FloatValue(f(x)) : null;
+          case CHAR: case I2C:
+            return t == Type.INT || t == Type.CHAR
+                ? new CharValue((char) i(x)) : null;
+          default:
+            return null;
+        }
+    }
+
+    public static void main(String args[]) {
+        // java ConstantFolder [-s] [-t] file: display the folded program
+        //   -s: stack-safe parsing (see Parser.stackSafe)
+        //   -t: type check and transform first (see TypeTransformer)
+        Frontend fe = new Frontend();
+        int a = 0;
+        for (; args[a].startsWith("-"); a++)
+            if (args[a].equals("-s")) fe.setStackSafe(true);
+            else if (args[a].equals("-t")) fe.setTyped(true);
+        Compilation c = fe.compile(java.nio.file.Paths.get(args[a]));
+        if (!c.succeeded()) {
+            System.err.println(c.diagnostics().get(0));
+            System.exit(1);
+        }
+        Program p = F(c.program());
+        p.display();
+        int before = size(c.program()), after = size(p);
+        System.err.println((before - after) + " of " + before
+                           + " nodes removed");
+    } //main
+
+} // class ConstantFolder
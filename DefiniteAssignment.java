@@ -0,0 +1,155 @@
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class DefiniteAssignment {
+    // Flow-sensitive definite-assignment analysis.  For each Statement
+    // it finds the variables that are assigned on every path from the
+    // start to that Statement, as a BitSet of variable numbers in
+    // declaration order.  A read of such a variable can never see it
+    // undefined, so the engines compile it without the "reference to
+    // undefined variable" check, and an assignment to it without
+    // setting its defined flag again, which is already set.
+    //
+    // Paths through a Conditional meet: what both branches assign is
+    // assigned after it.  A Loop body may run no times, so nothing it
+    // assigns counts after the Loop; inside it, what was assigned
+    // before the Loop holds on every iteration.  Expressions assign
+    // nothing, so one set covers every read in a Statement.
+    //
+    // Arrays start zeroed and are never undefined, so an element
+    // assignment defines nothing and an element read checks nothing;
+    // only the variables in its index and source are reads.
+    //
+    // A call assigns nothing in its caller: a function sees only its
+    // own variables, and its parameters are assigned on entry.
+    //
+    // Reads that are not proven are reported as warnings.  They are
+    // not errors: the path that reaches them undefined may never run.
+
+    private final Map<Variable, Integer> number = new HashMap<Variable, Integer>();
+    private final Map<Statement, BitSet> before =
+        new IdentityHashMap<Statement, BitSet>();
+    private final Set<String> warnings = new LinkedHashSet<String>();
+    int proven, unproven;   // reads
+
+    DefiniteAssignment (Declarations d, Statement s, BitSet initial) {
+        // initial: the variables already assigned when s starts
+        for (int v = 0; v < d.size(); v++)
+            number.put(d.get(v).v, v);
+        statement(s, (BitSet) initial.clone());
+    }
+
+    static DefiniteAssignment of (Program p) {
+        return new DefiniteAssignment(p.decpart, p.body, new BitSet());
+    }
+
+    static DefiniteAssignment of (Function f) { // parameters assigned
+        BitSet params = new BitSet();
+        params.set(0, f.params.size());
+        return new DefiniteAssignment(StaticTypeCheck.variables(f), f.body, params);
+    }
+
+    BitSet before (Statement s) { // assigned on every path to s
+        BitSet b = before.get(s);
+        return b == null ? new BitSet() : b;
+    }
+
+    List<Diagnostic> warnings( ) {
+        List<Diagnostic> list = new ArrayList<Diagnostic>();
+        for (String w : warnings)
+            list.add(new Diagnostic(0, 0, w));
+        return list;
+    }
+
+    private void statement (Statement s, BitSet in) { // in becomes out
+        before.put(s, (BitSet) in.clone());
+        if (s instanceof Assignment) {
+            Assignment a = (Assignment) s;
+            reads(a.source, in, "the assignment to " + a.target.name());
+            Integer v = number.get(a.target);
+            if (v != null) in.set(v);
+        } else if (s instanceof ArrayAssignment) {
+            ArrayAssignment a = (ArrayAssignment) s;
+            String where = "the assignment to " + a.target.array.name() + "[ ]";
+            reads(a.target.index, in, where);
+            reads(a.source, in, where);
+        } else if (s instanceof Block) {
+            for (Statement m : ((Block) s).members)
+                statement(m, in);
+        } else if (s instanceof Conditional) {
+            Conditional c = (Conditional) s;
+            reads(c.test, in, "an if test");
+            BitSet other = (BitSet) in.clone();
+            statement(c.thenbranch, in);
+            if (c.elsebranch != null) statement(c.elsebranch, other);
+            in.and(other);
+        } else if (s instanceof Loop) {
+            Loop l = (Loop) s;
+            reads(l.test, in, "a while test");
+            statement(l.body, (BitSet) in.clone());
+        } else if (s instanceof CallStatement) {
+            reads(((CallStatement) s).call, in, "a call");
+        } else if (s instanceof Return) {
+            reads(((Return) s).result, in, "a return");
+        }
+        // Skip: nothing
+    }
+
+    private void reads (Expression e, BitSet in, String where) {
+        if (e instanceof Variable) {
+            Integer v = number.get(e);
+            if (v != null && in.get(v)) proven++;
+            else {
+                unproven++;
+                warnings.add("Warning: " + ((Variable) e).name()
+                             + " may be used before it is assigned, in " + where);
+            }
+        } else if (e instanceof Binary) {
+            reads(((Binary) e).term1, in, where);
+            reads(((Binary) e).term2, in, where);
+        } else if (e instanceof Unary) {
+            reads(((Unary) e).term, in, where);
+        } else if (e instanceof ArrayRef) {
+            reads(((ArrayRef) e).index, in, where);
+        } else if (e instanceof Call) {
+            for (Expression a : ((Call) e).args)
+                reads(a, in, where);
+        }
+    }
+
+    public static void main (String args[]) {
+        // java DefiniteAssignment [-s] file: report reads of variables
+        // that may not have been assigned
+        Frontend fe = new Frontend();
+        int a = 0;
+        if (args[a].equals("-s")) {
+            fe.setStackSafe(true);
+            a++;
+        }
+        Compilation c = fe.compile(Paths.get(args[a]));
+        if (!c.succeeded()) {
+            System.err.println(c.diagnostics().get(0));
+            System.exit(1);
+        }
+        DefiniteAssignment da = of(c.program());
+        int proven = da.proven, reads = da.proven + da.unproven;
+        for (Diagnostic d : da.warnings())
+            System.out.println(d);
+        for (Function f : c.program().functions) {
+            DefiniteAssignment fa = of(f);
+            proven += fa.proven;
+            reads += fa.proven + fa.unproven;
+            for (Diagnostic d : fa.warnings())
+                System.out.println(d + " of " + f.id);
+        }
+        System.out.println(proven + " of " + reads + " variable reads proven assigned");
+    } // main
+
+} // DefiniteAssignment
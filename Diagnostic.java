@@ -0,0 +1,51 @@
+public class Diagnostic {
+    // One problem found while compiling a source: where it is and what
+    // went wrong.  toString() gives the text the command-line tools
+    // print, as they always have.
+
+    private final int line;         // source line, from 1; 0 if none
+    private final int column;       // column as counted by the Lexer
+    private final String message;
+    private final String expected;  // syntax errors: what was needed
+    private final String saw;       // syntax errors: the token found
+    private final String context;   // lexical errors: the source line
+
+    public Diagnostic (int line, int column, String message) {
+        this(line, column, message, null, null, null);
+    }
+
+    public Diagnostic (int line, int column, String message,
+                       String expected, String saw, String context) {
+        this.line = line;
+        this.column = column;
+        this.message = message;
+        this.expected = expected;
+        this.saw = saw;
+        this.context = context;
+    }
+
+    static Diagnostic syntax (int line, int column, String expected, String saw) {
+        return new Diagnostic(line, column, "Syntax error: expecting: "
+                              + expected + "; saw: " + saw, expected, saw, null);
+    }
+
+    public int line( ) { return line; }
+
+    public int column( ) { return column; }
+
+    public String message( ) { return message; }
+
+    public String expected( ) { return expected; }
+
+    public String saw( ) { return saw; }
+
+    Diagnostic atLine (int line) { // the same problem, moved to line
+        return new Diagnostic(line, column, message, expected, saw, context);
+    }
+
+    public String toString( ) {
+        if (context != null)
+            return context + "Error: column " + column + " " + message;
+        return message;
+    }
+} // Diagnostic
@@ -0,0 +1,355 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+public class Differential {
+    // Runs C++Lite programs through the Interpreter and every other
+    // engine, with and without -O, and reports each engine whose
+    // output (stdout and stderr together) differs from the
+    // Interpreter's.  Every engine runs as its own java process, as a
+    // user would run it, so a System.exit or a stack overflow is seen
+    // as the user sees it.  A file should type check: the Interpreter
+    // finds a type error only when it runs, as a runtime error.
+    //
+    // Without files, it generates programs from a seed: ints, floats,
+    // chars and bools, arrays indexed by a loop counter that
+    // RangeAnalysis can prove in bounds and by computed indexes it
+    // cannot, and functions with parameters, local arrays and bounded
+    // recursion.  Some programs stop with a runtime error, which every
+    // engine must report alike.  A program that differs is kept.
+    //
+    // java Differential [-n count] [-r seed] [-k dir] [-t secs] [-C] [file.cpp ...]
+    //   -n: programs to generate (default 100)
+    //   -r: first seed; program i uses seed + i (default 1)
+    //   -k: keep differing programs in dir (default: the temp dir)
+    //   -t: seconds before a run is stopped as "timed out" (default 60)
+    //   -C: leave out CCompiler
+
+    static final String[][] ENGINES = {
+        { "SpecializingInterpreter" }, { "TieredInterpreter", "-t", "2" },
+        { "VM" }, { "VM", "-O" }, { "ClosureCompiler" }, { "ClosureCompiler", "-O" },
+        { "JvmCompiler" }, { "JvmCompiler", "-O" }, { "CCompiler" }, { "CCompiler", "-O" }
+    };
+
+    private static long timeout = 60;   // seconds per run
+
+    // Running
+
+    static String run (Path file, String... engine)
+            throws IOException, InterruptedException {
+        List<String> command = new ArrayList<String>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.addAll(Arrays.asList(engine));
+        command.add(file.toString());
+        Path out = Files.createTempFile("differential", ".out");
+        try {
+            Process p = new ProcessBuilder(command).redirectErrorStream(true)
+                .redirectOutput(out.toFile()).start();
+            if (!p.waitFor(timeout, TimeUnit.SECONDS)) {
+                p.descendants().forEach(ProcessHandle::destroyForcibly);   // cc's program
+                p.destroyForcibly().waitFor();
+                return "timed out";
+            }
+            return new String(Files.readAllBytes(out), StandardCharsets.UTF_8);
+        } finally {
+            Files.delete(out);
+        }
+    }
+
+    static int check (Path file, boolean c) throws IOException, InterruptedException {
+        // the number of engines that differ from the Interpreter
+        String expected = run(file, "Interpreter");
+        int differ = 0;
+        for (String[] engine : ENGINES) {
+            if (!c && engine[0].equals("CCompiler")) continue;
+            String got = run(file, engine);
+            if (!got.equals(expected)) {
+                differ++;
+                System.out.println(file + ": " + String.join(" ", engine)
+                                   + " differs\n  Interpreter:\n" + indent(expected)
+                                   + "  " + engine[0] + ":\n" + indent(got));
+            }
+        }
+        return differ;
+    }
+
+    private static String indent (String s) {
+        StringBuilder b = new StringBuilder();
+        for (String line : s.split("\n"))
+            b.append("    ").append(line).append("\n");
+        return b.toString();
+    }
+
+    // Generating
+
+    private static final String[] TYPES = { "int", "float", "char", "bool" };
+    private static final String[] FLOATS = { "0.5", "2.25", "1.0", "3.75", "10.0" };
+    private static final int DEPTH = 8;   // recursion, through p0
+
+    private final Random random;
+    private final StringBuilder out = new StringBuilder();
+    private final List<String[]> functions = new ArrayList<String[]>();
+    // each { type, name, parameter types ... }
+    private List<String[]> scalars, arrays;   // { type, name }, { type, name, size }
+    private int counters;   // loop counters k0, k1, ... in this scope
+    private int self;       // the function being generated, or -1 in main
+    private int loops;      // Loops around the statement being generated
+    private boolean recursed;   // this function has its one call to itself
+
+    Differential (long seed) { random = new Random(seed); }
+
+    private int pick (int n) { return random.nextInt(n); }
+
+    private boolean chance (int percent) { return pick(100) < percent; }
+
+    String program ( ) {
+        // function gi calls only functions before it, and itself once
+        // with a smaller p0, and no function calls in a Loop: the calls
+        // made stay few
+        for (int f = 0, n = pick(4); f < n; f++)
+            function(f);
+        self = -1;
+        out.append("int main ( ) {\n");
+        scope(new ArrayList<String[]>());
+        out.append("}\n");
+        return out.toString();
+    }
+
+    private void function (int f) {
+        String[] g = new String[2 + pick(4)];
+        g[0] = chance(20) ? "void" : TYPES[pick(4)];
+        g[1] = "g" + f;
+        List<String[]> params = new ArrayList<String[]>();
+        for (int i = 2; i < g.length; i++) {
+            g[i] = i == 2 && chance(70) ? "int" : TYPES[pick(4)];
+            params.add(new String[] { g[i], "p" + (i - 2) });
+        }
+        out.append(g[0]).append(" ").append(g[1]).append(" (");
+        for (int i = 0; i < params.size(); i++)
+            out.append(i == 0 ? "" : ", ").append(g[i + 2]).append(" p").append(i);
+        out.append(") {\n");
+        functions.add(g);
+        self = f;
+        recursed = false;
+        scope(params);
+        if (!g[0].equals("void"))
+            out.append("    return ").append(expression(g[0], 2)).append(";\n");
+        else if (chance(30))
+            out.append("    return;\n");
+        out.append("}\n");
+    }
+
+    private boolean recursive ( ) { // can this function call itself
+        String[] g = functions.get(self);
+        return g.length > 2 && g[2].equals("int");
+    }
+
+    private void scope (List<String[]> params) {
+        // the declarations and body of main or a function
+        scalars = new ArrayList<String[]>(params);
+        arrays = new ArrayList<String[]>();
+        counters = 0;
+        for (String t : TYPES)
+            for (int i = 0, n = 1 + pick(2); i < n; i++)
+                scalars.add(new String[] { t, t.charAt(0) + "" + i });
+        for (int i = 0, n = pick(3); i < n; i++)
+            arrays.add(new String[] { TYPES[pick(4)], "a" + i, "" + (1 + pick(12)) });
+        StringBuilder body = new StringBuilder();
+        if (self >= 0 && recursive()) {
+            String t = functions.get(self)[0];
+            body.append("    if (p0 < 1 || p0 > ").append(DEPTH).append(") return")
+                .append(t.equals("void") ? "" : " " + literal(t)).append(";\n");
+        }
+        String[] unassigned = chance(8) ? scalars.get(pick(scalars.size())) : null;
+        for (String[] s : scalars)   // all but maybe one start assigned
+            if (s != unassigned && !s[1].startsWith("p"))
+                body.append("    ").append(s[1]).append(" = ").append(literal(s[0]))
+                    .append(";\n");
+        for (int i = 0, n = 3 + pick(6); i < n; i++)
+            statement(body, 2, 1);
+        for (String[] s : scalars)
+            if (!s[1].startsWith("p"))
+                out.append("    ").append(s[0]).append(" ").append(s[1]).append(";\n");
+        for (String[] a : arrays)
+            out.append("    ").append(a[0]).append(" ").append(a[1])
+               .append("[").append(a[2]).append("];\n");
+        for (int k = 0; k < counters; k++)
+            out.append("    int k").append(k).append(";\n");
+        out.append(body);
+    }
+
+    private void statement (StringBuilder b, int depth, int level) {
+        String pad = "    ".repeat(level);
+        int r = pick(100);
+        if (depth > 0 && r < 25) {   // a counted Loop, maybe over an array
+            String k = "k" + counters++;
+            String[] a = !arrays.isEmpty() && chance(60)
+                ? arrays.get(pick(arrays.size())) : null;
+            b.append(pad).append(k).append(" = ").append(a != null ? 0 : pick(3))
+             .append(";\n").append(pad).append("while (").append(k).append(" < ")
+             .append(a != null ? a[2] : "" + (1 + pick(20))).append(") {\n");
+            loops++;
+            if (a != null)   // an index RangeAnalysis can prove
+                b.append(pad).append("    ").append(a[1]).append("[").append(k)
+                 .append("] = ").append(expression(a[0], 2)).append(";\n");
+            for (int i = 0, n = pick(3) + (a != null ? 0 : 1); i < n; i++)
+                statement(b, depth - 1, level + 1);
+            loops--;
+            b.append(pad).append("    ").append(k).append(" = ").append(k)
+             .append(" + 1;\n").append(pad).append("}\n");
+        } else if (depth > 0 && r < 38) {   // no else: ifStatement does not take one
+            b.append(pad).append("if (").append(expression("bool", 2)).append(") {\n");
+            for (int i = 0, n = 1 + pick(3); i < n; i++)
+                statement(b, depth - 1, level + 1);
+            b.append(pad).append("}\n");
+        } else if (r < 45 && callable(null) != null)   // a call, its result dropped
+            b.append(pad).append(call(callable(null))).append(";\n");
+        else if (r < 58 && !arrays.isEmpty()) {   // an element, maybe out of bounds
+            String[] a = arrays.get(pick(arrays.size()));
+            b.append(pad).append(a[1]).append("[").append(index(a)).append("] = ")
+             .append(expression(a[0], 2)).append(";\n");
+        } else {
+            String t = TYPES[pick(4)];
+            b.append(pad).append(variable(t)).append(" = ").append(expression(t, 3))
+             .append(";\n");
+        }
+    }
+
+    private String index (String[] a) { // usually, not always, in bounds
+        int size = Integer.parseInt(a[2]);
+        int r = pick(100);
+        if (r < 50) return "" + pick(chance(4) ? size + 2 : size);
+        if (r < 95)   // in bounds, not proven
+            return "(" + variable("int") + " * 0 + " + pick(size) + ")";
+        return variable("int");
+    }
+
+    private String variable (String t) { // a scalar of type t
+        List<String> of = new ArrayList<String>();
+        for (String[] s : scalars)
+            if (s[0].equals(t)) of.add(s[1]);
+        return of.get(pick(of.size()));
+    }
+
+    private String literal (String t) {
+        switch (t) {
+          case "int":   return "" + pick(50);
+          case "float": return FLOATS[pick(FLOATS.length)];
+          case "char":  return "'" + "abcxyz".charAt(pick(6)) + "'";
+          default:      return chance(50) ? "true" : "false";
+        }
+    }
+
+    private String[] callable (String t) { // a function of type t (any if null), or null
+        List<String[]> of = new ArrayList<String[]>();
+        int last = self < 0 ? functions.size() : recursive() && !recursed ? self + 1 : self;
+        if (loops > 0)   // only g0, and only from main
+            last = self < 0 ? Math.min(1, last) : 0;
+        for (int f = 0; f < last; f++)
+            if (t == null || functions.get(f)[0].equals(t))
+                of.add(functions.get(f));
+        return of.isEmpty() ? null : of.get(pick(of.size()));
+    }
+
+    private String call (String[] g) {
+        StringBuilder c = new StringBuilder(g[1]).append("(");
+        for (int i = 2; i < g.length; i++) {
+            c.append(i == 2 ? "" : ", ");
+            if (i == 2 && g[1].equals("g" + self)) {   // recurse on a smaller p0
+                c.append("p0 - ").append(1 + pick(2));
+                recursed = true;
+            }
+            else
+                c.append(expression(g[i], 1));
+        }
+        return c.append(")").toString();
+    }
+
+    private String expression (String t, int depth) {
+        int r = pick(100);
+        if (depth <= 0 || r < 25)
+            return chance(60) ? variable(t) : literal(t);
+        if (r < 35)
+            for (String[] a : arrays)
+                if (a[0].equals(t))
+                    return a[1] + "[" + index(a) + "]";
+        if (r < 42 && callable(t) != null)
+            return call(callable(t));
+        switch (t) {
+          case "int":
+            switch (pick(5)) {
+              case 0:  return "(" + expression("int", depth - 1) + " / "
+                              + (chance(80) ? "" + (1 + pick(9))
+                                 : expression("int", depth - 1)) + ")";
+              case 1:  return "-(" + expression("int", depth - 1) + ")";
+              case 2:  return "int(" + expression("float", depth - 1) + ")";
+              case 3:  return "int(" + expression("char", depth - 1) + ")";
+              default: return "(" + expression("int", depth - 1) + " "
+                              + "+-*".charAt(pick(3)) + " "
+                              + expression(chance(20) ? "char" : "int", depth - 1) + ")";
+            }
+          case "float":
+            switch (pick(3)) {
+              case 0:  return "float(" + expression("int", depth - 1) + ")";
+              case 1:  return "-(" + expression("float", depth - 1) + ")";
+              default: return "(" + expression("float", depth - 1) + " "
+                              + "+-*/".charAt(pick(4)) + " "
+                              + expression(chance(30) ? "int" : "float", depth - 1) + ")";
+            }
+          case "char":
+            return "char(" + literal("char") + " + (" + expression("int", depth - 1)
+                + ") / 1000)";
+          default:
+            if (chance(30))
+                return "(" + expression("bool", depth - 1) + (chance(50) ? " && " : " || ")
+                    + expression("bool", depth - 1) + ")";
+            if (chance(15)) return "!(" + expression("bool", depth - 1) + ")";
+            String u = TYPES[pick(4)];
+            return "(" + expression(u, depth - 1) + " "
+                + new String[] { "<", "<=", ">", ">=", "==", "!=" }[pick(6)] + " "
+                + expression(u, depth - 1) + ")";
+        }
+    }
+
+    public static void main (String args[]) throws IOException, InterruptedException {
+        int count = 100;
+        long seed = 1;
+        Path keep = null;
+        boolean c = true;
+        int a = 0;
+        for (; a < args.length && args[a].startsWith("-"); a++)
+            if (args[a].equals("-n")) count = Integer.parseInt(args[++a]);
+            else if (args[a].equals("-r")) seed = Long.parseLong(args[++a]);
+            else if (args[a].equals("-k")) keep = Paths.get(args[++a]);
+            else if (args[a].equals("-t")) timeout = Long.parseLong(args[++a]);
+            else if (args[a].equals("-C")) c = false;
+        int differ = 0, programs = 0;
+        if (a < args.length) {
+            for (; a < args.length; a++, programs++)
+                differ += check(Paths.get(args[a]), c) > 0 ? 1 : 0;
+        } else {
+            if (keep == null) keep = Files.createTempDirectory("differential");
+            else Files.createDirectories(keep);
+            for (int i = 0; i < count; i++, programs++) {
+                Path file = keep.resolve("d" + (seed + i) + ".cpp");
+                Files.write(file, new Differential(seed + i).program()
+                                      .getBytes(StandardCharsets.US_ASCII));
+                if (check(file, c) > 0) differ++;
+                else Files.delete(file);
+            }
+        }
+        System.err.println(programs + " programs, " + differ + " differ"
+                           + (differ > 0 && keep != null ? " (kept in " + keep + ")" : ""));
+        System.exit(differ > 0 ? 1 : 0);
+    }
+
+} // Differential
@@ -0,0 +1,81 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+public class Frontend {
+    // In-process compiler entry point: lexes and parses one source per
+    // call and returns a Compilation, never ending the process.  The
+    // Lexer and Parser are reset and reused between calls, so a
+    // long-lived caller can keep one Frontend per thread, or a pool of
+    // them.  A Frontend is not safe for concurrent use.  Any failure,
+    // even a bug in a pass, is a failed Compilation, never an exception.
+
+    private final Lexer lexer = new Lexer(ByteBuffer.allocate(0));
+    private final Parser parser = new Parser(lexer);
+    private boolean stackSafe;    // see Parser.stackSafe
+    private boolean typed;        // type check, then use typed operators
+    private boolean optimize;     // fold constants, and if typed inline calls
+                                  // and optimise loops
+
+    public void setStackSafe (boolean on) { stackSafe = on; }
+
+    public void setTyped (boolean on) { typed = on; }
+
+    public void setOptimize (boolean on) { optimize = on; }
+
+    public Compilation compile (Path file) {
+        ByteBuffer src;
+        try {
+            src = Lexer.map(file.toString());
+        } catch (IOException e) {
+            return new Compilation(new Diagnostic(0, 0,
+                "Cannot read " + file + ": " + e));
+        }
+        return compile(src);
+    }
+
+    public Compilation compile (CharSequence text) {
+        return compile(text.toString().getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    public Compilation compile (byte[] text) {
+        return compile(ByteBuffer.wrap(text));
+    }
+
+    public Compilation compile (ByteBuffer src) {
+        Compilation c;
+        try {
+            lexer.reset(src);
+            parser.reset(lexer);
+            parser.stackSafe = stackSafe;
+            Program p = parser.program();
+            if (typed) {
+                StaticTypeCheck.V(p);
+                p = TypeTransformer.T(p, StaticTypeCheck.typing(p));
+                if (optimize) p = Inliner.I(p);
+            }
+            int nodes = 0, removed = 0;
+            if (optimize) {
+                nodes = ConstantFolder.size(p);
+                p = ConstantFolder.F(p);
+                removed = nodes - ConstantFolder.size(p);
+                if (typed) p = LoopOptimizer.L(p);
+            }
+            c = new Compilation(p);
+            c.nodes = nodes;
+            c.removed = removed;
+        } catch (CompileError e) {
+            c = new Compilation(e.diagnostic());
+        } catch (StackOverflowError e) {
+            c = new Compilation(new Diagnostic(0, 0,
+                "Source nested too deeply; try stack-safe parsing (-s)"));
+        } catch (RuntimeException e) {
+            c = new Compilation(new Diagnostic(0, 0, "Internal compiler error: " + e));
+        }
+        c.tokens = lexer.tokenCount();
+        c.bytes = src.remaining();
+        return c;
+    }
+
+} // Frontend
@@ -0,0 +1,484 @@
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Call-site inlining for typed C++Lite: each call of a small,
+// non-recursive function is replaced by a copy of its body.
+
+public class Inliner {
+    // I expects a Program that has been through TypeTransformer.  A
+    // function is inlined if it cannot reach a call of itself, its
+    // body has at most LIMIT nodes (see ConstantFolder.size) once its
+    // own calls are inlined, its one Return is the body's last
+    // statement (a void function may have none), it declares no
+    // arrays, and DefiniteAssignment proves every read of its
+    // variables assigned.  Callees are done before their callers, so
+    // a chain of small functions collapses.
+    //
+    // Each inlined call gets fresh copies of the function's variables,
+    // declared temporary in the caller: the arguments are assigned to
+    // the parameters, the rest of the body follows, and the Return's
+    // result takes the place of the call.  A copy's reads are proven
+    // assigned, so a Loop that runs it again never sees an old value.
+    //
+    // The body runs before the statement that held the call, so what
+    // the original evaluated before the call is evaluated into a
+    // temporary first, and every error still comes in the original
+    // order.  The right operand of && and || becomes a Conditional, a
+    // Loop test is evaluated again at the end of the body, and the
+    // target of an element assignment is read, to check its index,
+    // before the source.  Calls that are not inlined stay Calls, and
+    // functions that are no longer called are dropped.
+
+    static final int LIMIT = 60;   // AST nodes in a body
+
+    private final Functions source;
+    private final Map<String, Function> done = new HashMap<String, Function>();
+    private final Set<String> inlinable = new HashSet<String>();
+    private final Map<String, Set<String>> callees =
+        new HashMap<String, Set<String>>();
+    private int slot;              // next free Variable index
+    private int copies, temps;     // for fresh names
+    int inlined;                   // calls, for main
+
+    // the scope being rewritten: main or one function
+    private Declarations decls;     // its declarations, growing
+    private TypeMap tm;
+    private DefiniteAssignment da;
+    private final Map<Variable, Integer> number = new HashMap<Variable, Integer>();
+
+    private Inliner (Program p) {
+        source = p.functions;
+        for (Declaration d : p.decpart)
+            slot = Math.max(slot, d.v.index() + 1);
+        for (Function f : source) {
+            for (Declaration d : StaticTypeCheck.variables(f))
+                slot = Math.max(slot, d.v.index() + 1);
+            Set<String> c = new HashSet<String>();
+            calls(f.body, c);
+            callees.put(f.id, c);
+        }
+    }
+
+    public static Program I (Program p) {
+        if (p.functions.isEmpty()) return p;
+        return new Inliner(p).inline(p);
+    }
+
+    private Program inline (Program p) {
+        for (Function f : source)
+            visit(f, new HashSet<String>());
+        Declarations d = new Declarations();
+        d.addAll(p.decpart);
+        Block body = scope(d, p.body, new BitSet(), null);
+        Set<String> live = new HashSet<String>();   // still called
+        calls(body, live);
+        for (boolean grew = true; grew; ) {
+            grew = false;
+            for (String name : new ArrayList<String>(live))
+                grew |= live.addAll(calls(done.get(name).body, new HashSet<String>()));
+        }
+        Functions functions = new Functions();
+        for (Function f : source)
+            if (live.contains(f.id)) functions.add(done.get(f.id));
+        return new Program(d, body, functions);
+    }
+
+    private void visit (Function f, Set<String> path) { // callees first
+        if (done.containsKey(f.id) || !path.add(f.id)) return;
+        for (String c : callees.get(f.id))
+            visit(source.get(c), path);
+        path.remove(f.id);
+        Declarations locals = new Declarations();
+        locals.addAll(f.locals);
+        BitSet params = new BitSet();
+        params.set(0, f.params.size());
+        Function g = new Function(f.t, f.id, f.params, locals, null);
+        g.body = scope(locals, f.body, params, g);
+        done.put(f.id, g);
+        if (inlinable(g)) inlinable.add(g.id);
+    }
+
+    private boolean inlinable (Function f) {
+        if (reaches(f.id, f.id, new HashSet<String>())) return false;
+        List<Statement> members = f.body.members;
+        boolean last = !members.isEmpty()
+                       && members.get(members.size() - 1) instanceof Return;
+        int n = returns(f.body);
+        if (last ? n != 1 : n != 0 || f.t != Type.VOID)
+            return false;
+        if (ConstantFolder.size(f.body) > LIMIT)
+            return false;
+        for (Declaration d : f.locals)
+            if (d.t.isArray()) return false;
+        return DefiniteAssignment.of(f).unproven == 0;
+    }
+
+    private boolean reaches (String from, String to, Set<String> seen) {
+        for (String c : callees.get(from))
+            if (c.equals(to) || (seen.add(c) && reaches(c, to, seen)))
+                return true;
+        return false;
+    }
+
+    private static int returns (Statement s) {
+        if (s instanceof Return) return 1;
+        int n = 0;
+        if (s instanceof Block)
+            for (Statement m : ((Block) s).members)
+                n += returns(m);
+        if (s instanceof Conditional) {
+            Conditional c = (Conditional) s;
+            n = returns(c.thenbranch)
+                + (c.elsebranch == null ? 0 : returns(c.elsebranch));
+        }
+        if (s instanceof Loop) n = returns(((Loop) s).body);
+        return n;
+    }
+
+    private static Set<String> calls (Statement s, Set<String> names) {
+        // adds the name of every function s calls
+        collect(s, names);
+        return names;
+    }
+
+    private static void collect (Statement s, Set<String> names) {
+        if (s instanceof Block) {
+            for (Statement m : ((Block) s).members)
+                collect(m, names);
+        } else if (s instanceof Assignment) {
+            collect(((Assignment) s).source, names);
+        } else if (s instanceof ArrayAssignment) {
+            collect(((ArrayAssignment) s).target, names);
+            collect(((ArrayAssignment) s).source, names);
+        } else if (s instanceof Conditional) {
+            Conditional c = (Conditional) s;
+            collect(c.test, names);
+            collect(c.thenbranch, names);
+            if (c.elsebranch != null) collect(c.elsebranch, names);
+        } else if (s instanceof Loop) {
+            collect(((Loop) s).test, names);
+            collect(((Loop) s).body, names);
+        } else if (s instanceof CallStatement) {
+            collect(((CallStatement) s).call, names);
+        } else if (s instanceof Return) {
+            collect(((Return) s).result, names);
+        }
+    }
+
+    private static void collect (Expression e, Set<String> names) {
+        if (e instanceof Call) {
+            names.add(((Call) e).name);
+            for (Expression a : ((Call) e).args)
+                collect(a, names);
+        } else if (e instanceof ArrayRef) {
+            collect(((ArrayRef) e).index, names);
+        } else if (e instanceof Binary) {
+            collect(((Binary) e).term1, names);
+            collect(((Binary) e).term2, names);
+        } else if (e instanceof Unary) {
+            collect(((Unary) e).term, names);
+        }
+    }
+
+    private boolean inlines (Statement s) { // s has a call to inline
+        Set<String> names = calls(s, new HashSet<String>());
+        names.retainAll(inlinable);
+        return !names.isEmpty();
+    }
+
+    private boolean inlines (Expression e) {
+        Set<String> names = new HashSet<String>();
+        collect(e, names);
+        names.retainAll(inlinable);
+        return !names.isEmpty();
+    }
+
+    // Rewriting one scope
+
+    private Block scope (Declarations d, Block body, BitSet initial, Function f) {
+        // body, with its calls inlined; d (f's locals, or main's
+        // declarations) grows by the temporaries
+        Declarations all = new Declarations();
+        if (f != null) all.addAll(f.params);
+        all.addAll(d);
+        decls = d;
+        tm = StaticTypeCheck.typing(all);
+        number.clear();
+        for (int v = 0; v < all.size(); v++)
+            number.put(all.get(v).v, v);
+        da = new DefiniteAssignment(all, body, initial);
+        Block out = new Block();
+        for (Statement m : body.members)
+            statement(m, out);
+        return out;
+    }
+
+    private void statement (Statement s, Block out) { // s's rewrite goes to out
+        if (!inlines(s)) {
+            out.members.add(s);
+            return;
+        }
+        BitSet known = da.before(s);
+        if (s instanceof Assignment) {
+            Assignment a = (Assignment) s;
+            out.members.add(new Assignment(a.target, expression(a.source, out, known)));
+        } else if (s instanceof ArrayAssignment) {
+            ArrayAssignment a = (ArrayAssignment) s;
+            Expression index = expression(a.target.index, out, known);
+            if (inlines(a.source)) {
+                index = pin(index, out, known);
+                check(a.target.array, index, out);
+            }
+            ArrayRef target = new ArrayRef(a.target.array, index);
+            out.members.add(new ArrayAssignment(target, expression(a.source, out, known)));
+        } else if (s instanceof Block) {
+            Block b = new Block();
+            for (Statement m : ((Block) s).members)
+                statement(m, b);
+            out.members.add(b);
+        } else if (s instanceof Conditional) {
+            Conditional c = (Conditional) s;
+            Expression test = expression(c.test, out, known);
+            out.members.add(new Conditional(test, branch(c.thenbranch),
+                                            branch(c.elsebranch)));
+        } else if (s instanceof Loop) {
+            Loop l = (Loop) s;
+            if (!inlines(l.test)) {
+                out.members.add(new Loop(l.test, branch(l.body)));
+                return;
+            }
+            Variable t = temp(Type.BOOL);   // the test, before each iteration
+            out.members.add(new Assignment(t, expression(l.test, out, known)));
+            Block b = new Block();
+            statement(l.body, b);
+            b.members.add(new Assignment(t, expression(l.test, b, known)));
+            out.members.add(new Loop(t, b));
+        } else if (s instanceof CallStatement) {
+            Expression r = expression(((CallStatement) s).call, out, known);
+            if (r == null) return;   // a void body, inlined
+            if (r instanceof Call) out.members.add(new CallStatement((Call) r));
+            else if (!(r instanceof Value) && !(r instanceof Variable))
+                out.members.add(new Assignment(temp(type(r)), r)); // for its errors
+        } else if (s instanceof Return) {
+            out.members.add(new Return(expression(((Return) s).result, out, known)));
+        }
+    }
+
+    private Statement branch (Statement s) { // of a Conditional or Loop
+        if (s == null || !inlines(s)) return s;
+        Block b = new Block();
+        statement(s, b);
+        return b.members.size() == 1 ? b.members.get(0) : b;
+    }
+
+    private void check (Variable array, Expression index, Block out) {
+        // reads array[index] into a temporary, unless index is a
+        // literal in bounds: the error comes before the source's
+        if (index instanceof IntValue) {
+            int i = ((IntValue) index).intValue();
+            if (i >= 0 && i < tm.get(array).size()) return;
+        }
+        out.members.add(new Assignment(temp(tm.get(array).element()),
+                                       new ArrayRef(array, index)));
+    }
+
+    private Expression expression (Expression e, Block out, BitSet known) {
+        // e's rewrite; the statements it needs first go to out
+        if (!inlines(e)) return e;
+        if (e instanceof Call) {
+            Call c = (Call) e;
+            if (inlinable.contains(c.name)) return inline(c, out, known);
+            return new Call(c.name, arguments(c.args, out, known));
+        }
+        if (e instanceof ArrayRef) {
+            ArrayRef r = (ArrayRef) e;
+            return new ArrayRef(r.array, expression(r.index, out, known));
+        }
+        if (e instanceof Unary) {
+            Unary u = (Unary) e;
+            return new Unary(u.op, expression(u.term, out, known));
+        }
+        Binary b = (Binary) e;
+        if (b.op.BooleanOp() && inlines(b.term2)) { // term2 runs only sometimes
+            Variable t = temp(Type.BOOL);
+            out.members.add(new Assignment(t, expression(b.term1, out, known)));
+            Block then = new Block();
+            Expression term2 = expression(b.term2, then, known);
+            then.members.add(new Assignment(t, term2));
+            Expression test = b.op.code == Opcode.AND ? t
+                : new Unary(Operator.of(Opcode.NOT), t);
+            out.members.add(new Conditional(test, then));
+            return t;
+        }
+        Expression term1 = expression(b.term1, out, known);
+        if (inlines(b.term2)) term1 = pin(term1, out, known);
+        return new Binary(b.op, term1, expression(b.term2, out, known));
+    }
+
+    private ArrayList<Expression> arguments (List<Expression> args, Block out,
+                                             BitSet known) {
+        // each pinned if a later one inlines a call
+        ArrayList<Expression> result = new ArrayList<Expression>();
+        for (int i = 0; i < args.size(); i++) {
+            Expression a = expression(args.get(i), out, known);
+            boolean later = false;
+            for (int j = i + 1; j < args.size(); j++)
+                later |= inlines(args.get(j));
+            result.add(later ? pin(a, out, known) : a);
+        }
+        return result;
+    }
+
+    private Expression inline (Call c, Block out, BitSet known) {
+        // c's body goes to out; its result is returned (null if void)
+        Function f = done.get(c.name);
+        Map<Variable, Variable> copy = new HashMap<Variable, Variable>();
+        int k = copies++;
+        for (Declaration d : StaticTypeCheck.variables(f))
+            copy.put(d.v, declare(f.id + "." + d.v.name() + "$" + k, d.t));
+        ArrayList<Expression> args = arguments(c.args, out, known);
+        for (int i = 0; i < args.size(); i++)
+            out.members.add(new Assignment(copy.get(f.params.get(i).v), args.get(i)));
+        List<Statement> members = f.body.members;
+        int last = members.size() - 1;
+        boolean returns = last >= 0 && members.get(last) instanceof Return;
+        if (!returns) last++;
+        for (int i = 0; i < last; i++)
+            out.members.add(rename(members.get(i), copy));
+        inlined++;
+        return returns ? rename(((Return) members.get(last)).result, copy) : null;
+    }
+
+    private Expression pin (Expression e, Block out, BitSet known) {
+        // e, or a temporary holding e, evaluated here
+        if (e instanceof Value) return e;
+        if (e instanceof Variable) { // unchanged by an inlined body
+            Integer v = number.get(e);
+            if (v == null || known.get(v)) return e;   // null: a temporary
+        }
+        Variable t = temp(type(e));
+        out.members.add(new Assignment(t, e));
+        return t;
+    }
+
+    private Variable temp (Type t) { return declare("$i" + temps++, t); }
+
+    private Variable declare (String name, Type t) { // a temporary
+        Variable v = new Variable(name, null, slot++);
+        Declaration d = new Declaration(v, t);
+        d.temporary = true;
+        decls.add(d);
+        tm.put(v, t);
+        return v;
+    }
+
+    private Type type (Expression e) { // of a typed expression
+        if (e instanceof Variable) return tm.get(e);
+        if (e instanceof Value) return ((Value) e).type();
+        if (e instanceof ArrayRef) return tm.get(((ArrayRef) e).array).element();
+        if (e instanceof Call) return source.get(((Call) e).name).t;
+        Opcode op = e instanceof Binary ? ((Binary) e).op.code
+                                        : ((Unary) e).op.code;
+        switch (op) {
+          case INT_PLUS: case INT_MINUS: case INT_TIMES: case INT_DIV:
+          case INT_NEG: case F2I: case C2I:
+            return Type.INT;
+          case FLOAT_PLUS: case FLOAT_MINUS: case FLOAT_TIMES: case FLOAT_DIV:
+          case FLOAT_NEG: case I2F:
+            return Type.FLOAT;
+          case I2C:
+            return Type.CHAR;
+          default:
+            return Type.BOOL;
+        }
+    }
+
+    private static Statement rename (Statement s, Map<Variable, Variable> copy) {
+        // a fresh copy of s, on the copies of its variables
+        if (s instanceof Assignment) {
+            Assignment a = (Assignment) s;
+            return new Assignment(copy.get(a.target), rename(a.source, copy));
+        }
+        if (s instanceof ArrayAssignment) {
+            ArrayAssignment a = (ArrayAssignment) s;
+            return new ArrayAssignment((ArrayRef) rename(a.target, copy),
+                                       rename(a.source, copy));
+        }
+        if (s instanceof Block) {
+            Block b = new Block();
+            for (Statement m : ((Block) s).members)
+                b.members.add(rename(m, copy));
+            return b;
+        }
+        if (s instanceof Conditional) {
+            Conditional c = (Conditional) s;
+            return new Conditional(rename(c.test, copy), rename(c.thenbranch, copy),
+                c.elsebranch == null ? null : rename(c.elsebranch, copy));
+        }
+        if (s instanceof Loop) {
+            Loop l = (Loop) s;
+            return new Loop(rename(l.test, copy), rename(l.body, copy));
+        }
+        if (s instanceof CallStatement)
+            return new CallStatement((Call) rename(((CallStatement) s).call, copy));
+        if (s instanceof Return)
+            return new Return(rename(((Return) s).result, copy));
+        return s;   // Skip
+    }
+
+    private static Expression rename (Expression e, Map<Variable, Variable> copy) {
+        if (e instanceof Variable) return copy.get(e);
+        if (e instanceof ArrayRef) {
+            ArrayRef r = (ArrayRef) e;
+            return new ArrayRef(copy.get(r.array), rename(r.index, copy));
+        }
+        if (e instanceof Call) {
+            ArrayList<Expression> args = new ArrayList<Expression>();
+            for (Expression a : ((Call) e).args)
+                args.add(rename(a, copy));
+            return new Call(((Call) e).name, args);
+        }
+        if (e instanceof Binary) {
+            Binary b = (Binary) e;
+            return new Binary(b.op, rename(b.term1, copy), rename(b.term2, copy));
+        }
+        if (e instanceof Unary) {
+            Unary u = (Unary) e;
+            return new Unary(u.op, rename(u.term, copy));
+        }
+        return e;   // Value
+    }
+
+    public static void main (String args[]) {
+        // java Inliner [-s] file: display the program with its calls inlined
+        //   -s: stack-safe parsing (see Parser.stackSafe)
+        Frontend fe = new Frontend();
+        fe.setTyped(true);
+        int a = 0;
+        if (args[a].equals("-s")) {
+            fe.setStackSafe(true);
+            a++;
+        }
+        Compilation c = fe.compile(Paths.get(args[a]));
+        if (!c.succeeded()) {
+            System.err.println(c.diagnostics().get(0));
+            System.exit(1);
+        }
+        Program p = c.program();
+        if (p.functions.isEmpty()) {
+            p.display();
+            System.err.println("0 calls inlined");
+            return;
+        }
+        Inliner i = new Inliner(p);
+        i.inline(p).display();
+        System.err.println(i.inlined + " calls inlined");
+    } // main
+
+}
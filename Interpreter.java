@@ -0,0 +1,560 @@
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class Interpreter {
+    // Tree-walking interpreter for a parsed Program.  Each declared
+    // variable is resolved once, at load time, to a slot: its Symbols
+    // index.  State lives in primitive arrays indexed by slot (int,
+    // char and bool values in ints[], floats in floats[]), and an
+    // expression leaves its result in the ival or fval register and
+    // returns its Type, so running the program allocates nothing.
+    // Values are only built when the final state is dumped.
+    //
+    // Without a type-checking pass the interpreter checks types as it
+    // goes: char widens to int and int or char to float, in operands
+    // and in assignments; any other mix is an error.
+    //
+    // Each array is one primitive array, held by slot in intArrays
+    // (int and bool elements), charArrays or floatArrays.  Arrays
+    // start zeroed and count as defined: elements have no flags.
+    // The index is evaluated and checked against the bounds before
+    // the value stored is evaluated.
+    //
+    // Functions run on one stack of cells: the arrays above are
+    // indexed by cell, not slot, and each activation is a frame of
+    // cells starting at fp.  main's frame is at 0, one cell per slot.
+    // A function's frame has a cell per parameter, then per local,
+    // and its Frame maps each of its slots to a cell.  A call
+    // evaluates its arguments into a new frame at the top of the
+    // stack, runs the body there and pops it, so calls allocate
+    // nothing but the arrays a function declares.  A return leaves
+    // its result in ival or fval and unwinds to the call.
+    //
+    // Calls recurse on the Java stack, so run( ) executes on a thread
+    // of its own with a STACK large enough for deep recursion in the
+    // program (and deep nesting in its tree).
+
+    final Program program;
+    Type[] types;             // declared type by slot, or null, and
+    int[] cells;              // cell by slot, in the current frame
+    int fp, sp;               // frame base and stack top, in cells
+    int[] ints;               // int, char and bool variables
+    float[] floats;           // float variables
+    boolean[] defined;        // cell has been assigned
+    int[][] intArrays;        // array cells, by element type
+    char[][] charArrays;
+    float[][] floatArrays;
+
+    int ival;                 // result of the last eval( ),
+    float fval;               // by the Type it returned
+
+    private final Frame main;
+    private Frame frame;         // the current frame's layout
+    private final Map<String, Frame> frames = new HashMap<String, Frame>();
+    private boolean returning;   // a Return is unwinding to its call
+
+    static final long STACK = 1L << 28;   // bytes, for the thread run( ) uses
+
+    private static final class Frame { // a frame's layout
+        final Function function;       // null for main
+        final Declarations variables;  // in cell order
+        final Type[] types;            // by slot
+        final int[] cells;             // by slot
+
+        Frame (Function f, Declarations d, int slots) {
+            function = f;
+            variables = d;
+            types = new Type[slots];
+            cells = new int[slots];
+            for (int k = 0; k < d.size(); k++) {
+                int s = d.get(k).v.index();
+                if (types[s] != null)
+                    throw new IllegalArgumentException(
+                        "duplicate declaration of " + d.get(k).v.name());
+                types[s] = d.get(k).t;
+                cells[s] = f == null ? s : k;
+            }
+        }
+
+        int size ( ) { return function == null ? types.length : variables.size(); }
+    }
+
+    Interpreter (Program p) {
+        int slots = 0;
+        for (Declaration d : p.decpart)
+            slots = Math.max(slots, slot(d) + 1);
+        for (Function f : p.functions)
+            for (Declaration d : StaticTypeCheck.variables(f))
+                slots = Math.max(slots, slot(d) + 1);
+        program = p;
+        main = new Frame(null, p.decpart, slots);
+        for (Function f : p.functions)
+            if (frames.put(f.id, new Frame(f, StaticTypeCheck.variables(f), slots))
+                    != null)
+                throw new IllegalArgumentException("duplicate function " + f.id);
+        ints = new int[slots];
+        floats = new float[slots];
+        defined = new boolean[slots];
+        intArrays = new int[slots][];
+        charArrays = new char[slots][];
+        floatArrays = new float[slots][];
+        enter(main, 0);
+        switchTo(main, 0);
+        resolve(p.body, main);
+        for (Frame f : frames.values())
+            resolve(f.function.body, f);
+    }
+
+    private static int slot (Declaration d) {
+        if (d.v.index() < 0)
+            throw new IllegalArgumentException(
+                "variable " + d.v.name() + " has no slot");
+        return d.v.index();
+    }
+
+    private void enter (Frame f, int base) { // push f's frame at base
+        int top = base + f.size();
+        if (top > ints.length) {   // grow the stack
+            int n = Math.max(top, 2 * ints.length);
+            ints = Arrays.copyOf(ints, n);
+            floats = Arrays.copyOf(floats, n);
+            defined = Arrays.copyOf(defined, n);
+            intArrays = Arrays.copyOf(intArrays, n);
+            charArrays = Arrays.copyOf(charArrays, n);
+            floatArrays = Arrays.copyOf(floatArrays, n);
+        }
+        Arrays.fill(defined, base, top, false);
+        for (Declaration d : f.variables)
+            if (d.t.isArray()) {
+                int c = base + f.cells[d.v.index()];
+                Object a = ArrayValue.storage(d.t);
+                if (a instanceof float[]) floatArrays[c] = (float[]) a;
+                else if (a instanceof char[]) charArrays[c] = (char[]) a;
+                else intArrays[c] = (int[]) a;
+                defined[c] = true;
+            }
+        sp = top;
+    }
+
+    private void resolve (Statement s, Frame f) { // as declared in f
+        if (s instanceof Block) {
+            for (Statement m : ((Block) s).members)
+                resolve(m, f);
+        } else if (s instanceof Assignment) {
+            resolve(((Assignment) s).target, f);
+            resolve(((Assignment) s).source, f);
+        } else if (s instanceof ArrayAssignment) {
+            resolve(((ArrayAssignment) s).target, f);
+            resolve(((ArrayAssignment) s).source, f);
+        } else if (s instanceof Conditional) {
+            Conditional c = (Conditional) s;
+            resolve(c.test, f);
+            resolve(c.thenbranch, f);
+            if (c.elsebranch != null) resolve(c.elsebranch, f);
+        } else if (s instanceof Loop) {
+            resolve(((Loop) s).test, f);
+            resolve(((Loop) s).body, f);
+        } else if (s instanceof CallStatement) {
+            resolve(((CallStatement) s).call, f);
+        } else if (s instanceof Return) {
+            if (f.function == null)
+                throw new IllegalArgumentException("return outside a function");
+            if (((Return) s).result != null)
+                resolve(((Return) s).result, f);
+        }
+    }
+
+    private void resolve (Expression e, Frame f) {
+        if (e instanceof Variable) {
+            Variable v = (Variable) e;
+            int s = v.index();
+            if (s < 0 || s >= f.types.length || f.types[s] == null)
+                throw new IllegalArgumentException(
+                    "undeclared variable " + v.name());
+        } else if (e instanceof Call) {
+            Call c = (Call) e;
+            Frame callee = frames.get(c.name);
+            if (callee == null)
+                throw new IllegalArgumentException("undefined function " + c.name);
+            int n = callee.function.params.size();
+            if (c.args.size() != n)
+                throw new IllegalArgumentException(c.name + " takes " + n
+                    + " arguments, not " + c.args.size());
+            for (Expression a : c.args)
+                resolve(a, f);
+        } else if (e instanceof ArrayRef) {
+            resolve(((ArrayRef) e).array, f);
+            resolve(((ArrayRef) e).index, f);
+        } else if (e instanceof Binary) {
+            resolve(((Binary) e).term1, f);
+            resolve(((Binary) e).term2, f);
+        } else if (e instanceof Unary) {
+            resolve(((Unary) e).term, f);
+        }
+    }
+
+    public void run ( ) {
+        onDeepStack(this::exec);
+    }
+
+    void exec ( ) { // the program's body, on the current thread
+        execute(program.body);
+    }
+
+    static void onDeepStack (Runnable r) { // runs r on a thread with STACK
+        Throwable[] thrown = new Throwable[1];
+        Thread t = new Thread(null, () -> {
+            try {
+                r.run();
+            } catch (StackOverflowError e) {
+                thrown[0] = new IllegalStateException("stack overflow");
+            } catch (RuntimeException | Error e) {
+                thrown[0] = e;
+            }
+        }, "interpreter", STACK);
+        t.start();
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            t.interrupt();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted");
+        }
+        if (thrown[0] instanceof RuntimeException)
+            throw (RuntimeException) thrown[0];
+        if (thrown[0] != null)
+            throw (Error) thrown[0];
+    }
+
+    void execute (Statement s) {
+        if (s instanceof Assignment) {
+            assign((Assignment) s);
+        } else if (s instanceof ArrayAssignment) {
+            ArrayAssignment a = (ArrayAssignment) s;
+            int k = position(a.target.array, eval(a.target.index));
+            storeElement(a.target.array, k, eval(a.source));
+        } else if (s instanceof Block) {
+            Block b = (Block) s;
+            for (int i = 0; i < b.members.size() && !returning; i++)  // no Iterator
+                execute(b.members.get(i));
+        } else if (s instanceof Loop) {
+            Loop l = (Loop) s;
+            while (!returning && test(l.test))
+                execute(l.body);
+        } else if (s instanceof Conditional) {
+            Conditional c = (Conditional) s;
+            if (test(c.test))
+                execute(c.thenbranch);
+            else if (c.elsebranch != null)
+                execute(c.elsebranch);
+        } else if (s instanceof CallStatement) {
+            call(((CallStatement) s).call);
+        } else if (s instanceof Return) {
+            result((Return) s);
+        }
+        // Skip: nothing to do
+    }
+
+    Type call (Call c) { // runs c, leaving its result in ival or fval
+        Frame f = frames.get(c.name);
+        int base = sp;
+        enter(f, base);
+        for (int i = 0; i < c.args.size(); i++) {   // in the caller's frame
+            Declaration p = f.function.params.get(i);
+            put(base + i, p.t, p.v.name(), eval(c.args.get(i)));
+        }
+        Frame caller = frame;
+        int callerFp = fp;
+        switchTo(f, base);
+        execute(f.function.body);
+        if (!returning && f.function.t != Type.VOID)
+            throw new IllegalStateException("function " + c.name
+                                            + " ended without a return");
+        returning = false;
+        switchTo(caller, callerFp);
+        sp = base;
+        return f.function.t;
+    }
+
+    private void switchTo (Frame f, int base) {
+        frame = f;
+        types = f.types;
+        cells = f.cells;
+        fp = base;
+    }
+
+    private void result (Return r) { // as the function's type
+        Function f = frame.function;
+        if (r.result == null) {
+            if (f.t != Type.VOID)
+                throw new IllegalStateException("function " + f.id
+                                                + " returns no " + f.t);
+            returning = true;
+            return;
+        }
+        Type t = eval(r.result);
+        if (f.t == Type.FLOAT && (t == Type.INT || t == Type.CHAR))
+            fval = ival;
+        else if (t != f.t && !(f.t == Type.INT && t == Type.CHAR))
+            throw new IllegalStateException("cannot return " + t + " from "
+                                            + f.t + " function " + f.id);
+        returning = true;
+    }
+
+    private void assign (Assignment a) {
+        store(a.target, eval(a.source));
+    }
+
+    void store (Variable v, Type t) { // the value of type t in ival or fval
+        int s = v.index();
+        put(fp + cells[s], types[s], v.name(), t);
+    }
+
+    private void put (int c, Type target, String name, Type t) { // in cell c
+        if (target == Type.FLOAT) {
+            if (t == Type.FLOAT) floats[c] = fval;
+            else if (t == Type.INT || t == Type.CHAR) floats[c] = ival;
+            else throw mismatch(target, name, t);
+        } else if (t == target || (target == Type.INT && t == Type.CHAR)) {
+            ints[c] = ival;
+        } else throw mismatch(target, name, t);
+        defined[c] = true;
+    }
+
+    int position (Variable a, Type t) { // the index, of type t in ival
+        Type at = types[a.index()];
+        if (!at.isArray())
+            throw new IllegalStateException(a.name() + " is not an array");
+        if (t != Type.INT && t != Type.CHAR)
+            throw new IllegalStateException("index of " + a.name()
+                                            + " is not an int: " + t);
+        return ArrayRef.check(ival, at.size(), a.name());
+    }
+
+    Type loadElement (Variable a, int k) { // element k, checked, of array a
+        int s = a.index(), c = fp + cells[s];
+        Type t = types[s].element();
+        if (t == Type.FLOAT) fval = floatArrays[c][k];
+        else if (t == Type.CHAR) ival = charArrays[c][k];
+        else ival = intArrays[c][k];
+        return t;
+    }
+
+    void storeElement (Variable a, int k, Type t) { // as store( )
+        int s = a.index(), c = fp + cells[s];
+        Type target = types[s].element();
+        if (target == Type.FLOAT) {
+            if (t == Type.FLOAT) floatArrays[c][k] = fval;
+            else if (t == Type.INT || t == Type.CHAR) floatArrays[c][k] = ival;
+            else throw mismatch(types[s], a.name(), t);
+        } else if (target == Type.CHAR && t == Type.CHAR) {
+            charArrays[c][k] = (char) ival;
+        } else if (target != Type.CHAR
+                   && (t == target || (target == Type.INT && t == Type.CHAR))) {
+            intArrays[c][k] = ival;
+        } else throw mismatch(types[s], a.name(), t);
+    }
+
+    private IllegalStateException mismatch (Type target, String name, Type t) {
+        return new IllegalStateException("cannot assign " + t + " to "
+            + target + " " + name);
+    }
+
+    boolean test (Expression e) {
+        if (eval(e) != Type.BOOL)
+            throw new IllegalStateException("test is not a bool");
+        return ival != 0;
+    }
+
+    private Type eval (Expression e) {
+        if (e instanceof Variable)
+            return load((Variable) e);
+        if (e instanceof ArrayRef) {
+            ArrayRef r = (ArrayRef) e;
+            return loadElement(r.array, position(r.array, eval(r.index)));
+        }
+        if (e instanceof Call) {
+            Type t = call((Call) e);
+            if (t == Type.VOID)
+                throw new IllegalStateException(((Call) e).name
+                                                + " returns no value");
+            return t;
+        }
+        if (e instanceof Binary) return binary((Binary) e);
+        if (e instanceof Unary) return unary((Unary) e);
+        Value v = (Value) e;
+        if (v.isUndef())
+            throw new IllegalStateException("reference to undefined value");
+        Type t = v.type();
+        if (t == Type.FLOAT) fval = v.floatValue();
+        else if (t == Type.CHAR) ival = v.charValue();
+        else ival = v.intValue();  // int, or bool as 0 or 1
+        return t;
+    }
+
+    Type load (Variable v) {
+        int s = v.index(), c = fp + cells[s];
+        if (!defined[c])
+            throw new IllegalStateException(
+                "reference to undefined variable " + v.name());
+        Type t = types[s];
+        if (t == Type.FLOAT) fval = floats[c];
+        else ival = ints[c];
+        return t;
+    }
+
+    private Type binary (Binary b) {
+        if (b.op.BooleanOp()) { // short circuit
+            boolean or = b.op.code == Opcode.OR;
+            if (test(b.term1) != or)
+                ival = test(b.term2) ? 1 : 0;
+            return Type.BOOL;
+        }
+        Type t1 = eval(b.term1);
+        int i1 = ival;
+        float f1 = fval;
+        return operate(b.op, t1, i1, f1, eval(b.term2));
+    }
+
+    Type operate (Operator o, Type t1, int i1, float f1, Type t2) {
+        // o applied to (t1, i1 or f1) and (t2, ival or fval)
+        Opcode op = o.code;
+        if (t1 == Type.BOOL || t2 == Type.BOOL) {
+            if (t1 != t2 || o.ArithmeticOp())
+                throw illegal(o, t1, t2);
+            return compare(op, Integer.compare(i1, ival));
+        }
+        if (t1 == Type.FLOAT || t2 == Type.FLOAT) {
+            float x = t1 == Type.FLOAT ? f1 : i1;
+            float y = t2 == Type.FLOAT ? fval : ival;
+            switch (op) {
+              case PLUS:  fval = x + y; return Type.FLOAT;
+              case MINUS: fval = x - y; return Type.FLOAT;
+              case TIMES: fval = x * y; return Type.FLOAT;
+              case DIV:   fval = x / y; return Type.FLOAT;
+            }
+            // as Java's float compares: every relation on NaN is false
+            // except !=
+            switch (op) {
+              case LT: ival = x < y ? 1 : 0; break;
+              case LE: ival = x <= y ? 1 : 0; break;
+              case EQ: ival = x == y ? 1 : 0; break;
+              case NE: ival = x != y ? 1 : 0; break;
+              case GT: ival = x > y ? 1 : 0; break;
+              case GE: ival = x >= y ? 1 : 0; break;
+              default: throw illegal(o, t1, t2);
+            }
+            return Type.BOOL;
+        }
+        int x = i1, y = ival;   // int or char
+        switch (op) {
+          case PLUS:  ival = x + y; return Type.INT;
+          case MINUS: ival = x - y; return Type.INT;
+          case TIMES: ival = x * y; return Type.INT;
+          case DIV:   ival = x / y; return Type.INT;
+        }
+        return compare(op, Integer.compare(x, y));
+    }
+
+    private Type compare (Opcode op, int c) { // c as from Integer.compare
+        boolean r;
+        switch (op) {
+          case LT: r = c < 0; break;
+          case LE: r = c <= 0; break;
+          case EQ: r = c == 0; break;
+          case NE: r = c != 0; break;
+          case GT: r = c > 0; break;
+          case GE: r = c >= 0; break;
+          default: throw new IllegalStateException("unknown operator " + op);
+        }
+        ival = r ? 1 : 0;
+        return Type.BOOL;
+    }
+
+    private Type unary (Unary u) {
+        return operate(u.op, eval(u.term));
+    }
+
+    Type operate (Operator o, Type t) { // o applied to ival or fval
+        switch (o.code) {
+          case NOT:
+            if (t != Type.BOOL) break;
+            ival ^= 1;
+            return t;
+          case NEG:
+            if (t == Type.FLOAT) { fval = -fval; return t; }
+            if (t == Type.BOOL) break;
+            ival = -ival;
+            return Type.INT;
+          case INT:
+            if (t == Type.FLOAT) ival = (int) fval;
+            else if (t == Type.BOOL) break;
+            return Type.INT;
+          case FLOAT:
+            if (t == Type.INT || t == Type.CHAR) fval = ival;
+            else if (t != Type.FLOAT) break;
+            return Type.FLOAT;
+          case CHAR:
+            if (t != Type.INT && t != Type.CHAR) break;
+            ival = (char) ival;
+            return Type.CHAR;
+        }
+        throw illegal(o, t, null);
+    }
+
+    IllegalStateException illegal (Operator op, Type t1, Type t2) {
+        return new IllegalStateException("operator " + op
+            + " is not defined on " + t1 + (t2 == null ? "" : ", " + t2));
+    }
+
+    Value value (Variable v) { // current value in main, or undef
+        int s = v.index();
+        Type t = types[s];
+        if (t.isArray()) {
+            Object a = t.element() == Type.FLOAT ? floatArrays[s]
+                : t.element() == Type.CHAR ? charArrays[s] : intArrays[s];
+            return new ArrayValue(t, a);
+        }
+        if (!defined[s]) return Value.mkValue(t);
+        if (t == Type.INT) return new IntValue(ints[s]);
+        if (t == Type.FLOAT) return new FloatValue(floats[s]);
+        if (t == Type.CHAR) return new CharValue((char) ints[s]);
+        return new BoolValue(ints[s] != 0);
+    }
+
+    public void display ( ) { // final state, in declaration order
+        for (Declaration d : program.decpart)
+            if (!d.temporary)
+                System.out.println(d.v.name() + " = " + value(d.v));
+    }
+
+    public static void main (String args[]) {
+        // java Interpreter [-s] file
+        //   -s: stack-safe parsing (see Parser.stackSafe)
+        Frontend fe = new Frontend();
+        int a = 0;
+        if (args[a].equals("-s")) {
+            fe.setStackSafe(true);
+            a++;
+        }
+        Compilation c = fe.compile(Paths.get(args[a]));
+        if (!c.succeeded()) {
+            System.err.println(c.diagnostics().get(0));
+            System.exit(1);
+        }
+        Interpreter interp;
+        try {
+            interp = new Interpreter(c.program());
+            interp.run();
+        } catch (IllegalArgumentException | IllegalStateException
+                 | ArithmeticException e) {
+            System.err.println("Runtime error: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        interp.display();
+    } // main
+
+} // Interpreter
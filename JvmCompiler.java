@@ -0,0 +1,687 @@
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class JvmCompiler {
+    // Compiles a typed Program (see TypeTransformer) to JVM bytecode:
+    // a class whose one method
+    //
+    //     public static void run (int[ ] ints, float[ ] floats, int[ ] defined,
+    //                             Object[ ] arrays)
+    //
+    // copies each variable from the arrays into a local on entry,
+    // executes the statement with the variables as locals, and
+    // copies them back on exit.  Arrays are indexed by variable
+    // number, in declaration order.  An array variable's entry in
+    // arrays is its int[ ], char[ ] or float[ ] (see ArrayValue),
+    // which is kept in a local and updated in place; an element
+    // access calls ArrayRef.check on its index unless RangeAnalysis
+    // proves it in bounds.  Loops and conditionals become
+    // JVM branches, so HotSpot compiles the program like any Java
+    // method.  Each variable also gets an int local that is 1 once it
+    // is assigned; reads test it, to keep the Interpreter's
+    // "reference to undefined variable" error.  Reads and assignments
+    // of a variable that is definitely assigned (see
+    // DefiniteAssignment) neither test nor set it.
+    //
+    // Each function becomes a static method of the same class, f_ and
+    // its name, taking and returning int (for int, char and bool) or
+    // float.  Its parameters are its first locals; the rest start at
+    // zero with their flags clear, and its arrays are allocated on
+    // entry.  A call is an invokestatic, so a program recurses on the
+    // Java stack (see Interpreter.onDeepStack).
+    //
+    // HotSpot never compiles a method longer than LIMIT bytes, so a
+    // statement too long for one is split: a Block's members go, in
+    // runs that fit, to methods run1, run2, ... like run, and a Loop
+    // or Conditional keeps its test and splits its branches.  Each
+    // method keeps in locals only the variables its own code uses,
+    // and stores them back around a call to another part.  A function
+    // is not split; one too long for the class file is a CompileError.
+
+    static final String CLASS = "CliteProgram";
+    static final String METHOD = "run";
+    static final String DESC = "([I[F[I[Ljava/lang/Object;)V";
+    static final int LIMIT = 8000;    // HotSpot's HugeMethodLimit
+    static final int TRANSFER = 32;   // bytes to load and store a variable
+
+    private final ClassBuilder cb;
+    private final Map<Variable, Integer> number = new HashMap<Variable, Integer>();
+    private final Declarations decpart;
+    private final int n;         // variables
+    private final int base;      // the first variable's local
+    private final Function function;   // being compiled, or null for run
+    private final Functions functions;
+    private DefiniteAssignment da;
+    private BitSet safe;         // assigned before this statement
+    private RangeAnalysis ranges;
+    private BitSet used;         // variables given a local, when measuring
+    private BitSet own;          // variables in locals in this method
+    private final List<List<Statement>> parts = new ArrayList<List<Statement>>();
+    private final Map<Statement, Integer> bytes = new IdentityHashMap<Statement, Integer>();
+    private final Map<Statement, BitSet> uses = new IdentityHashMap<Statement, BitSet>();
+
+    private JvmCompiler (ClassBuilder cb, Declarations d, Function f, Functions fs) {
+        this.cb = cb;
+        decpart = d;
+        n = d.size();
+        function = f;
+        functions = fs;
+        for (int v = 0; v < n; v++)
+            if (number.put(d.get(v).v, v) != null)
+                throw new IllegalArgumentException(
+                    "duplicate declaration of " + d.get(v).v.name());
+        base = f == null ? 4 : 0;
+        cb.maxLocals = base + 2 * n;
+    }
+
+    static byte[] compile (Program p) {
+        return compile(p.decpart, p.body, new BitSet(), p.functions);
+    }
+
+    static byte[] compile (Declarations d, Statement s) {
+        return compile(d, s, new BitSet(), new Functions());
+    }
+
+    static byte[] compile (Declarations d, Statement s, BitSet defined, Functions fs) {
+        // defined: variables that are always assigned when run starts;
+        // fs: the functions s may call
+        ClassBuilder cb = new ClassBuilder();
+        JvmCompiler c = new JvmCompiler(cb, d, null, fs);
+        c.da = new DefiniteAssignment(d, s, defined);
+        c.ranges = new RangeAnalysis(d, s);
+        c.parts.add(List.of(s));
+        for (int k = 0; k < c.parts.size(); k++)   // emit adds parts
+            c.method(k == 0 ? METHOD : METHOD + k, c.parts.get(k));
+        for (Function f : fs)
+            new JvmCompiler(cb, StaticTypeCheck.variables(f), f, fs).function();
+        return cb.toBytes(CLASS);
+    }
+
+    private void method (String name, List<Statement> part) { // run or a part of it
+        own = new BitSet();
+        for (Statement s : part)
+            direct(s, own);
+        cb.maxLocals = base + 2 * n;
+        transfer(true);
+        for (Statement s : part)
+            emit(s);
+        transfer(false);
+        cb.op(ClassBuilder.RETURN, 0);
+        end(name, DESC, part.get(0));
+    }
+
+    private void end (String name, String desc, Statement s) { // the method, at s
+        try {
+            cb.method(name, desc);
+        } catch (IllegalArgumentException e) { // too long for 16-bit branches
+            throw new CompileError(new Diagnostic(s.line, s.column, "Compile error: "
+                + (function != null ? "function " + function.id : "the program")
+                + " is too large for one JVM method (" + cb.size() + " bytes)"));
+        }
+    }
+
+    private void measure (Statement s) { // its bytes and uses, alone
+        if (bytes.containsKey(s)) return;
+        JvmCompiler c = new JvmCompiler(new ClassBuilder(), decpart, function, functions);
+        c.da = da;
+        c.ranges = ranges;
+        c.used = new BitSet();
+        c.statement(s);
+        bytes.put(s, c.cb.size());
+        uses.put(s, c.used);
+    }
+
+    private boolean fits (Statement s) { // in a method of its own
+        measure(s);
+        return bytes.get(s) + TRANSFER * uses.get(s).cardinality() <= LIMIT;
+    }
+
+    private void direct (Statement s, BitSet into) { // what emit(s) puts in locals
+        if (fits(s))
+            into.or(uses.get(s));
+        else if (s instanceof Block) {
+            for (Statement m : ((Block) s).members)
+                if (!fits(m)) direct(m, into);
+        } else if (s instanceof Loop) {
+            test(((Loop) s).test, into);
+            direct(((Loop) s).body, into);
+        } else if (s instanceof Conditional) {
+            Conditional c = (Conditional) s;
+            test(c.test, into);
+            direct(c.thenbranch, into);
+            if (c.elsebranch != null) direct(c.elsebranch, into);
+        } else
+            into.or(uses.get(s));
+    }
+
+    private void test (Expression e, BitSet into) { // the variables e uses
+        JvmCompiler c = new JvmCompiler(new ClassBuilder(), decpart, function, functions);
+        c.ranges = ranges;
+        c.safe = new BitSet();
+        c.used = into;
+        c.expression(e);
+    }
+
+    private void emit (Statement s) { // s, with the parts too long outlined
+        if (fits(s)) {
+            statement(s);
+        } else if (s instanceof Block) {
+            List<Statement> part = new ArrayList<Statement>();
+            int length = 0;
+            BitSet vars = new BitSet();
+            for (Statement m : ((Block) s).members) {
+                if (!fits(m)) {
+                    outline(part);
+                    part = new ArrayList<Statement>();
+                    length = 0;
+                    vars = new BitSet();
+                    emit(m);
+                    continue;
+                }
+                BitSet more = (BitSet) vars.clone();
+                more.or(uses.get(m));
+                if (length + bytes.get(m) + TRANSFER * more.cardinality() > LIMIT) {
+                    outline(part);
+                    part = new ArrayList<Statement>();
+                    length = 0;
+                    more = (BitSet) uses.get(m).clone();
+                }
+                part.add(m);
+                length += bytes.get(m);
+                vars = more;
+            }
+            outline(part);
+        } else if (s instanceof Loop) {
+            Loop l = (Loop) s;
+            ClassBuilder.Label body = new ClassBuilder.Label();
+            ClassBuilder.Label test = new ClassBuilder.Label();
+            cb.jump(ClassBuilder.GOTO, test, 0);
+            place(body, 0);
+            emit(l.body);
+            place(test, 0);
+            safe = da.before(s);
+            branch(l.test, true, body);
+        } else if (s instanceof Conditional) {
+            Conditional c = (Conditional) s;
+            ClassBuilder.Label elsebranch = new ClassBuilder.Label();
+            safe = da.before(s);
+            branch(c.test, false, elsebranch);
+            emit(c.thenbranch);
+            if (c.elsebranch == null || c.elsebranch instanceof Skip)
+                place(elsebranch, 0);
+            else {
+                ClassBuilder.Label end = new ClassBuilder.Label();
+                cb.jump(ClassBuilder.GOTO, end, 0);
+                place(elsebranch, 0);
+                emit(c.elsebranch);
+                place(end, 0);
+            }
+        } else
+            statement(s);
+    }
+
+    private void outline (List<Statement> part) { // a call to a new method for part
+        if (part.isEmpty()) return;
+        parts.add(part);
+        transfer(false);
+        for (int a = 0; a < 4; a++)
+            cb.local(ClassBuilder.ALOAD, a, 1);
+        cb.op2(ClassBuilder.INVOKESTATIC,
+               cb.methodRef(CLASS, METHOD + (parts.size() - 1), DESC), -4);
+        transfer(true);
+    }
+
+    private void function ( ) { // function's method
+        da = DefiniteAssignment.of(function);
+        ranges = RangeAnalysis.of(function);
+        for (int v = function.params.size(); v < n; v++) {
+            Type t = decpart.get(v).t;
+            if (t.isArray()) {
+                cb.iconst(t.size());
+                cb.op1(ClassBuilder.NEWARRAY, t.element() == Type.FLOAT
+                       ? ClassBuilder.T_FLOAT : t.element() == Type.CHAR
+                       ? ClassBuilder.T_CHAR : ClassBuilder.T_INT, 0);
+                cb.local(ClassBuilder.ASTORE, local(v), -1);
+                continue;
+            }
+            if (isFloat(v)) cb.fconst(0);
+            else cb.iconst(0);
+            cb.local(isFloat(v) ? ClassBuilder.FSTORE : ClassBuilder.ISTORE,
+                     local(v), -1);
+            cb.iconst(0);
+            cb.local(ClassBuilder.ISTORE, flag(v), -1);
+        }
+        statement(function.body);
+        if (function.t == Type.VOID)
+            cb.op(ClassBuilder.RETURN, 0);
+        else
+            fail("function " + function.id + " ended without a return");
+        end(method(function), descriptor(function), function.body);
+    }
+
+    private static String method (Function f) { return "f_" + f.id; }
+
+    private static String descriptor (Function f) {
+        StringBuilder d = new StringBuilder("(");
+        for (Declaration p : f.params)
+            d.append(p.t == Type.FLOAT ? "F" : "I");
+        d.append(")");
+        return d.append(f.t == Type.VOID ? "V" : f.t == Type.FLOAT ? "F" : "I")
+                .toString();
+    }
+
+    static MethodHandle load (byte[] classFile) {
+        // Defines the class as a hidden class of this package and
+        // returns its run method.
+        try {
+            MethodHandles.Lookup l = MethodHandles.lookup()
+                .defineHiddenClass(classFile, true);
+            return l.findStatic(l.lookupClass(), METHOD,
+                MethodType.methodType(void.class, int[].class, float[].class,
+                                      int[].class, Object[].class));
+        } catch (IllegalAccessException | NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private int local (int v) { // variable v
+        if (used != null) used.set(v);
+        return base + v;
+    }
+
+    private int flag (int v) { // v is defined
+        if (used != null) used.set(v);
+        return base + n + v;
+    }
+
+    private boolean isFloat (int v) { return decpart.get(v).t == Type.FLOAT; }
+
+    private int variable (Variable v) {
+        Integer k = number.get(v);
+        if (k == null)
+            throw new IllegalArgumentException("undeclared variable " + v.name());
+        return k;
+    }
+
+    private void transfer (boolean in) { // own's variables to locals, or back
+        for (int v = own.nextSetBit(0); v >= 0; v = own.nextSetBit(v + 1)) {
+            Type t = decpart.get(v).t;
+            if (t.isArray()) {     // the array itself, on entry only
+                if (!in) continue;
+                cb.local(ClassBuilder.ALOAD, 3, 1);
+                cb.iconst(v);
+                cb.op(ClassBuilder.AALOAD, -1);
+                cb.op2(ClassBuilder.CHECKCAST, cb.classRef(
+                    t.element() == Type.FLOAT ? "[F"
+                    : t.element() == Type.CHAR ? "[C" : "[I"), 0);
+                cb.local(ClassBuilder.ASTORE, local(v), -1);
+                continue;
+            }
+            boolean f = isFloat(v);
+            cb.local(ClassBuilder.ALOAD, f ? 1 : 0, 1);
+            cb.iconst(v);
+            if (in) {
+                cb.op(f ? ClassBuilder.FALOAD : ClassBuilder.IALOAD, -1);
+                cb.local(f ? ClassBuilder.FSTORE : ClassBuilder.ISTORE, local(v), -1);
+            } else {
+                cb.local(f ? ClassBuilder.FLOAD : ClassBuilder.ILOAD, local(v), 1);
+                cb.op(f ? ClassBuilder.FASTORE : ClassBuilder.IASTORE, -3);
+            }
+            cb.local(ClassBuilder.ALOAD, 2, 1);
+            cb.iconst(v);
+            if (in) {
+                cb.op(ClassBuilder.IALOAD, -1);
+                cb.local(ClassBuilder.ISTORE, flag(v), -1);
+            } else {
+                cb.local(ClassBuilder.ILOAD, flag(v), 1);
+                cb.op(ClassBuilder.IASTORE, -3);
+            }
+        }
+    }
+
+    private void statement (Statement s) {
+        safe = da.before(s);
+        if (s instanceof Assignment) {
+            Assignment a = (Assignment) s;
+            int v = variable(a.target);
+            expression(a.source);
+            cb.local(isFloat(v) ? ClassBuilder.FSTORE : ClassBuilder.ISTORE,
+                     local(v), -1);
+            if (!safe.get(v)) {
+                cb.iconst(1);
+                cb.local(ClassBuilder.ISTORE, flag(v), -1);
+            }
+        } else if (s instanceof ArrayAssignment) {
+            ArrayAssignment a = (ArrayAssignment) s;
+            Type t = element(a.target);
+            index(a.target);
+            expression(a.source);
+            cb.op(t == Type.FLOAT ? ClassBuilder.FASTORE
+                  : t == Type.CHAR ? ClassBuilder.CASTORE : ClassBuilder.IASTORE, -3);
+        } else if (s instanceof Block) {
+            for (Statement m : ((Block) s).members)
+                statement(m);
+        } else if (s instanceof Loop) {
+            Loop l = (Loop) s;
+            ClassBuilder.Label body = new ClassBuilder.Label();
+            ClassBuilder.Label test = new ClassBuilder.Label();
+            cb.jump(ClassBuilder.GOTO, test, 0);
+            place(body, 0);
+            statement(l.body);
+            place(test, 0);
+            safe = da.before(s);
+            branch(l.test, true, body);
+        } else if (s instanceof Conditional) {
+            Conditional c = (Conditional) s;
+            ClassBuilder.Label elsebranch = new ClassBuilder.Label();
+            branch(c.test, false, elsebranch);
+            statement(c.thenbranch);
+            if (c.elsebranch == null || c.elsebranch instanceof Skip)
+                place(elsebranch, 0);
+            else {
+                ClassBuilder.Label end = new ClassBuilder.Label();
+                cb.jump(ClassBuilder.GOTO, end, 0);
+                place(elsebranch, 0);
+                statement(c.elsebranch);
+                place(end, 0);
+            }
+        } else if (s instanceof CallStatement) {
+            Call c = ((CallStatement) s).call;
+            call(c);
+            if (functions.get(c.name).t != Type.VOID)
+                cb.op(ClassBuilder.POP, -1);
+        } else if (s instanceof Return) {
+            Expression result = ((Return) s).result;
+            if (result == null) {
+                cb.op(ClassBuilder.RETURN, 0);
+            } else {
+                expression(result);
+                cb.op(function.t == Type.FLOAT ? ClassBuilder.FRETURN
+                      : ClassBuilder.IRETURN, -1);
+            }
+        }
+        // Skip: no code
+    }
+
+    private void call (Call c) { // push its result, if any
+        Function f = functions.get(c.name);
+        for (Expression a : c.args)
+            expression(a);
+        cb.op2(ClassBuilder.INVOKESTATIC, cb.methodRef(CLASS, method(f), descriptor(f)),
+               (f.t == Type.VOID ? 0 : 1) - c.args.size());
+    }
+
+    private void place (ClassBuilder.Label l, int stack) {
+        if (l.stack < 0) l.stack = stack;   // not a branch target
+        cb.place(l);
+    }
+
+    private void expression (Expression e) { // push e's value
+        if (e instanceof Variable) {
+            int v = variable((Variable) e);
+            if (!safe.get(v)) check(v);
+            cb.local(isFloat(v) ? ClassBuilder.FLOAD : ClassBuilder.ILOAD,
+                     local(v), 1);
+        } else if (e instanceof Value) {
+            Value v = (Value) e;
+            if (v.isUndef())
+                throw new IllegalArgumentException("undefined constant");
+            if (v.type() == Type.FLOAT) cb.fconst(v.floatValue());
+            else if (v.type() == Type.CHAR) cb.iconst(v.charValue());
+            else cb.iconst(v.intValue());
+        } else if (e instanceof ArrayRef) {
+            Type t = element((ArrayRef) e);
+            index((ArrayRef) e);
+            cb.op(t == Type.FLOAT ? ClassBuilder.FALOAD
+                  : t == Type.CHAR ? ClassBuilder.CALOAD : ClassBuilder.IALOAD, -1);
+        } else if (e instanceof Call) {
+            call((Call) e);
+        } else if (e instanceof Binary) {
+            binary((Binary) e);
+        } else {
+            unary((Unary) e);
+        }
+    }
+
+    private Type element (ArrayRef r) {
+        return decpart.get(variable(r.array)).t.element();
+    }
+
+    private void index (ArrayRef r) { // push the array and the index, checked
+        int v = variable(r.array);
+        cb.local(ClassBuilder.ALOAD, local(v), 1);
+        expression(r.index);
+        if (ranges.inBounds(r)) return;
+        cb.iconst(decpart.get(v).t.size());
+        cb.op2(ClassBuilder.LDC_W, cb.string(r.array.name()), 1);
+        cb.op2(ClassBuilder.INVOKESTATIC, cb.methodRef(
+            "ArrayRef", "check", "(IILjava/lang/String;)I"), -2);
+    }
+
+    private void check (int v) { // throw unless v is defined
+        ClassBuilder.Label ok = new ClassBuilder.Label();
+        cb.local(ClassBuilder.ILOAD, flag(v), 1);
+        cb.jump(ClassBuilder.IFNE, ok, -1);
+        fail("reference to undefined variable " + decpart.get(v).v.name());
+        cb.place(ok);
+    }
+
+    private void fail (String message) { // throw an IllegalStateException
+        cb.op2(ClassBuilder.NEW, cb.classRef("java/lang/IllegalStateException"), 1);
+        cb.op(ClassBuilder.DUP, 1);
+        cb.op2(ClassBuilder.LDC_W, cb.string(message), 1);
+        cb.op2(ClassBuilder.INVOKESPECIAL, cb.methodRef(
+            "java/lang/IllegalStateException", "<init>", "(Ljava/lang/String;)V"), -2);
+        cb.op(ClassBuilder.ATHROW, -1);
+    }
+
+    private void binary (Binary b) {
+        int opcode;
+        switch (b.op.code) {
+          case INT_PLUS:  opcode = ClassBuilder.IADD; break;
+          case INT_MINUS: opcode = ClassBuilder.ISUB; break;
+          case INT_TIMES: opcode = ClassBuilder.IMUL; break;
+          case INT_DIV:   opcode = ClassBuilder.IDIV; break;
+          case FLOAT_PLUS:  opcode = ClassBuilder.FADD; break;
+          case FLOAT_MINUS: opcode = ClassBuilder.FSUB; break;
+          case FLOAT_TIMES: opcode = ClassBuilder.FMUL; break;
+          case FLOAT_DIV:   opcode = ClassBuilder.FDIV; break;
+          default:        // a test, as 0 or 1
+            int base = cb.stack();
+            ClassBuilder.Label no = new ClassBuilder.Label();
+            ClassBuilder.Label end = new ClassBuilder.Label();
+            branch(b, false, no);
+            cb.iconst(1);
+            cb.jump(ClassBuilder.GOTO, end, 0);
+            place(no, base);
+            cb.iconst(0);
+            place(end, base + 1);
+            return;
+        }
+        expression(b.term1);
+        expression(b.term2);
+        cb.op(opcode, -1);
+    }
+
+    private void unary (Unary u) {
+        int opcode;
+        switch (u.op.code) {
+          case INT_NEG:   opcode = ClassBuilder.INEG; break;
+          case FLOAT_NEG: opcode = ClassBuilder.FNEG; break;
+          case I2F:       opcode = ClassBuilder.I2F; break;
+          case F2I:       opcode = ClassBuilder.F2I; break;
+          case I2C:       opcode = ClassBuilder.I2C; break;
+          case C2I:       expression(u.term); return;   // same bits
+          case NOT:
+            expression(u.term);
+            cb.iconst(1);
+            cb.op(ClassBuilder.IXOR, -1);
+            return;
+          default:
+            throw new IllegalArgumentException("untyped operator " + u.op);
+        }
+        expression(u.term);
+        cb.op(opcode, 0);
+    }
+
+    private static int relation (Opcode op) { // LT..GE as 0..5, or -1
+        switch (op) {
+          case INT_LT: case CHAR_LT: case BOOL_LT: case FLOAT_LT: return 0;
+          case INT_LE: case CHAR_LE: case BOOL_LE: case FLOAT_LE: return 1;
+          case INT_EQ: case CHAR_EQ: case BOOL_EQ: case FLOAT_EQ: return 2;
+          case INT_NE: case CHAR_NE: case BOOL_NE: case FLOAT_NE: return 3;
+          case INT_GT: case CHAR_GT: case BOOL_GT: case FLOAT_GT: return 4;
+          case INT_GE: case CHAR_GE: case BOOL_GE: case FLOAT_GE: return 5;
+          default: return -1;
+        }
+    }
+
+    // if_icmp<rel> and if<rel> by relation, LT..GE
+    private static final int[] icmp = {
+        ClassBuilder.IF_ICMPLT, ClassBuilder.IF_ICMPLE, ClassBuilder.IF_ICMPEQ,
+        ClassBuilder.IF_ICMPNE, ClassBuilder.IF_ICMPGT, ClassBuilder.IF_ICMPGE };
+    private static final int[] ifz = {
+        ClassBuilder.IFLT, ClassBuilder.IFLE, ClassBuilder.IFEQ,
+        ClassBuilder.IFNE, ClassBuilder.IFGT, ClassBuilder.IFGE };
+
+    private void branch (Expression e, boolean sense, ClassBuilder.Label l) {
+        // Jump to l when e is sense; fall through otherwise.
+        int base = cb.stack();
+        if (e instanceof Binary) {
+            Binary b = (Binary) e;
+            Opcode op = b.op.code;
+            if (op == Opcode.AND || op == Opcode.OR) {
+                if (sense == (op == Opcode.OR)) {   // either operand decides
+                    branch(b.term1, sense, l);
+                    branch(b.term2, sense, l);
+                } else {                            // both must agree
+                    ClassBuilder.Label skip = new ClassBuilder.Label();
+                    branch(b.term1, !sense, skip);
+                    branch(b.term2, sense, l);
+                    place(skip, base);
+                }
+                return;
+            }
+            int rel = relation(op);
+            if (rel >= 0) {
+                expression(b.term1);
+                expression(b.term2);
+                int r = sense ? rel : 5 - rel;   // LT<->GE, LE<->GT, EQ<->NE
+                if (op.compareTo(Opcode.FLOAT_LT) >= 0
+                    && op.compareTo(Opcode.FLOAT_GE) <= 0) {
+                    // NaN must make the original relation false: fcmpg
+                    // gives 1 for < and <=, fcmpl gives -1 for > and >=
+                    cb.op(rel <= 1 ? ClassBuilder.FCMPG : ClassBuilder.FCMPL, -1);
+                    cb.jump(ifz[r], l, -1);
+                } else
+                    cb.jump(icmp[r], l, -2);
+                return;
+            }
+        } else if (e instanceof Unary && ((Unary) e).op.code == Opcode.NOT) {
+            branch(((Unary) e).term, !sense, l);
+            return;
+        } else if (e instanceof BoolValue) {
+            if (((BoolValue) e).boolValue() == sense)
+                cb.jump(ClassBuilder.GOTO, l, 0);
+            return;
+        }
+        expression(e);
+        cb.jump(sense ? ClassBuilder.IFNE : ClassBuilder.IFEQ, l, -1);
+    }
+
+    // Running a compiled program
+
+    private final static class State {
+        final int[] ints;
+        final float[] floats;
+        final int[] defined;
+        final Object[] arrays;
+
+        State (Declarations d) {
+            int n = d.size();
+            ints = new int[n]; floats = new float[n]; defined = new int[n];
+            arrays = new Object[n];
+            for (int v = 0; v < n; v++)
+                if (d.get(v).t.isArray())
+                    arrays[v] = ArrayValue.storage(d.get(v).t);
+        }
+
+        Value value (Type t, int v) {
+            if (t.isArray()) return new ArrayValue(t, arrays[v]);
+            if (defined[v] == 0) return Value.mkValue(t);
+            if (t == Type.INT) return new IntValue(ints[v]);
+            if (t == Type.FLOAT) return new FloatValue(floats[v]);
+            if (t == Type.CHAR) return new CharValue((char) ints[v]);
+            return new BoolValue(ints[v] != 0);
+        }
+    }
+
+    public static void main (String args[]) throws Throwable {
+        // java JvmCompiler [-O] [-s] [-o file.class] file
+        //   -O: optimise first (see ConstantFolder, LoopOptimizer)
+        //   -o: write the generated class file instead of running it
+        //   -s: stack-safe parsing (see Parser.stackSafe)
+        Frontend fe = new Frontend();
+        fe.setTyped(true);
+        String out = null;
+        int a = 0;
+        for (; args[a].startsWith("-"); a++)
+            if (args[a].equals("-s")) fe.setStackSafe(true);
+            else if (args[a].equals("-o")) out = args[++a];
+            else if (args[a].equals("-O")) fe.setOptimize(true);
+        Compilation c = fe.compile(Paths.get(args[a]));
+        if (!c.succeeded()) {
+            System.err.println(c.diagnostics().get(0));
+            System.exit(1);
+        }
+        Program p = c.program();
+        byte[] classFile = null;
+        try {
+            classFile = compile(p);
+        } catch (CompileError e) {
+            System.err.println(e.diagnostic());
+            System.exit(1);
+        }
+        if (out != null) {
+            try {
+                Files.write(Paths.get(out), classFile);
+            } catch (IOException e) {
+                System.err.println("Cannot write " + out + ": " + e);
+                System.exit(1);
+            }
+            return;
+        }
+        State s = new State(p.decpart);
+        MethodHandle run = load(classFile);
+        try {
+            Interpreter.onDeepStack(() -> {
+                try {
+                    run.invokeExact(s.ints, s.floats, s.defined, s.arrays);
+                } catch (RuntimeException | Error e) {
+                    throw e;
+                } catch (Throwable e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        } catch (IllegalStateException | ArithmeticException e) {
+            System.err.println("Runtime error: " + e.getMessage());
+            System.exit(1);
+        }
+        for (int v = 0; v < p.decpart.size(); v++) {
+            Declaration d = p.decpart.get(v);
+            if (!d.temporary)
+                System.out.println(d.v.name() + " = " + s.value(d.t, v));
+        }
+    } // main
+
+} // JvmCompiler
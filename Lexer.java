@@ -1,18 +1,110 @@
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.nio.channels.FileChannel;
 
 public class Lexer {
 
     private boolean isEof = false;
     private char ch = ' '; 
     private BufferedReader input;
+    private ByteBuffer source;   // byte mode: whole file, scanned in place
+    private int pos = 0;         // byte mode: offset of the next byte
+    private int lineStart = 0;   // byte mode: offset of the current line
+    private boolean atEoln = true;
     private String line = "";
     private int lineno = 0;
     private int col = 1;
-    private final String letters = "abcdefghijklmnopqrstuvwxyz"
-        + "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
-    private final String digits = "0123456789";
-    private final char eolnCh = '\n';
-    private final char eofCh = '\004';
+    private int tokStart, tokLine, tokCol; // extent of the last token
+    private char charLit;                   // value of the last CharLiteral
+    private Symbols symbols = new Symbols(); // identifiers seen so far
+    private int count = 0;                  // tokens scanned so far
+    private static final char eolnCh = '\n';
+    private static final char eofCh = '\004';
+
+    // Scanner tables.  charClass maps each ASCII char to one of the
+    // classes below (0 = anything else); delta[state * CLASSES + class]
+    // is the next state of the DFA, or -1 when the token ends.  A token
+    // ends in a state whose accept entry is its type; a null entry is
+    // an error (expect holds the char that was needed).  Char literals
+    // and end of file are handled before the DFA runs.
+    private static final String[] classes = {
+        "", " \t\r", "\n", "abcdefghijklmnopqrstuvwxyz"
+        + "ABCDEFGHIJKLMNOPQRSTUVWXYZ", "0123456789", ".", "/",
+        "=", "<", ">", "!", "&", "|", "*", "+", "-", ";", ",",
+        "(", ")", "{", "}", "[", "]", "'", "\004"
+    };
+    private static final int CLASSES = classes.length;
+    private static final byte[] charClass = new byte[128];
+    private static final int START = 0;
+    private static int[] delta = new int[0];
+    private static TokenType[] accept = new TokenType[0];
+    private static char[] expect = new char[0];
+
+    private static int state (TokenType t) { // add a DFA state
+        int n = accept.length;
+        accept = Arrays.copyOf(accept, n + 1);
+        expect = Arrays.copyOf(expect, n + 1);
+        delta = Arrays.copyOf(delta, (n + 1) * CLASSES);
+        Arrays.fill(delta, n * CLASSES, (n + 1) * CLASSES, -1);
+        accept[n] = t;
+        return n;
+    }
+
+    private static void edge (int from, char c, int to) {
+        delta[from * CLASSES + charClass[c]] = to;
+    }
+
+    private static int single (char c, TokenType t) { // one char token
+        int s = state(t);
+        edge(START, c, s);
+        return s;
+    }
+
+    private static void pair (char c, TokenType one, char c2, TokenType two) {
+        edge(single(c, one), c2, state(two));  // c, or c c2
+    }
+
+    static {
+        for (int k = 1; k < CLASSES; k++)
+            for (char c : classes[k].toCharArray())
+                charClass[c] = (byte) k;
+        state(null);                           // START
+        edge(START, ' ', START);               // layout
+        edge(START, eolnCh, START);
+        int ident = single('a', TokenType.Identifier);
+        edge(ident, 'a', ident);
+        edge(ident, '0', ident);
+        int number = single('0', TokenType.IntLiteral);
+        edge(number, '0', number);
+        int fraction = state(TokenType.FloatLiteral);
+        edge(number, '.', fraction);
+        edge(fraction, '0', fraction);
+        int slash = single('/', TokenType.Divide); // divide or comment
+        int comment = state(null);
+        edge(slash, '/', comment);
+        Arrays.fill(delta, comment * CLASSES, (comment + 1) * CLASSES, comment);
+        edge(comment, eolnCh, START);
+        single('*', TokenType.Multiply);
+        single('+', TokenType.Plus);
+        single('-', TokenType.Minus);
+        single(';', TokenType.Semicolon);
+        single(',', TokenType.Comma);
+        single('(', TokenType.LeftParen);
+        single(')', TokenType.RightParen);
+        single('{', TokenType.LeftBrace);
+        single('}', TokenType.RightBrace);
+        single('[', TokenType.LeftBracket);
+        single(']', TokenType.RightBracket);
+        pair('=', TokenType.Assign, '=', TokenType.Equals);
+        pair('<', TokenType.Less, '=', TokenType.LessEqual);
+        pair('>', TokenType.Greater, '=', TokenType.GreaterEqual);
+        pair('!', TokenType.Not, '=', TokenType.NotEqual);
+        pair('&', null, '&', TokenType.And);
+        pair('|', null, '|', TokenType.Or);
+        expect[delta[START * CLASSES + charClass['&']]] = '&';
+        expect[delta[START * CLASSES + charClass['|']]] = '|';
+    }
     
 
     public Lexer (String fileName) { // source filename
@@ -20,12 +112,40 @@ public class Lexer {
             input = new BufferedReader (new FileReader(fileName));
         }
         catch (FileNotFoundException e) {
-            System.out.println("File not found: " + fileName);
-            System.exit(1);
+            throw new CompileError(new Diagnostic(0, 0,
+                "File not found: " + fileName));
+        }
+    }
+
+    public Lexer (ByteBuffer src) { // source bytes, e.g. from map()
+        reset(src);
+    }
+
+    public void reset (ByteBuffer src) { // start over on a new source
+        source = src;
+        input = null;
+        pos = src.position();
+        lineStart = pos;
+        atEoln = true;
+        ch = ' ';
+        line = "";
+        lineno = 0;
+        col = 1;
+        count = 0;
+        symbols = new Symbols();
+    }
+
+    public static ByteBuffer map (String fileName) throws IOException {
+        // Map the whole file read-only; the mapping outlives the channel.
+        try (RandomAccessFile f = new RandomAccessFile(fileName, "r");
+             FileChannel fc = f.getChannel()) {
+            return fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
         }
     }
 
     private char nextChar() { // Return next char
+        if (source != null)
+            return nextByte();
         if (ch == eofCh)
             error("Attempt to read past end of file");
         col++;
@@ -33,8 +153,8 @@ public class Lexer {
             try {
                 line = input.readLine( );
             } catch (IOException e) {
-                System.err.println(e);
-                System.exit(1);
+                throw new CompileError(new Diagnostic(lineno, col,
+                                                      e.toString()));
             } // try
             if (line == null) // at end of file
                 line = "" + eofCh;
@@ -47,146 +167,175 @@ public class Lexer {
         } // if col
         return line.charAt(col);
     }
+
+    private char nextByte() { // Return next char, byte mode
+        // Mirrors nextChar(): "\r\n" and "\r" end a line like "\n",
+        // and an unterminated last line still gets its eolnCh.
+        if (ch == eofCh)
+            error("Attempt to read past end of file");
+        int limit = source.limit();
+        if (atEoln) {
+            if (pos >= limit) {
+                lineStart = pos;
+                col = 0;
+                return eofCh;
+            }
+            atEoln = false;
+            lineStart = pos;
+            lineno++;
+            col = 0;
+        } else col++;
+        if (pos >= limit) {
+            atEoln = true;
+            return eolnCh;
+        }
+        char c = (char) (source.get(pos++) & 0xff);
+        if (c == '\r') {
+            if (pos < limit && source.get(pos) == '\n')
+                pos++;
+            c = eolnCh;
+        }
+        if (c == eolnCh)
+            atEoln = true;
+        return c;
+    }
+
+    private String currentLine( ) { // for error messages
+        if (source == null)
+            return line;
+        StringBuilder r = new StringBuilder();
+        for (int i = lineStart; i < source.limit(); i++) {
+            char c = (char) (source.get(i) & 0xff);
+            if (c == '\n' || c == '\r') break;
+            r.append(c);
+        }
+        return r.append(atEoln && lineStart == pos ? eofCh : eolnCh).toString();
+    }
             
 
     public Token next( ) { // Return next token
-        do {
-            if (isLetter(ch)) { // ident or keyword
-                String spelling = concat(letters + digits);
-                return Token.keyword(spelling);
-            } else if (isDigit(ch)) { // int or float literal
-                String number = concat(digits);
-                if (ch != '.')  // int Literal
-                    return Token.mkIntLiteral(number);
-                number += concat(digits);
-                return Token.mkFloatLiteral(number);
-            } else switch (ch) {
-            case ' ': case '\t': case '\r': case eolnCh:
-                ch = nextChar();
-                break;
-                
-            case '*':
-                ch = nextChar();
-                return Token.multiplyTok;
-            
-            case '/':  // divide or comment
-                ch = nextChar();
-                if (ch != '/')  return Token.divideTok;
-                // comment
-                do {
-                    ch = nextChar();
-                } while (ch != eolnCh);
-                ch = nextChar();
-                break;
-            
-            case '\'':  // char literal
-                char ch1 = nextChar();
-                nextChar(); // get '
-                ch = nextChar();
-                return Token.mkCharLiteral("" + ch1);
-                
-            case eofCh: return Token.eofTok;
-            
-            case '+': ch = nextChar();
-                return Token.plusTok;
-                
-            case '-': ch = nextChar();
-                return Token.minusTok;
-                
-            case ';': ch = nextChar();
-                return Token.semicolonTok;
-                
-            case ',': ch = nextChar();
-                return Token.commaTok;
-
-            case '(': ch = nextChar();
-		return Token.leftParenTok;
-		
-	    case ')': ch = nextChar();
-		return Token.rightParenTok;
-		
-	    case '{': ch = nextChar();
-		return Token.leftBraceTok;
-	
-	    case '}': ch = nextChar();
-	        return Token.rightBraceTok;
-	        
-	    case '[': ch = nextChar();
-	        return Token.leftBracketTok;	
-	    
-	    case ']': ch = nextChar();
-	        return Token.rightBracketTok;
-                
-            case '&': check('&'); return Token.andTok;
-            case '|': check('|'); return Token.orTok;
-
-            case '=':
-                return chkOpt('=', Token.eqeqTok,
-                                   Token.assignTok);
-                                   
-            case '<':
-                return chkOpt('=', Token.lteqTok,
-                                   Token.ltTok);
-                                   
-            case '>':
-                return chkOpt('=', Token.gteqTok,
-                                   Token.gtTok);
-                                   
-            case '!':
-                return chkOpt('=', Token.noteqTok,
-                                   Token.notTok);
-
-            default:  error("Illegal character " + ch); 
-            } // switch
-        } while (true);
+        TokenType t = scan();
+        switch (t) {
+        case Identifier:   return Token.mkIdentTok(identifier());
+        case IntLiteral:   return Token.mkIntLiteral(spelling());
+        case FloatLiteral: return Token.mkFloatLiteral(spelling());
+        case CharLiteral:  return Token.mkCharLiteral("" + charLit);
+        default:           return Token.of(t);
+        }
     } // next
 
+    public TokenBuffer tokenize( ) { // Lex the rest of the input, packed
+        if (source == null)
+            throw new IllegalStateException("tokenize needs a byte source");
+        TokenBuffer b = new TokenBuffer(source);
+        TokenType t;
+        do {
+            t = scan();
+            int len = (t == TokenType.CharLiteral) ? 1 : col - tokCol;
+            b.add(t, tokStart, len, tokLine, tokCol);
+        } while (t != TokenType.Eof);
+        b.setSize(b.size(), lineno);
+        return b;
+    } // tokenize
 
-    private boolean isLetter(char c) {
-        return (c>='a' && c<='z' || c>='A' && c<='Z');
-    }
-  
-    private boolean isDigit(char c) {
-        return (c >= '0' && c <= '9');
-    }
+    private TokenType scan( ) { // Scan next token; its extent is left
+                                // in tokStart, tokLine and tokCol
+        count++;
+        int state = START;
+        while (true) {
+            if (state == START) { // only layout consumed so far
+                tokStart = pos - 1;
+                tokLine = lineno;
+                tokCol = col;
+                if (ch == '\'') return charLiteral();
+                if (ch == eofCh) return TokenType.Eof;
+            }
+            int next = delta[state * CLASSES + (ch < 128 ? charClass[ch] : 0)];
+            if (next < 0) break;
+            ch = nextChar();
+            state = next;
+        }
+        TokenType t = accept[state];
+        if (t == null) {
+            if (state == START)
+                error("Illegal character " + ch);
+            error("Illegal character, expecting " + expect[state]);
+        }
+        if (t == TokenType.Identifier) { // ident or keyword
+            if (source == null)
+                return Token.keywordType(line, tokCol, col - tokCol);
+            return Token.keywordType(source, tokStart, col - tokCol);
+        }
+        return t;
+    } // scan
 
-    private void check(char c) {
-        ch = nextChar();
-        if (ch != c) 
-            error("Illegal character, expecting " + c);
+    private TokenType charLiteral( ) { // ' char '
+        charLit = nextChar();
+        if (charLit == eolnCh)   // no token crosses a line end
+            error("Illegal character literal: line end");
+        tokStart = pos - 1;
+        tokCol = col;
+        nextChar(); // get '
         ch = nextChar();
+        return TokenType.CharLiteral;
     }
 
-    private Token chkOpt(char c, Token one, Token two) {
-        ch = nextChar();
-        if (ch == c){
-          ch = nextChar();
-          return one;
-        }
-        return two;
+    private String identifier( ) { // interned name of the word just scanned
+        if (source == null)
+            return symbols.intern(line, tokCol, col - tokCol).name();
+        return symbols.intern(source, tokStart, col - tokCol).name();
     }
 
-    private String concat(String set) {
-        String r = "";
-        do {
-            r += ch;
-            ch = nextChar();
-        } while (set.indexOf(ch) >= 0);
-        return r;
+    public Symbols symbols( ) { return symbols; }
+
+    public int tokenCount( ) { return count; }
+
+    private String spelling( ) { // text of the word or number just scanned
+        if (source == null)
+            return line.substring(tokCol, col);
+        char[] r = new char[col - tokCol];
+        for (int i = 0; i < r.length; i++)
+            r[i] = (char) (source.get(tokStart + i) & 0xff);
+        return new String(r);
     }
 
+    public int line( ) { return tokLine; }    // where the last token
+
+    public int column( ) { return tokCol; }   // scanned starts
+
     public void error (String msg) {
-        System.err.print(line);
-        System.err.println("Error: column " + col + " " + msg);
-        System.exit(1);
+        throw new CompileError(new Diagnostic(lineno, col, msg,
+                                              null, null, currentLine()));
     }
 
-    static public void main ( String[] argv ) {
-        Lexer lexer = new Lexer(argv[0]);
+    static public void main ( String[] argv ) throws IOException {
+        try {
+            list(argv);
+        } catch (CompileError e) {
+            System.out.flush();
+            System.err.println(e.diagnostic());
+            System.exit(1);
+        }
+    } // main
+
+    static private void list ( String[] argv ) throws IOException {
+        // java Lexer [-m|-p] file   (-m: memory-mapped byte mode,
+        //                           -p: mapped and lexed in parallel)
+        Lexer lexer;
+        if (argv[0].equals("-p")) {
+            TokenBuffer tb = ParallelLexer.tokenize(map(argv[1]));
+            for (int i = 0; tb.type(i) != TokenType.Eof; i++)
+                System.out.println(tb.token(i).toString());
+            return;
+        }
+        if (argv[0].equals("-m"))
+            lexer = new Lexer(map(argv[1]));
+        else
+            lexer = new Lexer(argv[0]);
         Token tok = lexer.next( );
         while (tok != Token.eofTok) {
             System.out.println(tok.toString());
             tok = lexer.next( );
         } 
-    } // main
+    } // list
 }
@@ -0,0 +1,475 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Loop optimisation for typed C++Lite: loop-invariant code motion and
+// strength reduction of multiplications by induction variables.
+
+public class LoopOptimizer {
+    // L expects a Program that has been through TypeTransformer, and
+    // rewrites each Loop into a block of assignments to new temporary
+    // variables followed by the Loop, which uses them.
+    //
+    // An expression is invariant in a Loop if no variable it reads is
+    // assigned anywhere in the Loop.  The largest invariant Binary and
+    // Unary subexpressions of the test and body are computed once,
+    // before the Loop; equal ones share a temporary.  Hoisting runs
+    // them even when the Loop does not, and in a different order, so
+    // only expressions that cannot fail are hoisted: every variable
+    // they read is assigned on every path to the Loop, and they
+    // divide only by non-zero int literals.  An array element read
+    // may be out of bounds, so it is never hoisted, though its index
+    // may be.
+    //
+    // An induction variable is an int variable whose only assignment
+    // in the Loop is i = i + c or i = i - c, with c an int literal or
+    // invariant variable, as a statement of the body itself (not
+    // nested).  Each i * k, for k such a literal or variable, becomes a
+    // temporary s set to i * k before the Loop and stepped by c * k
+    // right after i is, in array indexes as anywhere else.  int
+    // arithmetic wraps, so s stays equal to i * k even through
+    // overflow; float multiplication is not reduced, since float
+    // addition rounds differently.
+    //
+    // A Loop that calls a function is left as it is, though the Loops
+    // inside it are not.  Only main is optimised.
+    //
+    // Temporaries are declared with Declaration.temporary set, after
+    // the program's own variables, and are not part of its output.
+
+    private final Declarations decpart;
+    private final TypeMap tm;
+    private int slot;           // next free Variable index
+    private int temps;          // temporaries made so far
+    int hoisted, reduced;       // counts, for main
+
+    private LoopOptimizer (Declarations d) {
+        decpart = new Declarations();
+        decpart.addAll(d);
+        tm = StaticTypeCheck.typing(d);
+        slot = 0;
+        for (Declaration x : d)
+            slot = Math.max(slot, x.v.index() + 1);
+    }
+
+    public static Program L (Program p) {
+        return new LoopOptimizer(p.decpart).optimize(p);
+    }
+
+    private Program optimize (Program p) {
+        Block body = (Block) statement(p.body, new HashSet<Variable>());
+        return new Program(decpart, body, p.functions);
+    }
+
+    private Variable temporary (Type t) {
+        Variable v = new Variable("$t" + temps++, null, slot++);
+        Declaration d = new Declaration(v, t);
+        d.temporary = true;
+        decpart.add(d);
+        tm.put(v, t);
+        return v;
+    }
+
+    // Statements.  defined holds the variables assigned on every path
+    // to s, and is updated to those assigned on every path through it.
+
+    private Statement statement (Statement s, Set<Variable> defined) {
+        if (s instanceof Assignment) {
+            defined.add(((Assignment) s).target);
+            return s;
+        }
+        if (s instanceof ArrayAssignment)
+            return s;
+        if (s instanceof Block) {
+            Block b = new Block();
+            for (Statement m : ((Block) s).members)
+                b.members.add(statement(m, defined));
+            return b;
+        }
+        if (s instanceof Conditional) {
+            Conditional c = (Conditional) s;
+            Set<Variable> other = new HashSet<Variable>(defined);
+            Statement thenbranch = statement(c.thenbranch, defined);
+            Statement elsebranch = c.elsebranch == null ? null
+                                 : statement(c.elsebranch, other);
+            defined.retainAll(other);
+            if (elsebranch == null)
+                return new Conditional(c.test, thenbranch);
+            return new Conditional(c.test, thenbranch, elsebranch);
+        }
+        if (s instanceof Loop)
+            return loop((Loop) s, defined);
+        return s;   // Skip
+    }
+
+    private Statement loop (Loop l, Set<Variable> defined) {
+        if (Call.find(l) != null)
+            return new Loop(l.test, statement(l.body, new HashSet<Variable>(defined)));
+        Set<Variable> assigned = new HashSet<Variable>();
+        assigned(l.body, assigned);
+        Hoist h = new Hoist(assigned, defined);
+        Loop result = new Loop(h.expression(l.test), h.statement(l.body));
+        for (Assignment a : h.preheader)
+            defined.add(a.target);
+        result = reduce(result, assigned, defined, h);
+        // inner loops see what the body assigns before them; the
+        // body may not run, so that is dropped again afterwards
+        Set<Variable> inner = new HashSet<Variable>(defined);
+        result = new Loop(result.test, statement(result.body, inner));
+        if (h.preheader.isEmpty()) return result;
+        Block b = new Block();
+        b.members.addAll(h.preheader);
+        b.members.add(result);
+        return b;
+    }
+
+    private static void assigned (Statement s, Set<Variable> out) {
+        if (s instanceof Assignment)
+            out.add(((Assignment) s).target);
+        else if (s instanceof ArrayAssignment)
+            out.add(((ArrayAssignment) s).target.array);
+        else if (s instanceof Block)
+            for (Statement m : ((Block) s).members)
+                assigned(m, out);
+        else if (s instanceof Conditional) {
+            assigned(((Conditional) s).thenbranch, out);
+            if (((Conditional) s).elsebranch != null)
+                assigned(((Conditional) s).elsebranch, out);
+        } else if (s instanceof Loop)
+            assigned(((Loop) s).body, out);
+    }
+
+    // Invariant code motion, for one Loop
+
+    private final class Hoist {
+        final Set<Variable> assigned, defined;
+        final List<Assignment> preheader = new ArrayList<Assignment>();
+
+        Hoist (Set<Variable> a, Set<Variable> d) { assigned = a; defined = d; }
+
+        Statement statement (Statement s) {
+            if (s instanceof Assignment) {
+                Assignment a = (Assignment) s;
+                return new Assignment(a.target, expression(a.source));
+            }
+            if (s instanceof ArrayAssignment) {
+                ArrayAssignment a = (ArrayAssignment) s;
+                return new ArrayAssignment((ArrayRef) expression(a.target),
+                                           expression(a.source));
+            }
+            if (s instanceof Block) {
+                Block b = new Block();
+                for (Statement m : ((Block) s).members)
+                    b.members.add(statement(m));
+                return b;
+            }
+            if (s instanceof Conditional) {
+                Conditional c = (Conditional) s;
+                Expression test = expression(c.test);
+                Statement thenbranch = statement(c.thenbranch);
+                if (c.elsebranch == null)
+                    return new Conditional(test, thenbranch);
+                return new Conditional(test, thenbranch, statement(c.elsebranch));
+            }
+            if (s instanceof Loop) {
+                Loop l = (Loop) s;
+                return new Loop(expression(l.test), statement(l.body));
+            }
+            return s;
+        }
+
+        Expression expression (Expression e) {
+            if (e instanceof Variable || e instanceof Value)
+                return e;
+            if (e instanceof ArrayRef) {
+                ArrayRef r = (ArrayRef) e;
+                return new ArrayRef(r.array, expression(r.index));
+            }
+            if (invariant(e) && safe(e, defined))
+                return hoist(e);
+            if (e instanceof Binary) {
+                Binary b = (Binary) e;
+                return new Binary(b.op, expression(b.term1), expression(b.term2));
+            }
+            Unary u = (Unary) e;
+            return new Unary(u.op, expression(u.term));
+        }
+
+        boolean invariant (Expression e) {
+            if (e instanceof Variable) return !assigned.contains(e);
+            if (e instanceof Binary)
+                return invariant(((Binary) e).term1) && invariant(((Binary) e).term2);
+            if (e instanceof Unary) return invariant(((Unary) e).term);
+            if (e instanceof ArrayRef)
+                return !assigned.contains(((ArrayRef) e).array)
+                    && invariant(((ArrayRef) e).index);
+            return true;
+        }
+
+        Variable hoist (Expression e) { // one temporary per distinct e
+            for (Assignment a : preheader)
+                if (same(a.source, e)) return a.target;
+            Variable t = temporary(type(e));
+            preheader.add(new Assignment(t, e));
+            hoisted++;
+            return t;
+        }
+    }
+
+    private static boolean safe (Expression e, Set<Variable> defined) {
+        // cannot fail, wherever it is evaluated
+        if (e instanceof Variable) return defined.contains(e);
+        if (e instanceof Value) return !((Value) e).isUndef();
+        if (e instanceof Unary) return safe(((Unary) e).term, defined);
+        if (e instanceof ArrayRef) return false;   // may be out of bounds
+        Binary b = (Binary) e;
+        if (b.op.code == Opcode.INT_DIV
+            && !(b.term2 instanceof IntValue && ((IntValue) b.term2).intValue() != 0))
+            return false;
+        return safe(b.term1, defined) && safe(b.term2, defined);
+    }
+
+    static boolean same (Expression a, Expression b) {
+        if (a instanceof Variable || b instanceof Variable)
+            return a instanceof Variable && b instanceof Variable && a.equals(b);
+        if (a instanceof Value || b instanceof Value)
+            return a instanceof Value && b instanceof Value
+                && ((Value) a).type() == ((Value) b).type()
+                && a.toString().equals(b.toString());
+        if (a instanceof Binary && b instanceof Binary) {
+            Binary x = (Binary) a, y = (Binary) b;
+            return x.op == y.op && same(x.term1, y.term1) && same(x.term2, y.term2);
+        }
+        if (a instanceof Unary && b instanceof Unary) {
+            Unary x = (Unary) a, y = (Unary) b;
+            return x.op == y.op && same(x.term, y.term);
+        }
+        return false;
+    }
+
+    private Type type (Expression e) { // of a typed expression
+        if (e instanceof Variable) return tm.get(e);
+        if (e instanceof Value) return ((Value) e).type();
+        if (e instanceof ArrayRef) return tm.get(((ArrayRef) e).array).element();
+        Opcode op = e instanceof Binary ? ((Binary) e).op.code
+                                        : ((Unary) e).op.code;
+        switch (op) {
+          case INT_PLUS: case INT_MINUS: case INT_TIMES: case INT_DIV:
+          case INT_NEG: case F2I: case C2I:
+            return Type.INT;
+          case FLOAT_PLUS: case FLOAT_MINUS: case FLOAT_TIMES: case FLOAT_DIV:
+          case FLOAT_NEG: case I2F:
+            return Type.FLOAT;
+          case I2C:
+            return Type.CHAR;
+          default:
+            return Type.BOOL;
+        }
+    }
+
+    // Strength reduction, for one Loop after hoisting
+
+    private Loop reduce (Loop l, Set<Variable> assigned,
+                         Set<Variable> defined, Hoist h) {
+        if (!(l.body instanceof Block)) return l;
+        Expression test = l.test;
+        Statement body = l.body;
+        List<Statement> members = ((Block) body).members;
+        for (int k = 0; k < members.size(); k++) {
+            Assignment step = induction(members.get(k), assigned, defined);
+            if (step == null || count(body, step.target) != 1) continue;
+            Variable i = step.target;
+            Binary inc = (Binary) step.source;
+            Expression c = inc.term1 instanceof Variable && inc.term1.equals(i)
+                ? inc.term2 : inc.term1;
+            List<Expression> factors = new ArrayList<Expression>();
+            factors(test, i, assigned, defined, factors);
+            factors(body, i, assigned, defined, factors);
+            if (factors.isEmpty()) continue;
+            List<Statement> steps = new ArrayList<Statement>();
+            for (Expression f : factors) {
+                Variable s = temporary(Type.INT);
+                h.preheader.add(new Assignment(s, times(i, f)));
+                Expression d = c instanceof IntValue && f instanceof IntValue
+                    ? new IntValue(((IntValue) c).intValue() * ((IntValue) f).intValue())
+                    : h.hoist(times(c, f));
+                steps.add(new Assignment(s, new Binary(inc.op, s, d)));
+                test = replace(test, i, f, s);
+                body = replace(body, i, f, s);
+                reduced++;
+            }
+            members = ((Block) body).members;
+            members.addAll(k + 1, steps);
+            k += steps.size();
+        }
+        return new Loop(test, body);
+    }
+
+    private static Binary times (Expression a, Expression b) {
+        return new Binary(Operator.of(Opcode.INT_TIMES), a, b);
+    }
+
+    private Assignment induction (Statement s, Set<Variable> assigned,
+                                  Set<Variable> defined) {
+        // i = i + c, c + i or i - c, for an int i defined before the Loop
+        if (!(s instanceof Assignment)) return null;
+        Assignment a = (Assignment) s;
+        if (tm.get(a.target) != Type.INT || !defined.contains(a.target)
+            || !(a.source instanceof Binary))
+            return null;
+        Binary b = (Binary) a.source;
+        Expression c;
+        if (b.term1.equals(a.target) && b.term1 instanceof Variable) c = b.term2;
+        else if (b.op.code == Opcode.INT_PLUS && b.term2 instanceof Variable
+                 && b.term2.equals(a.target)) c = b.term1;
+        else return null;
+        if (b.op.code != Opcode.INT_PLUS && b.op.code != Opcode.INT_MINUS)
+            return null;
+        return loopConstant(c, assigned, defined) ? a : null;
+    }
+
+    private static boolean loopConstant (Expression e, Set<Variable> assigned,
+                                         Set<Variable> defined) {
+        if (e instanceof IntValue) return !((IntValue) e).isUndef();
+        return e instanceof Variable && !assigned.contains(e) && defined.contains(e);
+    }
+
+    private static int count (Statement s, Variable v) { // assignments to v
+        if (s instanceof Assignment)
+            return ((Assignment) s).target.equals(v) ? 1 : 0;
+        if (s instanceof Block) {
+            int n = 0;
+            for (Statement m : ((Block) s).members)
+                n += count(m, v);
+            return n;
+        }
+        if (s instanceof Conditional) {
+            Conditional c = (Conditional) s;
+            return count(c.thenbranch, v)
+                + (c.elsebranch == null ? 0 : count(c.elsebranch, v));
+        }
+        if (s instanceof Loop) return count(((Loop) s).body, v);
+        return 0;
+    }
+
+    // the distinct k in i * k or k * i, k a loop constant
+
+    private void factors (Statement s, Variable i, Set<Variable> assigned,
+                          Set<Variable> defined, List<Expression> out) {
+        if (s instanceof Assignment)
+            factors(((Assignment) s).source, i, assigned, defined, out);
+        else if (s instanceof ArrayAssignment) {
+            factors(((ArrayAssignment) s).target, i, assigned, defined, out);
+            factors(((ArrayAssignment) s).source, i, assigned, defined, out);
+        } else if (s instanceof Block)
+            for (Statement m : ((Block) s).members)
+                factors(m, i, assigned, defined, out);
+        else if (s instanceof Conditional) {
+            Conditional c = (Conditional) s;
+            factors(c.test, i, assigned, defined, out);
+            factors(c.thenbranch, i, assigned, defined, out);
+            if (c.elsebranch != null) factors(c.elsebranch, i, assigned, defined, out);
+        } else if (s instanceof Loop) {
+            factors(((Loop) s).test, i, assigned, defined, out);
+            factors(((Loop) s).body, i, assigned, defined, out);
+        }
+    }
+
+    private void factors (Expression e, Variable i, Set<Variable> assigned,
+                          Set<Variable> defined, List<Expression> out) {
+        if (e instanceof Unary)
+            factors(((Unary) e).term, i, assigned, defined, out);
+        if (e instanceof ArrayRef)
+            factors(((ArrayRef) e).index, i, assigned, defined, out);
+        if (!(e instanceof Binary)) return;
+        Binary b = (Binary) e;
+        Expression k = factor(b, i);
+        if (k != null && loopConstant(k, assigned, defined)) {
+            for (Expression f : out)
+                if (same(f, k)) return;
+            out.add(k);
+            return;
+        }
+        factors(b.term1, i, assigned, defined, out);
+        factors(b.term2, i, assigned, defined, out);
+    }
+
+    private static Expression factor (Binary b, Variable i) { // k in i * k
+        if (b.op.code != Opcode.INT_TIMES) return null;
+        if (b.term1 instanceof Variable && b.term1.equals(i)) return b.term2;
+        if (b.term2 instanceof Variable && b.term2.equals(i)) return b.term1;
+        return null;
+    }
+
+    // i * k and k * i replaced by s
+
+    private static Statement replace (Statement s, Variable i, Expression k, Variable r) {
+        if (s instanceof Assignment) {
+            Assignment a = (Assignment) s;
+            return new Assignment(a.target, replace(a.source, i, k, r));
+        }
+        if (s instanceof ArrayAssignment) {
+            ArrayAssignment a = (ArrayAssignment) s;
+            return new ArrayAssignment((ArrayRef) replace(a.target, i, k, r),
+                                       replace(a.source, i, k, r));
+        }
+        if (s instanceof Block) {
+            Block b = new Block();
+            for (Statement m : ((Block) s).members)
+                b.members.add(replace(m, i, k, r));
+            return b;
+        }
+        if (s instanceof Conditional) {
+            Conditional c = (Conditional) s;
+            Expression test = replace(c.test, i, k, r);
+            Statement thenbranch = replace(c.thenbranch, i, k, r);
+            if (c.elsebranch == null)
+                return new Conditional(test, thenbranch);
+            return new Conditional(test, thenbranch, replace(c.elsebranch, i, k, r));
+        }
+        if (s instanceof Loop) {
+            Loop l = (Loop) s;
+            return new Loop(replace(l.test, i, k, r), replace(l.body, i, k, r));
+        }
+        return s;
+    }
+
+    private static Expression replace (Expression e, Variable i, Expression k, Variable r) {
+        if (e instanceof Unary) {
+            Unary u = (Unary) e;
+            return new Unary(u.op, replace(u.term, i, k, r));
+        }
+        if (e instanceof ArrayRef) {
+            ArrayRef a = (ArrayRef) e;
+            return new ArrayRef(a.array, replace(a.index, i, k, r));
+        }
+        if (!(e instanceof Binary)) return e;
+        Binary b = (Binary) e;
+        Expression f = factor(b, i);
+        if (f != null && same(f, k)) return r;
+        return new Binary(b.op, replace(b.term1, i, k, r), replace(b.term2, i, k, r));
+    }
+
+    public static void main(String args[]) {
+        // java LoopOptimizer [-s] file: display the optimised program
+        //   -s: stack-safe parsing (see Parser.stackSafe)
+        Frontend fe = new Frontend();
+        fe.setTyped(true);
+        int a = 0;
+        if (args[a].equals("-s")) {
+            fe.setStackSafe(true);
+            a++;
+        }
+        Compilation c = fe.compile(java.nio.file.Paths.get(args[a]));
+        if (!c.succeeded()) {
+            System.err.println(c.diagnostics().get(0));
+            System.exit(1);
+        }
+        LoopOptimizer o = new LoopOptimizer(c.program().decpart);
+        o.optimize(ConstantFolder.F(c.program())).display();
+        System.err.println(o.hoisted + " expressions hoisted, "
+                           + o.reduced + " multiplications reduced");
+    } //main
+
+} // class LoopOptimizer
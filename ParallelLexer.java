@@ -0,0 +1,172 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+public class ParallelLexer {
+    // Lexes a byte source in parallel.  C++Lite comments are // line
+    // comments and the Lexer rejects a line end in a char literal, so
+    // no token crosses a newline: the source is cut just after newlines into chunks,
+    // each chunk is lexed by its own Lexer on a ForkJoinPool, and the
+    // chunk token buffers are stitched back together in order, with
+    // their line numbers shifted by the lines in the chunks before.
+    // The result is the same token stream Lexer.tokenize() produces,
+    // and an error is the first chunk's, at the line Lexer gives.
+
+    static final int CHUNK = 1 << 20;   // smallest chunk worth a task
+
+    public static TokenBuffer tokenize (ByteBuffer src) {
+        return tokenize(src, ForkJoinPool.commonPool());
+    }
+
+    public static TokenBuffer tokenize (ByteBuffer src, ForkJoinPool pool) {
+        return tokenize(src, pool, CHUNK);
+    }
+
+    static TokenBuffer tokenize (ByteBuffer src, ForkJoinPool pool, int smallest) {
+        int[] cuts = split(src, pool.getParallelism() * 4, smallest);
+        int n = cuts.length - 1;
+        if (n == 1)
+            return new Lexer(src).tokenize();
+
+        List<Callable<TokenBuffer>> lex = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            ByteBuffer chunk = src.duplicate();
+            chunk.limit(cuts[i + 1]).position(cuts[i]);
+            lex.add(() -> new Lexer(chunk).tokenize());
+        }
+        TokenBuffer[] parts = new TokenBuffer[n];
+        List<Future<TokenBuffer>> lexed = pool.invokeAll(lex);
+
+        // Every chunk ends in its own Eof; only the last one is kept.
+        int[] tokenOffset = new int[n];
+        int[] lineOffset = new int[n];
+        int size = 0, lines = 0;
+        for (int i = 0; i < n; i++) {
+            try {
+                parts[i] = result(lexed.get(i));
+            } catch (CompileError e) { // lines from the chunk's start
+                Diagnostic d = e.diagnostic();
+                throw new CompileError(d.atLine(d.line() + lines));
+            }
+            tokenOffset[i] = size;
+            lineOffset[i] = lines;
+            size += parts[i].size() - 1;
+            lines += parts[i].lineCount();
+        }
+        TokenBuffer result = new TokenBuffer(src, size + 1);
+        List<Callable<Void>> copy = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            final int k = i;
+            final int count = (k == n - 1) ? parts[k].size() : parts[k].size() - 1;
+            copy.add(() -> {
+                result.copy(parts[k], count, tokenOffset[k], lineOffset[k]);
+                return null;
+            });
+        }
+        for (Future<Void> f : pool.invokeAll(copy))
+            result(f);
+        result.setSize(size + 1, lines);
+        return result;
+    }
+
+    private static <T> T result (Future<T> f) {
+        try {
+            return f.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int[] split (ByteBuffer src, int pieces, int smallest) {
+        // Chunk boundaries: src.position(), a few offsets just after
+        // a '\n', and src.limit().
+        int from = src.position(), to = src.limit();
+        int step = Math.max(smallest, (to - from) / Math.max(1, pieces));
+        List<Integer> cuts = new ArrayList<>();
+        cuts.add(from);
+        int at = from + step;
+        while (at < to) {
+            while (at < to && src.get(at - 1) != '\n')
+                at++;
+            if (at >= to) break;
+            cuts.add(at);
+            at += step;
+        }
+        cuts.add(to);
+        int[] r = new int[cuts.size()];
+        for (int i = 0; i < r.length; i++)
+            r[i] = cuts.get(i);
+        return r;
+    }
+
+    static int compare (TokenBuffer a, TokenBuffer b) {
+        // the first token at which a and b differ, or -1
+        int n = Math.min(a.size(), b.size());
+        for (int i = 0; i < n; i++)
+            if (a.type(i) != b.type(i) || a.start(i) != b.start(i)
+                || a.length(i) != b.length(i) || a.line(i) != b.line(i)
+                || a.column(i) != b.column(i))
+                return i;
+        if (a.size() != b.size()) return n;
+        return a.lineCount() != b.lineCount() ? n - 1 : -1;
+    }
+
+    private static boolean same (Diagnostic a, Diagnostic b) {
+        return a.line() == b.line() && a.column() == b.column()
+            && a.toString().equals(b.toString());
+    }
+
+    public static void main (String[] args) throws IOException {
+        // java ParallelLexer [-c bytes] file...: check that each file
+        // lexes to the same tokens in parallel as with Lexer.tokenize()
+        //   -c: smallest chunk (default 1M), small to force many cuts
+        int chunk = CHUNK;
+        int a = 0;
+        if (args[a].equals("-c")) {
+            chunk = Integer.parseInt(args[++a]);
+            a++;
+        }
+        int failed = 0;
+        for (; a < args.length; a++) {
+            ByteBuffer src = Lexer.map(args[a]);
+            TokenBuffer s = null, p = null;
+            Diagnostic se = null, pe = null;
+            try {
+                s = new Lexer(src.duplicate()).tokenize();
+            } catch (CompileError e) {
+                se = e.diagnostic();
+            }
+            try {
+                p = tokenize(src.duplicate(), ForkJoinPool.commonPool(), chunk);
+            } catch (CompileError e) {
+                pe = e.diagnostic();
+            }
+            String result;
+            if (se == null && pe == null) {
+                int i = compare(s, p);
+                result = i < 0 ? s.size() + " tokens, same"
+                    : "differs at token " + i + " of " + s.size();
+            } else if (se != null && pe != null && same(se, pe))   // both fail alike
+                result = "line " + se.line() + ": " + se;
+            else
+                result = "differs: " + (se == null ? "no error" : "line " + se.line()
+                    + ": " + se) + ", in parallel " + (pe == null ? "no error"
+                    : "line " + pe.line() + ": " + pe);
+            if (result.startsWith("differs")) failed++;
+            System.out.println(args[a] + ": " + result);
+        }
+        if (failed > 0) System.exit(1);
+    } // main
+
+} // ParallelLexer
@@ -7,45 +7,147 @@ public class Parser {
     // at the beginning of the method.
   
     Token token;          // current token from the input stream
+    TokenType type;       // and its type
     Lexer lexer;
+    TokenBuffer tokens;   // packed token stream, read by index
+    int index;            // position of the current token in tokens
+    Symbols symbols;      // one canonical Variable per name
+    boolean stackSafe;    // parse nesting on a heap stack, see below
   
     public Parser(Lexer ts) { // Open the C++Lite source program
-        lexer = ts;                          // as a token stream, and
-        token = lexer.next();            // retrieve its first Token
+        reset(ts);                           // as a token stream, and
+    }                                    // retrieve its first Token
+  
+    public Parser(TokenBuffer tb) { // Parse a pre-lexed token stream;
+        reset(tb);                  // no Token objects are built
     }
   
-    private String match (TokenType t) {
-        String value = token.value();
-        if (token.type().equals(t))
+    public void reset(Lexer ts) { // start over on a new token stream
+        lexer = ts;
+        tokens = null;
+        symbols = lexer.symbols();
+        advance();
+    }
+  
+    public void reset(TokenBuffer tb) {
+        lexer = null;
+        tokens = tb;
+        symbols = new Symbols();
+        index = -1;
+        advance();
+    }
+  
+    private void advance( ) { // move on to the next token
+        if (tokens == null) {
             token = lexer.next();
+            type = token.type();
+        } else {
+            if (index < tokens.size() - 1)  // stay on Eof
+                index++;
+            type = tokens.type(index);
+        }
+    }
+  
+    private String value( ) { // spelling of the current token
+        return tokens == null ? token.value() : tokens.text(index);
+    }
+  
+    private Variable variable( ) { // interned current identifier
+        if (tokens == null)
+            return symbols.intern(token.value());
+        return symbols.intern(tokens.source(), tokens.start(index),
+                              tokens.length(index));
+    }
+  
+    private Token current( ) { // current token, for messages
+        return tokens == null ? token : tokens.token(index);
+    }
+  
+    private String match (TokenType t) {
+        String value = value();
+        if (type == t)
+            advance();
         else
             error(t);
         return value;
     }
   
     private void error(TokenType tok) {
-        System.err.println("Syntax error: expecting: " + tok 
-                           + "; saw: " + token);
-        System.exit(1);
+        error(tok.toString());
     }
   
     private void error(String tok) {
-        System.err.println("Syntax error: expecting: " + tok 
-                           + "; saw: " + token);
-        System.exit(1);
+        throw new CompileError(Diagnostic.syntax(line(), column(), tok,
+                                                 current().toString()));
+    }
+  
+    private void outOfRange (String what) {
+        throw new CompileError(new Diagnostic(line(), column(),
+            "Syntax error: " + what + " literal out of range: " + value()));
+    }
+
+    private int intLiteral( ) { // the current IntLiteral's value
+        try {
+            return Integer.parseInt(value());
+        } catch (NumberFormatException e) { // only digits, so too large
+            outOfRange("int");
+            return 0;
+        }
+    }
+
+    private int line( ) { // position of the current token
+        return tokens == null ? lexer.line() : tokens.line(index);
+    }
+  
+    private int column( ) {
+        return tokens == null ? lexer.column() : tokens.column(index);
     }
   
     public Program program() {
-        // Program --> void main ( ) '{' Declarations Statements '}'
-        TokenType[ ] header = {TokenType.Int, TokenType.Main,
+        // Program --> { Function } int main ( ) '{' Declarations Statements '}'
+        Functions functions = new Functions();
+        while (isType() || type == TokenType.Void) {
+            Type t = Type.VOID;
+            if (type == TokenType.Void) advance();
+            else t = type();
+            if (t == Type.INT && type == TokenType.Main)
+                break;
+            functions.add(function(t));
+        }
+        TokenType[ ] header = {TokenType.Main,
                           TokenType.LeftParen, TokenType.RightParen};
-        for (int i=0; i<header.length; i++)   // bypass "int main ( )"
+        if (type != TokenType.Main)   // no "int" yet
+            match(TokenType.Int);
+        for (int i=0; i<header.length; i++)   // bypass "main ( )"
             match(header[i]);
         match(TokenType.LeftBrace);
         Declarations d = declarations();
-        Block s = statements();
+        Block s = stackSafe ? statementsStackSafe() : statements();
+        match(TokenType.RightBrace);
+        return new Program(d, s, functions);  // student exercise
+    }
+
+    private Function function (Type t) {
+        // Function --> ( Type | void ) Identifier ( Parameters )
+        //                  '{' Declarations Statements '}'
+        // Parameters --> [ Type Identifier { , Type Identifier } ]
+        String id = match(TokenType.Identifier);
+        match(TokenType.LeftParen);
+        Declarations params = new Declarations();
+        while (type != TokenType.RightParen) {
+            if (!params.isEmpty())
+                match(TokenType.Comma);
+            Type pt = type();
+            Variable v = variable();
+            match(TokenType.Identifier);
+            params.add(new Declaration(v, pt));
+        }
+        match(TokenType.RightParen);
+        match(TokenType.LeftBrace);
+        Declarations locals = declarations();
+        Block body = stackSafe ? statementsStackSafe() : statements();
         match(TokenType.RightBrace);
-        return new Program(d, s);  // student exercise
+        return new Function(t, id, params, locals, body);
     }
   
     private Declarations declarations () {
@@ -57,10 +159,10 @@ public class Parser {
     // used this trick of declaration(ds) because it breaks the uniformity of 
     // the design and might cause trouble later if you change the grammar."
         Declarations decpart = new Declarations();
-        while( token.type() == TokenType.Float ||
-	      token.type() == TokenType.Char ||
-	      token.type() == TokenType.Bool ||
-	      token.type() == TokenType.Int ){
+        while( type == TokenType.Float ||
+	      type == TokenType.Char ||
+	      type == TokenType.Bool ||
+	      type == TokenType.Int ){
           declaration(decpart);
 	  
         }
@@ -69,11 +171,12 @@ public class Parser {
     }
   
     private void declaration (Declarations ds) {
-        // Declaration  --> Type Identifier { , Identifier } ;
+        // Declaration  --> Type Identifier [ '[' Integer ']' ]
+        //                  { , Identifier [ '[' Integer ']' ] } ;
         // student exercise
         Type t = null;
         Variable i = null;
-        switch (token.type()){
+        switch (type){
             case Int:
 	      t = Type.INT;
 	      break;
@@ -91,36 +194,65 @@ public class Parser {
               error("type (int, float, bool, char)");
               
         }
-        token = lexer.next();
-        if (token.type() != TokenType.Identifier )
+        advance();
+        if (type != TokenType.Identifier )
               error("Identifier");
-        while ( token.type() != TokenType.Semicolon ){
-           switch (token.type()){
+        while ( type != TokenType.Semicolon ){
+           switch (type){
             case Identifier:
-              i = new Variable(token.value());
-              ds.add(new Declaration(i, t));
-              break;
+              i = variable();
+              advance();
+              if (type == TokenType.LeftBracket)
+                ds.add(new Declaration(i, Type.array(t, size())));
+              else
+                ds.add(new Declaration(i, t));
+              continue;
             case Comma:
               break;
+            case Eof:
+              error(TokenType.Semicolon);
            } 
-           token = lexer.next();
+           advance();
         }
         match(TokenType.Semicolon);
     }
   
+    private int size () {
+        // '[' Integer ']', an array size of at least 1
+        match(TokenType.LeftBracket);
+        if (type != TokenType.IntLiteral)
+            error("array size");
+        int n = intLiteral();
+        if (n <= 0)
+            throw new CompileError(new Diagnostic(line(), column(),
+                "Syntax error: array size must be at least 1: " + value()));
+        advance();
+        match(TokenType.RightBracket);
+        return n;
+    }
+  
     private Type type () {
         // Type  -->  int | bool | float | char 
         Type t = null;
-        // student exercise
+        switch (type){
+          case Int:   t = Type.INT; break;
+          case Float: t = Type.FLOAT; break;
+          case Bool:  t = Type.BOOL; break;
+          case Char:  t = Type.CHAR; break;
+          default:    error("type (int, float, bool, char)");
+        }
+        advance();
         return t;          
     }
   
     private Statement statement() {
         // Statement --> ; | Block | Assignment | IfStatement | WhileStatement
+        //               | CallStatement | ReturnStatement
+        int line = line(), column = column();
         Statement s = new Skip();
-        switch (token.type()){
+        switch (type){
           case LeftBrace:
-            match(token.type());
+            match(type);
             s = statements();
             match(TokenType.RightBrace);
             break;
@@ -128,28 +260,39 @@ public class Parser {
             s = assignment();
             break;
           case If:
-            match(token.type());
+            match(type);
             s = ifStatement();
             break;            
           case While:
-            match(token.type());
+            match(type);
             s = whileStatement();
             break;            
+          case Return:
+            match(type);
+            s = returnStatement();
+            break;
           case Semicolon:
-            match(token.type());
+            match(type);
             break;
           default:
             error("Statement");
         } // switch
+        return at(s, line, column);
+    }
+
+    private static Statement at (Statement s, int line, int column) {
+        s.line = line;
+        s.column = column;
         return s;
     }
     
     private boolean isStatement() {
-      switch (token.type()){
+      switch (type){
         case LeftBrace:
         case While:
         case Identifier:
         case If:
+        case Return:
         case Semicolon:
           return true;
         
@@ -167,15 +310,51 @@ public class Parser {
         return b;
     }
   
-    private Assignment assignment () {
-        // Assignment --> Identifier = Expression ;
-        Variable target = new Variable(match(TokenType.Identifier));
+    private Statement assignment () {
+        // Assignment --> Identifier [ '[' Expression ']' ] = Expression ;
+        // CallStatement --> Call ;
+        Variable target = variable();
+        match(TokenType.Identifier);
+        if (type == TokenType.LeftParen) {
+            Statement s = new CallStatement(call(target));
+            match(TokenType.Semicolon);
+            return s;
+        }
+        Expression index = null;
+        if (type == TokenType.LeftBracket) {
+            advance();
+            index = expression();
+            match(TokenType.RightBracket);
+        }
         match(TokenType.Assign);
         Expression source = expression();
         match(TokenType.Semicolon);
+        if (index != null)
+            return new ArrayAssignment(new ArrayRef(target, index), source);
         return new Assignment(target, source);
     }
   
+    private Call call (Variable name) {
+        // Call --> Identifier ( [ Expression { , Expression } ] ),
+        // from the (
+        match(TokenType.LeftParen);
+        ArrayList<Expression> args = new ArrayList<Expression>();
+        while (type != TokenType.RightParen) {
+            if (!args.isEmpty())
+                match(TokenType.Comma);
+            args.add(expression());
+        }
+        match(TokenType.RightParen);
+        return new Call(name.name(), args);
+    }
+
+    private Return returnStatement () {
+        // ReturnStatement --> return [ Expression ] ;
+        Expression result = type == TokenType.Semicolon ? null : expression();
+        match(TokenType.Semicolon);
+        return new Return(result);
+    }
+
     private Conditional ifStatement () {
         // IfStatement --> if ( Expression ) Statement [ else Statement ]
         Conditional e;
@@ -187,7 +366,7 @@ public class Parser {
         tbranch = statement();
         ebranch = null;
 ////////////////////////////////////////////token = lexer.next();
-        if (token.type().equals(TokenType.Else))
+        if (type.equals(TokenType.Else))
           ebranch = statement();
         
         if (ebranch != null)
@@ -208,68 +387,54 @@ public class Parser {
         return new Loop(test, body);  // student exercise
     }
 
-    private Expression expression () {
-        // Expression --> Conjunction { || Conjunction }
-        Expression e = conjunction();
-        while (token.type().equals(TokenType.Or)) {
-            Operator op = new Operator(match(token.type()));
-            Expression term2 = conjunction();
-            e = new Binary(op, e, term2);
-        }  // student exercise
-        return e;
-    }
-  
-    private Expression conjunction () {
-        // Conjunction --> Equality { && Equality } 
-        Expression e = equality();
-        while (token.type().equals(TokenType.And)) {
-            Operator op = new Operator(match(token.type()));
-            Expression term2 = equality();
-            e = new Binary(op, e, term2);
-        }  // student exercise
-        return e;
-    }
-  
-    private Expression equality () {
-        // Equality --> Relation [ EquOp Relation ] 
-        Expression e = relation();
-        if (isEqualityOp()) {
-            Operator op = new Operator(match(token.type()));
-            Expression term2 = relation();
-            e = new Binary(op, e, term2);
-        }  // student exercise
-        return e;
+    // Binary operator precedence by TokenType ordinal, lowest first;
+    // 0 means the token is not a binary operator.  Equality and
+    // relational operators are non-associative in the grammar below.
+    private static final int OR = 1, AND = 2, EQUALITY = 3, RELATION = 4,
+        ADDITION = 5, TERM = 6;
+    private static final int[] precedence = new int[TokenType.values().length];
+    static {
+        precedence[TokenType.Or.ordinal()] = OR;
+        precedence[TokenType.And.ordinal()] = AND;
+        precedence[TokenType.Equals.ordinal()] = EQUALITY;
+        precedence[TokenType.NotEqual.ordinal()] = EQUALITY;
+        precedence[TokenType.Less.ordinal()] = RELATION;
+        precedence[TokenType.LessEqual.ordinal()] = RELATION;
+        precedence[TokenType.Greater.ordinal()] = RELATION;
+        precedence[TokenType.GreaterEqual.ordinal()] = RELATION;
+        precedence[TokenType.Plus.ordinal()] = ADDITION;
+        precedence[TokenType.Minus.ordinal()] = ADDITION;
+        precedence[TokenType.Multiply.ordinal()] = TERM;
+        precedence[TokenType.Divide.ordinal()] = TERM;
     }
 
-    private Expression relation (){
-        // Relation --> Addition [RelOp Addition] 
-        Expression e = addition();
-        if (isRelationalOp()) {
-            Operator op = new Operator(match(token.type()));
-            Expression term2 = addition();
-            return new Binary(op, e, term2);
-        }  // student exercise
-        return e;
-    }
-  
-    private Expression addition () {
+    private Expression expression () {
+        // Expression --> Conjunction { || Conjunction }
+        // Conjunction --> Equality { && Equality }
+        // Equality --> Relation [ EquOp Relation ]
+        // Relation --> Addition [ RelOp Addition ]
         // Addition --> Term { AddOp Term }
-        Expression e = term();
-        while (isAddOp()) {
-            Operator op = new Operator(match(token.type()));
-            Expression term2 = term();
-            e = new Binary(op, e, term2);
-        }
-        return e;
-    }
-  
-    private Expression term () {
         // Term --> Factor { MultiplyOp Factor }
+        if (stackSafe) return expressionStackSafe();
+        return binary(OR);
+    }
+
+    private Expression binary (int min) {
+        // Precedence climbing over the rules above: parses a Factor
+        // followed by operators of level min or higher, recursing only
+        // for the right operand of each operator actually present.
+        // After an operator of level p only levels up to p may extend
+        // the tree (p - 1 for the non-associative levels), as in the
+        // grammar's loops and [ ] options.
         Expression e = factor();
-        while (isMultiplyOp()) {
-            Operator op = new Operator(match(token.type()));
-            Expression term2 = factor();
+        int limit = TERM;
+        int p = precedence[type.ordinal()];
+        while (p >= min && p <= limit) {
+            Operator op = Operator.binary(match(type));
+            Expression term2 = binary(p + 1);
             e = new Binary(op, e, term2);
+            limit = (p == EQUALITY || p == RELATION) ? p - 1 : p;
+            p = precedence[type.ordinal()];
         }
         return e;
     }
@@ -277,7 +442,7 @@ public class Parser {
     private Expression factor() {
         // Factor --> [ UnaryOp ] Primary 
         if (isUnaryOp()) {
-            Operator op = new Operator(match(token.type()));
+            Operator op = Operator.unary(match(type));
             Expression term = primary();
             return new Unary(op, term);
         }
@@ -285,19 +450,28 @@ public class Parser {
     }
   
     private Expression primary () {
-        // Primary --> Identifier | Literal | ( Expression )
-        //             | Type ( Expression )
+        // Primary --> Identifier [ '[' Expression ']' ] | Call | Literal
+        //             | ( Expression ) | Type ( Expression )
         Expression e = null;
-        if (token.type().equals(TokenType.Identifier)) {
-            e = new Variable(match(TokenType.Identifier));
+        if (type.equals(TokenType.Identifier)) {
+            Variable v = variable();
+            match(TokenType.Identifier);
+            e = v;
+            if (type.equals(TokenType.LeftParen))
+                e = call(v);
+            else if (type.equals(TokenType.LeftBracket)) {
+                advance();
+                e = new ArrayRef(v, expression());
+                match(TokenType.RightBracket);
+            }
         } else if (isLiteral()) {
             e = literal();
-        } else if (token.type().equals(TokenType.LeftParen)) {
-            token = lexer.next();
+        } else if (type.equals(TokenType.LeftParen)) {
+            advance();
             e = expression();       
             match(TokenType.RightParen);
         } else if (isType( )) {
-            Operator op = new Operator(match(token.type()));
+            Operator op = Operator.unary(match(type));
             match(TokenType.LeftParen);
             Expression term = expression();
             match(TokenType.RightParen);
@@ -308,82 +482,309 @@ public class Parser {
 
     private Value literal( ) {
         Value myVal = null;
-        switch (token.type()){
+        switch (type){
           case IntLiteral:
-            myVal = new IntValue( Integer.parseInt(token.value()) );
+            myVal = new IntValue( intLiteral() );
             break;
             
           case FloatLiteral:
-            myVal = new FloatValue( Float.parseFloat(token.value()) );
+            float f = Float.parseFloat(value());
+            if (Float.isInfinite(f)) outOfRange("float");
+            myVal = new FloatValue( f );
             break;
             
           case CharLiteral:
-            myVal = new CharValue( token.value().charAt(0) );
+            myVal = new CharValue( value().charAt(0) );
             break;
             
           case True:
           case False:
-            myVal = new BoolValue( Boolean.parseBoolean(token.value()) );
+            myVal = new BoolValue( Boolean.parseBoolean(value()) );
             break;
             
           default:
-            System.out.println("Literal evaluation not implemented for " + token.type());
-            System.exit(1);
+            throw new CompileError(new Diagnostic(line(), column(),
+                "Literal evaluation not implemented for " + type));
         } // switch
-        token = lexer.next();
+        advance();
         return myVal;
     } // value
 
-    private boolean isAddOp( ) {
-        return token.type().equals(TokenType.Plus) ||
-               token.type().equals(TokenType.Minus);
+    // Stack-safe mode.  statementsStackSafe() and expressionStackSafe()
+    // parse the same rules as statements() and expression() and build
+    // the same trees, but each rule still waiting for a nested
+    // statement or operand is a Pending entry on a heap-allocated
+    // stack rather than a Java call frame.  Nesting depth is then
+    // bounded by the heap, not by the thread stack size.
+
+    private static final int BLOCK = 0, BRACES = 1, IF = 2, WHILE = 3,
+        BINARY = 4, UNARY = 5, PAREN = 6, CAST = 7, INDEX = 8, CALL = 9;
+
+    private static final class Pending { // a rule awaiting a subtree
+        final int rule;
+        Block block;                     // BLOCK, BRACES
+        Expression test;                 // IF, WHILE
+        Statement thenbranch;            // IF, once parsed
+        Expression left;                 // BINARY
+        Operator op;                     // BINARY, UNARY, CAST
+        Variable array;                  // INDEX
+        String name;                     // CALL
+        ArrayList<Expression> args;      // CALL, so far
+        int min, level, limit;           // BINARY, as in binary()
+        int line, column;                // where its statement starts
+
+        Pending (int r) { rule = r; }
     }
-    
-    private boolean isMultiplyOp( ) {
-        return token.type().equals(TokenType.Multiply) ||
-               token.type().equals(TokenType.Divide);
+
+    private static Pending blockOf (int rule) {
+        Pending f = new Pending(rule);
+        f.block = new Block();
+        return f;
     }
-    
-    private boolean isUnaryOp( ) {
-        return token.type().equals(TokenType.Not) ||
-               token.type().equals(TokenType.Minus);
+
+    private static Pending binaryOf (int min) {
+        Pending f = new Pending(BINARY);
+        f.min = min;
+        f.limit = TERM;
+        return f;
     }
-    
-    private boolean isEqualityOp( ) {
-        return token.type().equals(TokenType.Equals) ||
-            token.type().equals(TokenType.NotEqual);
+
+    private Block statementsStackSafe () {
+        // Statements --> { Statement }, as statements() and statement()
+        ArrayDeque<Pending> stack = new ArrayDeque<Pending>();
+        stack.push(blockOf(BLOCK));
+        Statement s = null;         // finished statement, not yet placed
+        while (true) {
+            Pending f = stack.peek();
+            if (s == null) {        // start a statement for f
+                if ((f.rule == BLOCK || f.rule == BRACES) && !isStatement()) {
+                    stack.pop();
+                    if (f.rule == BLOCK) return f.block;
+                    match(TokenType.RightBrace);
+                    s = at(f.block, f.line, f.column);
+                    continue;
+                }
+                int line = line(), column = column();
+                switch (type){
+                  case LeftBrace:
+                    match(type);
+                    Pending b = blockOf(BRACES);
+                    b.line = line;
+                    b.column = column;
+                    stack.push(b);
+                    break;
+                  case Identifier:
+                    s = assignment();
+                    break;
+                  case If:
+                  case While:
+                    Pending g = new Pending(type == TokenType.If ? IF : WHILE);
+                    g.line = line;
+                    g.column = column;
+                    match(type);
+                    match(TokenType.LeftParen);
+                    g.test = expression();
+                    match(TokenType.RightParen);
+                    stack.push(g);
+                    break;
+                  case Return:
+                    match(type);
+                    s = returnStatement();
+                    break;
+                  case Semicolon:
+                    match(type);
+                    s = new Skip();
+                    break;
+                  default:
+                    error("Statement");
+                } // switch
+                if (s != null) at(s, line, column);
+            } else switch (f.rule) { // place s in f
+              case BLOCK:
+              case BRACES:
+                f.block.members.add(s);
+                s = null;
+                break;
+              case WHILE:
+                stack.pop();
+                s = at(new Loop(f.test, s), f.line, f.column);
+                break;
+              case IF:
+                if (f.thenbranch == null) {
+                    f.thenbranch = s;
+                    s = null;
+                    if (type.equals(TokenType.Else))
+                        break;      // parse the else branch next
+                    stack.pop();
+                    s = at(new Conditional(f.test, f.thenbranch), f.line, f.column);
+                } else {
+                    stack.pop();
+                    s = at(new Conditional(f.test, f.thenbranch, s), f.line, f.column);
+                }
+                break;
+            }
+        }
     }
-    
-    private boolean isRelationalOp( ) {
-        return token.type().equals(TokenType.Less) ||
-               token.type().equals(TokenType.LessEqual) || 
-               token.type().equals(TokenType.Greater) ||
-               token.type().equals(TokenType.GreaterEqual);
+
+    private Expression expressionStackSafe () {
+        // Expression, as binary(OR), factor() and primary()
+        ArrayDeque<Pending> stack = new ArrayDeque<Pending>();
+        stack.push(binaryOf(OR));
+        Expression e = null;        // finished operand, not yet placed
+        while (true) {
+            if (e == null) {        // Factor --> [ UnaryOp ] Primary
+                if (isUnaryOp()) {
+                    Pending u = new Pending(UNARY);
+                    u.op = Operator.unary(match(type));
+                    stack.push(u);
+                }
+                if (type.equals(TokenType.Identifier)) {
+                    Variable v = variable();
+                    match(TokenType.Identifier);
+                    if (type.equals(TokenType.LeftBracket)) {
+                        advance();
+                        Pending x = new Pending(INDEX);
+                        x.array = v;
+                        stack.push(x);
+                        stack.push(binaryOf(OR));
+                    } else if (type.equals(TokenType.LeftParen)) {
+                        advance();
+                        Pending k = new Pending(CALL);
+                        k.name = v.name();
+                        k.args = new ArrayList<Expression>();
+                        if (type.equals(TokenType.RightParen)) {
+                            advance();
+                            e = new Call(k.name, k.args);
+                        } else {
+                            stack.push(k);
+                            stack.push(binaryOf(OR));
+                        }
+                    } else
+                        e = v;
+                } else if (isLiteral()) {
+                    e = literal();
+                } else if (type.equals(TokenType.LeftParen)) {
+                    advance();
+                    stack.push(new Pending(PAREN));
+                    stack.push(binaryOf(OR));
+                } else if (isType( )) {
+                    Pending c = new Pending(CAST);
+                    c.op = Operator.unary(match(type));
+                    match(TokenType.LeftParen);
+                    stack.push(c);
+                    stack.push(binaryOf(OR));
+                } else error("Identifier | Literal | ( | Type");
+                continue;
+            }
+            Pending f = stack.peek();
+            switch (f.rule) {
+              case UNARY:
+                stack.pop();
+                e = new Unary(f.op, e);
+                break;
+              case PAREN:
+                stack.pop();
+                match(TokenType.RightParen);
+                break;
+              case CAST:
+                stack.pop();
+                match(TokenType.RightParen);
+                e = new Unary(f.op, e);
+                break;
+              case INDEX:
+                stack.pop();
+                match(TokenType.RightBracket);
+                e = new ArrayRef(f.array, e);
+                break;
+              case CALL:
+                f.args.add(e);
+                e = null;
+                if (type.equals(TokenType.RightParen)) {
+                    stack.pop();
+                    advance();
+                    e = new Call(f.name, f.args);
+                } else {
+                    match(TokenType.Comma);
+                    stack.push(binaryOf(OR));
+                }
+                break;
+              case BINARY:
+                if (f.op == null)
+                    f.left = e;
+                else {
+                    f.left = new Binary(f.op, f.left, e);
+                    f.limit = (f.level == EQUALITY || f.level == RELATION)
+                        ? f.level - 1 : f.level;
+                }
+                e = null;
+                int p = precedence[type.ordinal()];
+                if (p >= f.min && p <= f.limit) {
+                    f.op = Operator.binary(match(type));
+                    f.level = p;
+                    stack.push(binaryOf(p + 1));
+                } else {
+                    stack.pop();
+                    e = f.left;
+                    if (stack.isEmpty()) return e;
+                }
+                break;
+            }
+        }
+    }
+
+    private boolean isUnaryOp( ) {
+        return type.equals(TokenType.Not) ||
+               type.equals(TokenType.Minus);
     }
     
     private boolean isType( ) {
-        return token.type().equals(TokenType.Int)
-            || token.type().equals(TokenType.Bool) 
-            || token.type().equals(TokenType.Float)
-            || token.type().equals(TokenType.Char);
+        return type.equals(TokenType.Int)
+            || type.equals(TokenType.Bool) 
+            || type.equals(TokenType.Float)
+            || type.equals(TokenType.Char);
     }
     
     private boolean isLiteral( ) {
-        return token.type().equals(TokenType.IntLiteral) ||
+        return type.equals(TokenType.IntLiteral) ||
             isBooleanLiteral() ||
-            token.type().equals(TokenType.FloatLiteral) ||
-            token.type().equals(TokenType.CharLiteral);
+            type.equals(TokenType.FloatLiteral) ||
+            type.equals(TokenType.CharLiteral);
     }
     
     private boolean isBooleanLiteral( ) {
-        return token.type().equals(TokenType.True) ||
-            token.type().equals(TokenType.False);
+        return type.equals(TokenType.True) ||
+            type.equals(TokenType.False);
     }
     
-    public static void main(String args[]) {
-        Parser parser  = new Parser(new Lexer(args[0]));
-        Program prog = parser.program();
-        prog.display();           // display abstract syntax tree
+    public static void main(String args[]) throws java.io.IOException {
+        // java Parser [-t|-p] [-s] file
+        //   -t: mapped source, packed tokens; -p: the same, lexed in
+        //   parallel; -s: stack-safe parsing of deeply nested programs
+        String mode = "";
+        boolean stackSafe = false;
+        int a = 0;
+        for (; args[a].startsWith("-"); a++)
+            if (args[a].equals("-s")) stackSafe = true;
+            else mode = args[a];
+        try {
+            parse(args[a], mode, stackSafe).display(); // display abstract syntax tree
+        } catch (CompileError e) {
+            System.err.println(e.diagnostic());
+            System.exit(1);
+        }
     } //main
 
+    private static Program parse(String file, String mode, boolean stackSafe)
+            throws java.io.IOException {
+        Parser parser;
+        if (mode.equals("-t"))
+            parser = new Parser(new Lexer(Lexer.map(file)).tokenize());
+        else if (mode.equals("-p"))
+            parser = new Parser(ParallelLexer.tokenize(Lexer.map(file)));
+        else
+            parser = new Parser(new Lexer(file));
+        parser.stackSafe = stackSafe;
+        return parser.program();
+    } // parse
+
 } // Parser
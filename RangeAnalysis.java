@@ -0,0 +1,363 @@
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+public class RangeAnalysis {
+    // Bounds-check elimination for typed Programs (see
+    // TypeTransformer).  The analysis keeps, for each int and char
+    // variable, an interval that holds its value at each point, and
+    // an ArrayRef whose index interval lies within the array's
+    // bounds needs no check.  The engines compile such an element
+    // access without one.
+    //
+    // Intervals come from literals and assignments, through + - * /
+    // and the casts; a result that could overflow an int is unknown.
+    // Tests narrow them: inside while (i < n) the body sees i below
+    // the largest n, and after the Loop i is at least the smallest.
+    // A Loop is iterated to a fixed point, and a bound still moving
+    // after two rounds is widened to the type's limit, so
+    //
+    //     i = 0; while (i < 100) { a[i] = ...; i = i + 1; }
+    //
+    // finds i in 0..99 in the body, whatever it does with i after
+    // the access.  Variables read before they are assigned fail
+    // before any element is touched, so their interval is never used
+    // wrongly.  Loops nested more than DEPTH deep are not iterated:
+    // whatever they assign becomes unknown and their accesses keep
+    // their checks.
+    //
+    // A function is analysed on its own, from any parameter values;
+    // nothing after a Return is reached along its path.
+
+    static final int DEPTH = 8;
+
+    private final Map<Variable, Integer> number = new HashMap<Variable, Integer>();
+    private final Type[] types;
+    private final long[] min, max;           // each variable's type limits
+    private final Map<ArrayRef, Boolean> inBounds =
+        new IdentityHashMap<ArrayRef, Boolean>();
+    private int depth;                       // Loops being iterated
+
+    RangeAnalysis (Declarations d, Statement s) {
+        // s run from any state
+        int n = d.size();
+        types = new Type[n];
+        min = new long[n];
+        max = new long[n];
+        boolean arrays = false;
+        for (int v = 0; v < n; v++) {
+            number.put(d.get(v).v, v);
+            types[v] = d.get(v).t;
+            min[v] = types[v] == Type.CHAR ? Character.MIN_VALUE : Integer.MIN_VALUE;
+            max[v] = types[v] == Type.CHAR ? Character.MAX_VALUE : Integer.MAX_VALUE;
+            arrays |= types[v].isArray();
+        }
+        if (arrays)   // nothing to prove otherwise
+            statement(s, new State(min.clone(), max.clone()));
+    }
+
+    static RangeAnalysis of (Program p) {
+        return new RangeAnalysis(p.decpart, p.body);
+    }
+
+    static RangeAnalysis of (Function f) {
+        return new RangeAnalysis(StaticTypeCheck.variables(f), f.body);
+    }
+
+    boolean inBounds (ArrayRef r) { // the index is always in bounds
+        Boolean b = inBounds.get(r);
+        return b != null && b;
+    }
+
+    int proven ( ) { // accesses, for main
+        int k = 0;
+        for (boolean b : inBounds.values())
+            if (b) k++;
+        return k;
+    }
+
+    private static final class State { // bounds by variable number
+        final long[] lo, hi;
+
+        State (long[] l, long[] h) { lo = l; hi = h; }
+
+        State copy ( ) { return new State(lo.clone(), hi.clone()); }
+
+        boolean same (State s) {
+            return Arrays.equals(lo, s.lo) && Arrays.equals(hi, s.hi);
+        }
+    }
+
+    // null is the State of code that is never reached
+
+    private static State join (State a, State b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        State j = a.copy();
+        for (int v = 0; v < j.lo.length; v++) {
+            j.lo[v] = Math.min(a.lo[v], b.lo[v]);
+            j.hi[v] = Math.max(a.hi[v], b.hi[v]);
+        }
+        return j;
+    }
+
+    private State widen (State old, State now) { // moving bounds to the limits
+        State w = now.copy();
+        for (int v = 0; v < w.lo.length; v++) {
+            if (now.lo[v] < old.lo[v]) w.lo[v] = min[v];
+            if (now.hi[v] > old.hi[v]) w.hi[v] = max[v];
+        }
+        return w;
+    }
+
+    private int variable (Expression e) { // int or char variable, or -1
+        if (e instanceof Unary && ((Unary) e).op.code == Opcode.C2I)
+            e = ((Unary) e).term;
+        if (!(e instanceof Variable)) return -1;
+        Integer v = number.get(e);
+        if (v == null || (types[v] != Type.INT && types[v] != Type.CHAR))
+            return -1;
+        return v;
+    }
+
+    // Statements: each returns the State after s, given the one before
+
+    private State statement (Statement s, State in) {
+        if (in == null) return null;
+        if (s instanceof Assignment) {
+            Assignment a = (Assignment) s;
+            long[] r = range(a.source, in);
+            int v = variable(a.target);
+            if (v < 0) return in;
+            State out = in.copy();
+            out.lo[v] = r[0];
+            out.hi[v] = r[1];
+            return out;
+        }
+        if (s instanceof ArrayAssignment) {
+            ArrayAssignment a = (ArrayAssignment) s;
+            range(a.target, in);
+            range(a.source, in);
+            return in;
+        }
+        if (s instanceof Block) {
+            for (Statement m : ((Block) s).members)
+                in = statement(m, in);
+            return in;
+        }
+        if (s instanceof Conditional) {
+            Conditional c = (Conditional) s;
+            range(c.test, in);
+            State then = statement(c.thenbranch, refine(c.test, true, in));
+            State otherwise = refine(c.test, false, in);
+            if (c.elsebranch != null)
+                otherwise = statement(c.elsebranch, otherwise);
+            return join(then, otherwise);
+        }
+        if (s instanceof Loop)
+            return loop((Loop) s, in);
+        if (s instanceof CallStatement)
+            range(((CallStatement) s).call, in);
+        if (s instanceof Return) {
+            if (((Return) s).result != null) range(((Return) s).result, in);
+            return null;
+        }
+        return in;   // Skip
+    }
+
+    private State loop (Loop l, State in) {
+        if (depth == DEPTH) { // not iterated: what it assigns is unknown
+            State out = in.copy();
+            havoc(l.body, out);
+            return refine(l.test, false, out);
+        }
+        depth++;
+        State head = in;
+        for (int round = 1; ; round++) {
+            range(l.test, head);
+            State next = join(head, statement(l.body, refine(l.test, true, head)));
+            if (next.same(head)) break;
+            head = round < 2 ? next : widen(head, next);
+        }
+        depth--;
+        return refine(l.test, false, head);
+    }
+
+    private void havoc (Statement s, State out) {
+        if (s instanceof Assignment) {
+            int v = variable(((Assignment) s).target);
+            if (v >= 0) {
+                out.lo[v] = min[v];
+                out.hi[v] = max[v];
+            }
+        } else if (s instanceof Block) {
+            for (Statement m : ((Block) s).members)
+                havoc(m, out);
+        } else if (s instanceof Conditional) {
+            havoc(((Conditional) s).thenbranch, out);
+            if (((Conditional) s).elsebranch != null)
+                havoc(((Conditional) s).elsebranch, out);
+        } else if (s instanceof Loop)
+            havoc(((Loop) s).body, out);
+    }
+
+    // Tests: the State in which test is sense, from the State in
+
+    private State refine (Expression test, boolean sense, State in) {
+        if (in == null) return null;
+        if (test instanceof BoolValue)
+            return ((BoolValue) test).boolValue() == sense ? in : null;
+        if (test instanceof Unary && ((Unary) test).op.code == Opcode.NOT)
+            return refine(((Unary) test).term, !sense, in);
+        if (!(test instanceof Binary)) return in;
+        Binary b = (Binary) test;
+        Opcode op = b.op.code;
+        if (op == Opcode.AND || op == Opcode.OR) {
+            if (sense == (op == Opcode.AND)) // both terms are sense
+                return refine(b.term2, sense, refine(b.term1, sense, in));
+            return join(refine(b.term1, sense, in),
+                        refine(b.term2, sense, refine(b.term1, !sense, in)));
+        }
+        int rel = relation(op);
+        if (rel < 0) return in;
+        if (!sense) rel = 5 - rel;   // LT<->GE, LE<->GT, EQ<->NE
+        long[] x = range(b.term1, in), y = range(b.term2, in);
+        int u = variable(b.term1), w = variable(b.term2);
+        State out = in.copy();
+        switch (rel) {
+          case 0: narrow(out, u, x[0], y[1] - 1); narrow(out, w, x[0] + 1, y[1]); break;
+          case 1: narrow(out, u, x[0], y[1]);     narrow(out, w, x[0], y[1]);     break;
+          case 2: narrow(out, u, y[0], y[1]);     narrow(out, w, x[0], x[1]);     break;
+          case 3:
+            if (y[0] == y[1]) exclude(out, u, y[0]);
+            if (x[0] == x[1]) exclude(out, w, x[0]);
+            break;
+          case 4: narrow(out, u, y[0] + 1, x[1]); narrow(out, w, y[0], x[1] - 1); break;
+          case 5: narrow(out, u, y[0], x[1]);     narrow(out, w, y[0], x[1]);     break;
+        }
+        for (int v = 0; v < out.lo.length; v++)
+            if (out.lo[v] > out.hi[v]) return null;   // test cannot be sense
+        return out;
+    }
+
+    private static void narrow (State s, int v, long lo, long hi) {
+        if (v < 0) return;
+        s.lo[v] = Math.max(s.lo[v], lo);
+        s.hi[v] = Math.min(s.hi[v], hi);
+    }
+
+    private static void exclude (State s, int v, long k) {
+        if (v < 0) return;
+        if (s.lo[v] == k) s.lo[v]++;
+        else if (s.hi[v] == k) s.hi[v]--;
+    }
+
+    private static int relation (Opcode op) { // int and char LT..GE as 0..5
+        switch (op) {
+          case INT_LT: case CHAR_LT: return 0;
+          case INT_LE: case CHAR_LE: return 1;
+          case INT_EQ: case CHAR_EQ: return 2;
+          case INT_NE: case CHAR_NE: return 3;
+          case INT_GT: case CHAR_GT: return 4;
+          case INT_GE: case CHAR_GE: return 5;
+          default: return -1;
+        }
+    }
+
+    // Expressions: the interval of an int or char value, as { lo, hi };
+    // each ArrayRef met on the way is recorded
+
+    private static final long[] INT = { Integer.MIN_VALUE, Integer.MAX_VALUE };
+    private static final long[] CHAR = { Character.MIN_VALUE, Character.MAX_VALUE };
+
+    private static long[] of (long lo, long hi) {
+        if (lo < Integer.MIN_VALUE || hi > Integer.MAX_VALUE) return INT;
+        return new long[] { lo, hi };
+    }
+
+    private long[] range (Expression e, State s) {
+        if (e instanceof IntValue) {
+            long k = ((IntValue) e).intValue();
+            return of(k, k);
+        }
+        if (e instanceof CharValue) {
+            long k = ((CharValue) e).charValue();
+            return of(k, k);
+        }
+        if (e instanceof Variable) {
+            int v = variable(e);
+            return v < 0 ? INT : of(s.lo[v], s.hi[v]);
+        }
+        if (e instanceof ArrayRef) {
+            ArrayRef r = (ArrayRef) e;
+            long[] k = range(r.index, s);
+            Type t = types[number.get(r.array)];
+            inBounds.put(r, k[0] >= 0 && k[1] < t.size());
+            return t.element() == Type.CHAR ? CHAR : INT;
+        }
+        if (e instanceof Unary) {
+            Unary u = (Unary) e;
+            long[] x = range(u.term, s);
+            switch (u.op.code) {
+              case C2I:     return x;
+              case INT_NEG: return of(-x[1], -x[0]);
+              case I2C:     return x[0] >= 0 && x[1] <= Character.MAX_VALUE ? x : CHAR;
+              default:      return INT;
+            }
+        }
+        if (e instanceof Binary) {
+            Binary b = (Binary) e;
+            long[] x = range(b.term1, s), y = range(b.term2, s);
+            switch (b.op.code) {
+              case INT_PLUS:  return of(x[0] + y[0], x[1] + y[1]);
+              case INT_MINUS: return of(x[0] - y[1], x[1] - y[0]);
+              case INT_TIMES: return corners(x, y, false);
+              case INT_DIV:
+                if (y[0] > 0 || y[1] < 0) return corners(x, y, true);
+                return INT;
+              default:        return INT;
+            }
+        }
+        if (e instanceof Call) // a function sees none of the caller's variables
+            for (Expression a : ((Call) e).args)
+                range(a, s);
+        return INT;   // float and bool values, and results
+    }
+
+    private static long[] corners (long[] x, long[] y, boolean divide) {
+        // * and / are monotonic in each operand (for / on one side of
+        // zero), so the extremes are at the corners
+        long lo = Long.MAX_VALUE, hi = Long.MIN_VALUE;
+        for (long a : x)
+            for (long b : y) {
+                long r = divide ? a / b : a * b;
+                lo = Math.min(lo, r);
+                hi = Math.max(hi, r);
+            }
+        return of(lo, hi);
+    }
+
+    public static void main (String args[]) {
+        // java RangeAnalysis [-O] [-s] file: count the array accesses
+        // proven in bounds
+        //   -O: optimise first (see ConstantFolder, LoopOptimizer)
+        //   -s: stack-safe parsing (see Parser.stackSafe)
+        Frontend fe = new Frontend();
+        fe.setTyped(true);
+        int a = 0;
+        for (; args[a].startsWith("-"); a++)
+            if (args[a].equals("-s")) fe.setStackSafe(true);
+            else if (args[a].equals("-O")) fe.setOptimize(true);
+        Compilation c = fe.compile(Paths.get(args[a]));
+        if (!c.succeeded()) {
+            System.err.println(c.diagnostics().get(0));
+            System.exit(1);
+        }
+        RangeAnalysis r = of(c.program());
+        System.out.println(r.proven() + " of " + r.inBounds.size()
+                           + " array accesses proven in bounds");
+    } // main
+
+} // RangeAnalysis
@@ -0,0 +1,539 @@
+import java.nio.file.Paths;
+
+public class SpecializingInterpreter extends Interpreter {
+    // Interpreter for untyped Programs whose expression nodes rewrite
+    // themselves from the types they see.  Each Binary, Unary and
+    // Variable starts as a generic node that works on any operands,
+    // with the Interpreter's own operate( ).  The first time it runs
+    // it replaces itself in its parent with a variant for the operand
+    // types it saw (IntBinary, FloatBinary, IntVar, ...), which checks
+    // those types with one compare and skips all other dispatch.  If
+    // a specialised node later sees other types, it deoptimises:
+    // it puts back a generic node, marked so that it never
+    // specialises again, and evaluates that instead.  Expressions
+    // have no side effects, so re-evaluating the operands is safe.
+    // That includes a Call: it runs as in the Interpreter, arguments
+    // and all, and changes nothing outside its own frame.  Only
+    // main's body is specialised; function bodies are walked by the
+    // Interpreter.
+    //
+    // State, semantics and messages are the Interpreter's; only the
+    // tree walked differs.  Array elements are read and written
+    // through the Interpreter's position( ), loadElement( ) and
+    // storeElement( ), which already dispatch on the array's type.
+
+    private final Stmt body;
+
+    int specialised, deoptimised;   // node rewrites, for -v
+
+    SpecializingInterpreter (Program p) {
+        super(p);
+        body = statement(p.body);
+    }
+
+    void exec ( ) {
+        body.exec();
+    }
+
+    // Building the node tree
+
+    private Stmt statement (Statement s) {
+        if (s instanceof Assignment) {
+            Assignment a = (Assignment) s;
+            return new Assign(a.target, expression(a.source));
+        }
+        if (s instanceof ArrayAssignment) {
+            ArrayAssignment a = (ArrayAssignment) s;
+            return new AssignElement(a.target.array, expression(a.target.index),
+                                     expression(a.source));
+        }
+        if (s instanceof Block) {
+            Block b = (Block) s;
+            Stmt[] members = new Stmt[b.members.size()];
+            for (int i = 0; i < members.length; i++)
+                members[i] = statement(b.members.get(i));
+            return new Seq(members);
+        }
+        if (s instanceof Loop) {
+            Loop l = (Loop) s;
+            return new While(expression(l.test), statement(l.body));
+        }
+        if (s instanceof Conditional) {
+            Conditional c = (Conditional) s;
+            return new If(expression(c.test), statement(c.thenbranch),
+                          c.elsebranch == null ? null : statement(c.elsebranch));
+        }
+        if (s instanceof CallStatement)
+            return new Drop(((CallStatement) s).call);
+        return new Seq(new Stmt[0]);   // Skip
+    }
+
+    private Expr expression (Expression e) {
+        if (e instanceof Variable) return new Var((Variable) e);
+        if (e instanceof ArrayRef) {
+            ArrayRef r = (ArrayRef) e;
+            return new Element(r.array, expression(r.index));
+        }
+        if (e instanceof Call) return new Invoke((Call) e);
+        if (e instanceof Binary) {
+            Binary b = (Binary) e;
+            if (b.op.BooleanOp())
+                return new AndOr(b.op, expression(b.term1), expression(b.term2));
+            return new GenericBinary(b.op, expression(b.term1),
+                                     expression(b.term2), false);
+        }
+        if (e instanceof Unary) {
+            Unary u = (Unary) e;
+            return new GenericUnary(u.op, expression(u.term), false);
+        }
+        return new Const((Value) e);
+    }
+
+    // Nodes
+
+    abstract class Node {
+        Node parent;
+
+        void adopt (Node old, Node neu) { // replace child old with neu
+            throw new IllegalStateException("not a child");
+        }
+
+        <N extends Node> N child (N n) { n.parent = this; return n; }
+    }
+
+    abstract class Expr extends Node {
+        abstract Type eval( );   // result in ival or fval
+
+        Expr replace (Expr neu) {
+            parent.adopt(this, neu);
+            neu.parent = parent;
+            return neu;
+        }
+
+        Type specialise (Expr neu) {  // after computing the result here
+            specialised++;
+            replace(neu);
+            return null;               // not a result; see callers
+        }
+
+        Type deoptimise (Expr generic) {
+            deoptimised++;
+            return replace(generic).eval();
+        }
+    }
+
+    abstract class Stmt extends Node {
+        abstract void exec( );
+    }
+
+    private static boolean isInt (Type t) { return t == Type.INT || t == Type.CHAR; }
+
+    private boolean test (Expr e) {
+        if (e.eval() != Type.BOOL)
+            throw new IllegalStateException("test is not a bool");
+        return ival != 0;
+    }
+
+    final class Const extends Expr {
+        final Type t;
+        final int i;
+        final float f;
+
+        Const (Value v) {
+            if (v.isUndef())
+                throw new IllegalStateException("reference to undefined value");
+            t = v.type();
+            i = t == Type.FLOAT ? 0 : t == Type.CHAR ? v.charValue() : v.intValue();
+            f = t == Type.FLOAT ? v.floatValue() : 0;
+        }
+
+        Type eval( ) { ival = i; fval = f; return t; }
+    }
+
+    final class Var extends Expr { // generic: becomes IntVar or FloatVar
+        final Variable v;
+
+        Var (Variable var) { v = var; }
+
+        Type eval( ) {
+            Type t = types[v.index()];
+            Expr neu = t == Type.FLOAT ? new FloatVar(v) : new IntVar(v, t);
+            specialise(neu);
+            return neu.eval();
+        }
+    }
+
+    final class IntVar extends Expr { // int, char or bool
+        final Variable v;
+        final int slot;
+        final Type t;
+
+        IntVar (Variable var, Type type) { v = var; slot = var.index(); t = type; }
+
+        Type eval( ) {
+            if (!defined[slot])
+                throw new IllegalStateException("reference to undefined variable "
+                                                + v.name());
+            ival = ints[slot];
+            return t;
+        }
+    }
+
+    final class FloatVar extends Expr {
+        final Variable v;
+        final int slot;
+
+        FloatVar (Variable var) { v = var; slot = var.index(); }
+
+        Type eval( ) {
+            if (!defined[slot])
+                throw new IllegalStateException("reference to undefined variable "
+                                                + v.name());
+            fval = floats[slot];
+            return Type.FLOAT;
+        }
+    }
+
+    final class Element extends Expr { // a[index]
+        final Variable array;
+        Expr index;
+
+        Element (Variable a, Expr i) { array = a; index = child(i); }
+
+        void adopt (Node old, Node neu) {
+            if (index == old) index = (Expr) neu;
+            else super.adopt(old, neu);
+        }
+
+        Type eval( ) { return loadElement(array, position(array, index.eval())); }
+    }
+
+    final class Invoke extends Expr { // a Call, run by the Interpreter
+        final Call call;
+
+        Invoke (Call c) { call = c; }
+
+        Type eval( ) {
+            Type t = call(call);
+            if (t == Type.VOID)
+                throw new IllegalStateException(call.name + " returns no value");
+            return t;
+        }
+    }
+
+    abstract class BinaryNode extends Expr {
+        final Operator op;
+        Expr left, right;
+
+        BinaryNode (Operator o, Expr l, Expr r) {
+            op = o; left = child(l); right = child(r);
+        }
+
+        void adopt (Node old, Node neu) {
+            if (left == old) left = (Expr) neu;
+            else if (right == old) right = (Expr) neu;
+            else super.adopt(old, neu);
+        }
+
+        Type generic( ) { return deoptimise(new GenericBinary(op, left, right, true)); }
+    }
+
+    final class AndOr extends BinaryNode { // always bool: short circuit
+        final boolean or;
+
+        AndOr (Operator o, Expr l, Expr r) { super(o, l, r); or = o.code == Opcode.OR; }
+
+        Type eval( ) {
+            if (test(left) != or)
+                ival = test(right) ? 1 : 0;
+            return Type.BOOL;
+        }
+    }
+
+    final class GenericBinary extends BinaryNode {
+        final boolean megamorphic;   // deoptimised once: stay generic
+
+        GenericBinary (Operator o, Expr l, Expr r, boolean m) {
+            super(o, l, r);
+            megamorphic = m;
+        }
+
+        Type eval( ) {
+            Type t1 = left.eval();
+            int i1 = ival;
+            float f1 = fval;
+            Type t2 = right.eval();
+            Type result = operate(op, t1, i1, f1, t2);
+            if (!megamorphic) {
+                if (isInt(t1) && isInt(t2))
+                    specialise(new IntBinary(op, left, right));
+                else if ((isInt(t1) || t1 == Type.FLOAT)
+                         && (isInt(t2) || t2 == Type.FLOAT))
+                    specialise(new FloatBinary(op, left, right));
+                else if (t1 == Type.BOOL && t2 == Type.BOOL)
+                    specialise(new BoolCompare(op, left, right));
+            }
+            return result;
+        }
+    }
+
+    final class IntBinary extends BinaryNode { // int or char operands
+        IntBinary (Operator o, Expr l, Expr r) { super(o, l, r); }
+
+        Type eval( ) {
+            Type t1 = left.eval();
+            int x = ival;
+            Type t2 = right.eval();
+            if (!isInt(t1) || !isInt(t2)) return generic();
+            int y = ival;
+            switch (op.code) {
+              case PLUS:  ival = x + y; return Type.INT;
+              case MINUS: ival = x - y; return Type.INT;
+              case TIMES: ival = x * y; return Type.INT;
+              case DIV:   ival = x / y; return Type.INT;
+              case LT: ival = x < y ? 1 : 0; break;
+              case LE: ival = x <= y ? 1 : 0; break;
+              case EQ: ival = x == y ? 1 : 0; break;
+              case NE: ival = x != y ? 1 : 0; break;
+              case GT: ival = x > y ? 1 : 0; break;
+              default: ival = x >= y ? 1 : 0; break;
+            }
+            return Type.BOOL;
+        }
+    }
+
+    final class FloatBinary extends BinaryNode { // float, maybe with int
+        FloatBinary (Operator o, Expr l, Expr r) { super(o, l, r); }
+
+        Type eval( ) {
+            Type t1 = left.eval();
+            float x = t1 == Type.FLOAT ? fval : ival;
+            Type t2 = right.eval();
+            if ((t1 != Type.FLOAT && t2 != Type.FLOAT)
+                || (t1 != Type.FLOAT && !isInt(t1))
+                || (t2 != Type.FLOAT && !isInt(t2)))
+                return generic();
+            float y = t2 == Type.FLOAT ? fval : ival;
+            switch (op.code) {
+              case PLUS:  fval = x + y; return Type.FLOAT;
+              case MINUS: fval = x - y; return Type.FLOAT;
+              case TIMES: fval = x * y; return Type.FLOAT;
+              case DIV:   fval = x / y; return Type.FLOAT;
+              case LT: ival = x < y ? 1 : 0; break;
+              case LE: ival = x <= y ? 1 : 0; break;
+              case EQ: ival = x == y ? 1 : 0; break;
+              case NE: ival = x != y ? 1 : 0; break;
+              case GT: ival = x > y ? 1 : 0; break;
+              default: ival = x >= y ? 1 : 0; break;
+            }
+            return Type.BOOL;
+        }
+    }
+
+    final class BoolCompare extends BinaryNode { // relations on two bools
+        BoolCompare (Operator o, Expr l, Expr r) { super(o, l, r); }
+
+        Type eval( ) {
+            Type t1 = left.eval();
+            int x = ival;
+            Type t2 = right.eval();
+            if (t1 != Type.BOOL || t2 != Type.BOOL) return generic();
+            int y = ival;
+            switch (op.code) {
+              case LT: ival = x < y ? 1 : 0; break;
+              case LE: ival = x <= y ? 1 : 0; break;
+              case EQ: ival = x == y ? 1 : 0; break;
+              case NE: ival = x != y ? 1 : 0; break;
+              case GT: ival = x > y ? 1 : 0; break;
+              default: ival = x >= y ? 1 : 0; break;
+            }
+            return Type.BOOL;
+        }
+    }
+
+    abstract class UnaryNode extends Expr {
+        final Operator op;
+        Expr term;
+
+        UnaryNode (Operator o, Expr t) { op = o; term = child(t); }
+
+        void adopt (Node old, Node neu) {
+            if (term == old) term = (Expr) neu;
+            else super.adopt(old, neu);
+        }
+
+        Type generic( ) { return deoptimise(new GenericUnary(op, term, true)); }
+    }
+
+    final class GenericUnary extends UnaryNode {
+        final boolean megamorphic;
+
+        GenericUnary (Operator o, Expr t, boolean m) { super(o, t); megamorphic = m; }
+
+        Type eval( ) {
+            Type t = term.eval();
+            Type result = operate(op, t);
+            if (!megamorphic)
+                specialise(new TypedUnary(op, term, t));
+            return result;
+        }
+    }
+
+    final class TypedUnary extends UnaryNode { // for one operand type
+        final Type expect;   // int and char treated alike
+        final Opcode code;
+
+        TypedUnary (Operator o, Expr t, Type e) {
+            super(o, t);
+            expect = e == Type.CHAR ? Type.INT : e;
+            code = o.code;
+        }
+
+        Type eval( ) {
+            Type t = term.eval();
+            if ((t == Type.CHAR ? Type.INT : t) != expect) return generic();
+            switch (code) {
+              case NOT: ival ^= 1; return Type.BOOL;
+              case NEG:
+                if (t == Type.FLOAT) { fval = -fval; return t; }
+                ival = -ival; return Type.INT;
+              case INT:
+                if (t == Type.FLOAT) ival = (int) fval;
+                return Type.INT;
+              case FLOAT:
+                if (t != Type.FLOAT) fval = ival;
+                return Type.FLOAT;
+              default:   // CHAR
+                ival = (char) ival;
+                return Type.CHAR;
+            }
+        }
+    }
+
+    // Statements
+
+    final class Assign extends Stmt {
+        final Variable target;
+        Expr source;
+
+        Assign (Variable v, Expr e) { target = v; source = child(e); }
+
+        void adopt (Node old, Node neu) {
+            if (source == old) source = (Expr) neu;
+            else super.adopt(old, neu);
+        }
+
+        void exec( ) { store(target, source.eval()); }
+    }
+
+    final class AssignElement extends Stmt {
+        final Variable array;
+        Expr index, source;
+
+        AssignElement (Variable a, Expr i, Expr e) {
+            array = a; index = child(i); source = child(e);
+        }
+
+        void adopt (Node old, Node neu) {
+            if (index == old) index = (Expr) neu;
+            else if (source == old) source = (Expr) neu;
+            else super.adopt(old, neu);
+        }
+
+        void exec( ) {
+            int k = position(array, index.eval());
+            storeElement(array, k, source.eval());
+        }
+    }
+
+    final class Drop extends Stmt { // a CallStatement
+        final Call call;
+
+        Drop (Call c) { call = c; }
+
+        void exec( ) { call(call); }
+    }
+
+    final class Seq extends Stmt {
+        final Stmt[] members;
+
+        Seq (Stmt[] m) {
+            members = m;
+            for (Stmt s : m) child(s);
+        }
+
+        void exec( ) {
+            for (Stmt s : members)
+                s.exec();
+        }
+    }
+
+    final class While extends Stmt {
+        Expr test;
+        final Stmt body;
+
+        While (Expr t, Stmt b) { test = child(t); body = child(b); }
+
+        void adopt (Node old, Node neu) {
+            if (test == old) test = (Expr) neu;
+            else super.adopt(old, neu);
+        }
+
+        void exec( ) {
+            while (test(test))
+                body.exec();
+        }
+    }
+
+    final class If extends Stmt {
+        Expr test;
+        final Stmt then, otherwise;   // otherwise may be null
+
+        If (Expr t, Stmt a, Stmt b) {
+            test = child(t); then = child(a);
+            otherwise = b == null ? null : child(b);
+        }
+
+        void adopt (Node old, Node neu) {
+            if (test == old) test = (Expr) neu;
+            else super.adopt(old, neu);
+        }
+
+        void exec( ) {
+            if (test(test)) then.exec();
+            else if (otherwise != null) otherwise.exec();
+        }
+    }
+
+    public static void main (String args[]) {
+        // java SpecializingInterpreter [-s] [-v] file
+        //   -s: stack-safe parsing (see Parser.stackSafe)
+        //   -v: report node rewrites on stderr
+        Frontend fe = new Frontend();
+        boolean verbose = false;
+        int a = 0;
+        for (; args[a].startsWith("-"); a++)
+            if (args[a].equals("-s")) fe.setStackSafe(true);
+            else if (args[a].equals("-v")) verbose = true;
+        Compilation c = fe.compile(Paths.get(args[a]));
+        if (!c.succeeded()) {
+            System.err.println(c.diagnostics().get(0));
+            System.exit(1);
+        }
+        SpecializingInterpreter interp;
+        try {
+            interp = new SpecializingInterpreter(c.program());
+            interp.run();
+        } catch (IllegalArgumentException | IllegalStateException
+                 | ArithmeticException e) {
+            System.err.println("Runtime error: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        interp.display();
+        if (verbose)
+            System.err.println(interp.specialised + " nodes specialised, "
+                               + interp.deoptimised + " deoptimised");
+    } // main
+
+} // SpecializingInterpreter
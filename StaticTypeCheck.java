@@ -0,0 +1,315 @@
+// Static type checking for C++Lite is defined by the functions
+// V and the auxiliary functions typing and typeOf.  These
+// functions use the classes in the Abstract Syntax of C++Lite.
+
+import java.util.*;
+
+public class StaticTypeCheck {
+    // Type rules, as in the Interpreter: char widens to int, and int
+    // or char to float, in operands and in assignments.  The
+    // relational operators also apply to two chars or two bools.
+    // An array is used only through an element, a[i], whose index is
+    // an int or char and whose type is the array's element type.
+    // A function sees only its parameters and locals.  Arguments are
+    // assigned to parameters, and a return's result to the function's
+    // type, under the same rules as assignments.  A violation stops
+    // the check with a CompileError at the Statement that holds it.
+    // typeOf keeps the type of each operator node in the TypeMap, so
+    // V and TypeTransformer type each node once.
+
+    public static TypeMap typing (Declarations d) {
+        TypeMap map = new TypeMap();
+        for (Declaration di : d)
+            map.put (di.v, di.t);
+        return map;
+    }
+
+    public static TypeMap typing (Program p) { // main's, with p's functions
+        TypeMap map = typing(p.decpart);
+        map.functions = p.functions;
+        return map;
+    }
+
+    public static TypeMap typing (Function f, Functions fs) {
+        TypeMap map = typing(variables(f));
+        map.functions = fs;
+        map.function = f;
+        return map;
+    }
+
+    static Declarations variables (Function f) { // parameters, then locals
+        Declarations d = new Declarations();
+        d.addAll(f.params);
+        d.addAll(f.locals);
+        return d;
+    }
+
+    public static void check (boolean test, String msg) {
+        if (test)  return;
+        throw new CompileError(new Diagnostic(0, 0, "Type error: " + msg));
+    }
+
+    static boolean numeric (Type t) {
+        return t == Type.INT || t == Type.CHAR || t == Type.FLOAT;
+    }
+
+    public static void V (Declarations d) {
+        Set<Variable> seen = new HashSet<Variable>();
+        for (Declaration di : d)
+            check( seen.add(di.v),
+                   "duplicate declaration: " + di.v.name());
+    }
+
+    public static void V (Program p) {
+        V (p.decpart);
+        Set<String> names = new HashSet<String>();
+        for (Function f : p.functions) {
+            check( names.add(f.id), "duplicate function: " + f.id);
+            V (variables(f));
+        }
+        V (p.body, typing (p));
+        for (Function f : p.functions)
+            V (f.body, typing (f, p.functions));
+    }
+
+    public static Type typeOf (Expression e, TypeMap tm) {
+        if (e instanceof Binary || e instanceof Unary || e instanceof Call) {
+            Type t = tm.types.get(e);
+            if (t == null) {
+                t = type(e, tm);
+                tm.types.put(e, t);
+            }
+            return t;
+        }
+        return type(e, tm);
+    }
+
+    private static Type type (Expression e, TypeMap tm) { // typeOf, unmemoised
+        if (e instanceof Value) return ((Value)e).type();
+        if (e instanceof Variable) {
+            Variable v = (Variable)e;
+            check (tm.containsKey(v), "undefined variable: " + v.name());
+            return tm.get(v);
+        }
+        if (e instanceof ArrayRef) {
+            Variable a = ((ArrayRef)e).array;
+            check (tm.containsKey(a), "undefined variable: " + a.name());
+            check (tm.get(a).isArray( ), "not an array: " + a.name());
+            return tm.get(a).element( );
+        }
+        if (e instanceof Call) {
+            Function f = tm.functions.get(((Call)e).name);
+            check (f != null, "undefined function: " + ((Call)e).name);
+            return f.t;
+        }
+        if (e instanceof Binary) {
+            Binary b = (Binary)e;
+            if (b.op.ArithmeticOp( ))
+                if (typeOf(b.term1,tm) == Type.FLOAT
+                    || typeOf(b.term2,tm) == Type.FLOAT)
+                    return Type.FLOAT;
+                else return Type.INT;
+            return Type.BOOL;      // relational and boolean operators
+        }
+        if (e instanceof Unary) {
+            Unary u = (Unary)e;
+            if (u.op.NotOp( ))        return Type.BOOL;
+            else if (u.op.NegateOp( ))
+                return typeOf(u.term,tm) == Type.FLOAT ? Type.FLOAT : Type.INT;
+            else if (u.op.intOp( ))    return Type.INT;
+            else if (u.op.floatOp( )) return Type.FLOAT;
+            else if (u.op.charOp( ))  return Type.CHAR;
+        }
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    public static void V (Expression e, TypeMap tm) {
+        if (e instanceof Value)
+            return;
+        if (e instanceof Variable) {
+            Variable v = (Variable)e;
+            check( tm.containsKey(v), "undeclared variable: " + v.name());
+            check( !tm.get(v).isArray( ),
+                   "array used without an index: " + v.name());
+            return;
+        }
+        if (e instanceof ArrayRef) {
+            ArrayRef r = (ArrayRef) e;
+            check( tm.containsKey(r.array), "undeclared variable: " + r.array.name());
+            check( tm.get(r.array).isArray( ), "not an array: " + r.array.name());
+            V (r.index, tm);
+            Type typ = typeOf(r.index, tm);
+            check( typ == Type.INT || typ == Type.CHAR,
+                   "index of " + r.array.name() + " is not an int: " + typ);
+            return;
+        }
+        if (e instanceof Call) {
+            Call c = (Call) e;
+            check( call(c, tm).t != Type.VOID, c.name + " returns no value");
+            return;
+        }
+        if (e instanceof Binary) {
+            Binary b = (Binary) e;
+            V (b.term1, tm);
+            V (b.term2, tm);
+            Type typ1 = typeOf(b.term1, tm);
+            Type typ2 = typeOf(b.term2, tm);
+            if (b.op.ArithmeticOp( ))
+                check( numeric(typ1) && numeric(typ2),
+                       "type error for " + b.op + ": " + typ1 + ", " + typ2);
+            else if (b.op.RelationalOp( ))
+                check( (numeric(typ1) && numeric(typ2)) || typ1 == typ2,
+                       "type error for " + b.op + ": " + typ1 + ", " + typ2);
+            else if (b.op.BooleanOp( ))
+                check( typ1 == Type.BOOL && typ2 == Type.BOOL,
+                       b.op + ": non-bool operand");
+            else
+                throw new IllegalArgumentException("should never reach here");
+            return;
+        }
+        if (e instanceof Unary) {
+            Unary u = (Unary) e;
+            V (u.term, tm);
+            Type typ = typeOf(u.term, tm);
+            if (u.op.NotOp( ))
+                check( typ == Type.BOOL, "! has non-bool operand");
+            else if (u.op.NegateOp( ) || u.op.intOp( ) || u.op.floatOp( ))
+                check( numeric(typ), "type error for " + u.op + ": " + typ);
+            else if (u.op.charOp( ))
+                check( typ == Type.INT || typ == Type.CHAR,
+                       "type error for " + u.op + ": " + typ);
+            else
+                check( false, "no conversion " + u.op + "( ) from " + typ);
+            return;
+        }
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    private static Function call (Call c, TypeMap tm) { // its arguments; the callee
+        Function f = tm.functions.get(c.name);
+        check( f != null, "undefined function: " + c.name);
+        check( c.args.size() == f.params.size(), c.name + " takes "
+               + f.params.size() + " arguments, not " + c.args.size());
+        for (int i = 0; i < c.args.size(); i++) {
+            Declaration p = f.params.get(i);
+            V (c.args.get(i), tm);
+            assignable(p.t, typeOf(c.args.get(i), tm),
+                       "parameter " + p.v.name() + " of " + c.name);
+        }
+        return f;
+    }
+
+    private static void assignable (Type ttype, Type srctype, String target) {
+        if (ttype == srctype) return;
+        if (ttype == Type.FLOAT)
+            check( srctype == Type.INT || srctype == Type.CHAR,
+                   "mixed mode assignment to " + target);
+        else if (ttype == Type.INT)
+            check( srctype == Type.CHAR, "mixed mode assignment to " + target);
+        else
+            check( false, "mixed mode assignment to " + target);
+    }
+
+    public static void V (Statement s, TypeMap tm) {
+        if ( s == null )
+            throw new IllegalArgumentException( "AST error: null statement");
+        try {
+            statement(s, tm);
+        } catch (CompileError e) { // placed at the innermost Statement
+            if (e.diagnostic().line() != 0) throw e;
+            throw new CompileError(new Diagnostic(s.line, s.column,
+                                                  e.diagnostic().message()));
+        }
+    }
+
+    private static void statement (Statement s, TypeMap tm) {
+        if (s instanceof Skip) return;
+        if (s instanceof Assignment) {
+            Assignment a = (Assignment)s;
+            Variable target = a.target;
+            check( tm.containsKey(target),
+                   "undefined target in assignment: " + target.name());
+            check( !tm.get(target).isArray( ),
+                   "assignment to array without an index: " + target.name());
+            V(a.source, tm);
+            assignable(tm.get(target), typeOf(a.source, tm), target.name());
+            return;
+        }
+        if (s instanceof ArrayAssignment) {
+            ArrayAssignment a = (ArrayAssignment)s;
+            V(a.target, tm);
+            V(a.source, tm);
+            assignable(typeOf(a.target, tm), typeOf(a.source, tm),
+                       a.target.array.name() + "[ ]");
+            return;
+        }
+        if (s instanceof Conditional) {
+            Conditional c = (Conditional)s;
+            V (c.test, tm);
+            check( typeOf(c.test, tm) == Type.BOOL, "test is not a bool");
+            V (c.thenbranch, tm);
+            if (c.elsebranch != null)
+                V (c.elsebranch, tm);
+            return;
+        }
+        if (s instanceof Loop) {
+            Loop l = (Loop)s;
+            V (l.test, tm);
+            check( typeOf(l.test, tm) == Type.BOOL, "test is not a bool");
+            V (l.body, tm);
+            return;
+        }
+        if (s instanceof Block) {
+            for (Statement m : ((Block)s).members)
+                V (m, tm);
+            return;
+        }
+        if (s instanceof CallStatement) {
+            call(((CallStatement)s).call, tm);
+            return;
+        }
+        if (s instanceof Return) {
+            Return r = (Return)s;
+            check( tm.function != null, "return outside a function");
+            if (tm.function.t == Type.VOID) {
+                check( r.result == null, tm.function.id + " returns no value");
+                return;
+            }
+            check( r.result != null, "the result of " + tm.function.id
+                   + " is missing");
+            V (r.result, tm);
+            assignable(tm.function.t, typeOf(r.result, tm),
+                       "the result of " + tm.function.id);
+            return;
+        }
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    public static void main(String args[]) {
+        // java StaticTypeCheck [-s] file
+        Frontend fe = new Frontend();
+        int a = 0;
+        if (args[a].equals("-s")) {
+            fe.setStackSafe(true);
+            a++;
+        }
+        Compilation c = fe.compile(java.nio.file.Paths.get(args[a]));
+        if (!c.succeeded()) {
+            System.err.println(c.diagnostics().get(0));
+            System.exit(1);
+        }
+        Program prog = c.program();
+        System.out.println("\nBegin type checking...");
+        System.out.println("Type map:");
+        TypeMap map = typing(prog.decpart);
+        map.display();
+        try {
+            V(prog);
+        } catch (CompileError e) {
+            System.err.println(e.diagnostic());
+            System.exit(1);
+        }
+        System.out.println("No type errors");
+    } //main
+
+} // class StaticTypeCheck
@@ -0,0 +1,103 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+class Symbols {
+    // Compilation-scoped identifier pool.  Each distinct name is
+    // interned once as a canonical Variable carrying a dense index
+    // (0, 1, 2, ... in order of first appearance), so later stages can
+    // compare names with one int compare and use the index as a slot.
+    // Names can be looked up from a String or straight from a source
+    // range; a String is only built the first time a name is seen.
+
+    private Variable[] table = new Variable[64];  // open addressing
+    private int[] hashes = new int[64];
+    private Variable[] byIndex = new Variable[16];
+    private int size = 0;
+
+    public int size( ) { return size; }
+
+    public Variable get (int index) { return byIndex[index]; }
+
+    public Variable intern (String name) {
+        int h = name.hashCode();
+        int mask = table.length - 1;
+        for (int i = h & mask; table[i] != null; i = (i + 1) & mask) {
+            String s = table[i].name();
+            if (hashes[i] == h && (s == name || s.equals(name)))
+                return table[i];
+        }
+        return add(name, h);
+    }
+
+    public Variable intern (CharSequence src, int start, int len) {
+        int h = 0;
+        for (int k = 0; k < len; k++)
+            h = 31 * h + src.charAt(start + k);
+        int mask = table.length - 1;
+        for (int i = h & mask; table[i] != null; i = (i + 1) & mask)
+            if (hashes[i] == h && matches(table[i].name(), src, start, len))
+                return table[i];
+        return add(src.subSequence(start, start + len).toString(), h);
+    }
+
+    public Variable intern (ByteBuffer src, int start, int len) {
+        int h = 0;
+        for (int k = 0; k < len; k++)
+            h = 31 * h + (src.get(start + k) & 0xff);
+        int mask = table.length - 1;
+        for (int i = h & mask; table[i] != null; i = (i + 1) & mask)
+            if (hashes[i] == h && matches(table[i].name(), src, start, len))
+                return table[i];
+        char[] r = new char[len];
+        for (int k = 0; k < len; k++)
+            r[k] = (char) (src.get(start + k) & 0xff);
+        return add(new String(r), h);
+    }
+
+    private static boolean matches (String s, CharSequence src, int start, int len) {
+        if (s.length() != len) return false;
+        for (int k = 0; k < len; k++)
+            if (s.charAt(k) != src.charAt(start + k)) return false;
+        return true;
+    }
+
+    private static boolean matches (String s, ByteBuffer src, int start, int len) {
+        if (s.length() != len) return false;
+        for (int k = 0; k < len; k++)
+            if (s.charAt(k) != (src.get(start + k) & 0xff)) return false;
+        return true;
+    }
+
+    private Variable add (String name, int h) {
+        if (size == byIndex.length)
+            byIndex = Arrays.copyOf(byIndex, size * 2);
+        if (2 * (size + 1) > table.length)
+            rehash();
+        Variable v = new Variable(name, this, size);
+        byIndex[size++] = v;
+        int mask = table.length - 1;
+        int i = h & mask;
+        while (table[i] != null)
+            i = (i + 1) & mask;
+        table[i] = v;
+        hashes[i] = h;
+        return v;
+    }
+
+    private void rehash( ) {
+        Variable[] old = table;
+        int[] oldHashes = hashes;
+        table = new Variable[old.length * 2];
+        hashes = new int[old.length * 2];
+        int mask = table.length - 1;
+        for (int j = 0; j < old.length; j++) {
+            if (old[j] == null) continue;
+            int i = oldHashes[j] & mask;
+            while (table[i] != null)
+                i = (i + 1) & mask;
+            table[i] = old[j];
+            hashes[i] = oldHashes[j];
+        }
+    }
+
+} // Symbols
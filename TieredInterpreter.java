@@ -0,0 +1,164 @@
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Paths;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+public class TieredInterpreter extends Interpreter {
+    // Starts a type-checked Program in the Interpreter and counts the
+    // iterations of each Loop.  When a Loop reaches the threshold, the
+    // Loop alone is typed (TypeTransformer), compiled to JVM bytecode
+    // (JvmCompiler) and run from where it stands: the interpreter has
+    // just finished an iteration, and the compiled code starts with
+    // the test.  Later entries to that Loop go straight to its code.
+    // Straight-line setup is never compiled, so startup costs only
+    // parsing and type checking, and compilation is paid for only
+    // where the time goes.
+    //
+    // State is copied to the compiled code and back on each entry:
+    // the Interpreter keeps it by slot, compiled code by declaration
+    // number.  A variable that is defined stays defined, so the
+    // variables defined when a Loop is compiled are treated as
+    // definitely assigned in its code on every later entry.  Arrays
+    // are not copied: the compiled code is given the Interpreter's
+    // own.  A Loop too big for one method goes on being interpreted,
+    // as do Loops in function bodies.  A compiled Loop's class has a
+    // method for each function, so its calls run compiled too.
+
+    static final int THRESHOLD = 1000;   // default iterations
+
+    private final int threshold;
+    private final TypeMap tm;
+    private final Functions functions;   // typed, for compiled Loops
+    private final Declarations decpart;
+    private final int[] slots;           // by declaration number
+    private final int[] ivars, dvars;    // transfer arrays
+    private final float[] fvars;
+    private final Object[] avars;        // arrays, shared
+    private final Map<Loop, int[]> counts = new IdentityHashMap<Loop, int[]>();
+    private final Map<Loop, MethodHandle> compiled =
+        new IdentityHashMap<Loop, MethodHandle>();
+    int compilations;                    // for -v
+
+    TieredInterpreter (Program p, int threshold) {
+        super(p);
+        this.threshold = threshold;
+        decpart = p.decpart;
+        tm = StaticTypeCheck.typing(p);
+        functions = TypeTransformer.T(p, tm).functions;
+        int n = decpart.size();
+        slots = new int[n];
+        for (int v = 0; v < n; v++)
+            slots[v] = decpart.get(v).v.index();
+        ivars = new int[n];
+        fvars = new float[n];
+        dvars = new int[n];
+        avars = new Object[n];
+        for (int v = 0; v < n; v++) {
+            int s = slots[v];
+            avars[v] = floatArrays[s] != null ? floatArrays[s]
+                : charArrays[s] != null ? charArrays[s] : intArrays[s];
+        }
+    }
+
+    void execute (Statement s) {
+        if (!(s instanceof Loop) || fp != 0) { // functions stay interpreted
+            super.execute(s);
+            return;
+        }
+        Loop l = (Loop) s;
+        MethodHandle code = compiled.get(l);
+        if (code == null) {
+            int[] n = counts.get(l);
+            if (n == null) counts.put(l, n = new int[1]);
+            while (test(l.test)) {
+                execute(l.body);
+                if (++n[0] == threshold) {
+                    code = compile(l);
+                    if (code != null) break;
+                }
+            }
+            if (code == null) return;
+        }
+        call(code);
+    }
+
+    private MethodHandle compile (Loop l) {
+        BitSet known = new BitSet();
+        for (int v = 0; v < slots.length; v++)
+            if (defined[slots[v]]) known.set(v);
+        byte[] classFile;
+        try {
+            classFile = JvmCompiler.compile(decpart, TypeTransformer.T(l, tm), known,
+                                            functions);
+        } catch (CompileError e) { // too big: stay interpreted
+            return null;
+        }
+        MethodHandle code = JvmCompiler.load(classFile);
+        compiled.put(l, code);
+        compilations++;
+        return code;
+    }
+
+    private void call (MethodHandle code) {
+        for (int v = 0; v < slots.length; v++) {
+            int s = slots[v];
+            ivars[v] = ints[s];
+            fvars[v] = floats[s];
+            dvars[v] = defined[s] ? 1 : 0;
+        }
+        try {
+            code.invokeExact(ivars, fvars, dvars, avars);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+        for (int v = 0; v < slots.length; v++) {
+            int s = slots[v];
+            ints[s] = ivars[v];
+            floats[s] = fvars[v];
+            defined[s] = dvars[v] != 0;
+        }
+    }
+
+    public static void main (String args[]) {
+        // java TieredInterpreter [-s] [-t threshold] [-v] file
+        //   -s: stack-safe parsing (see Parser.stackSafe)
+        //   -t: iterations before a Loop is compiled (default 1000)
+        //   -v: report the number of Loops compiled on stderr
+        Frontend fe = new Frontend();
+        int threshold = THRESHOLD;
+        boolean verbose = false;
+        int a = 0;
+        for (; args[a].startsWith("-"); a++)
+            if (args[a].equals("-s")) fe.setStackSafe(true);
+            else if (args[a].equals("-t")) threshold = Integer.parseInt(args[++a]);
+            else if (args[a].equals("-v")) verbose = true;
+        Compilation c = fe.compile(Paths.get(args[a]));
+        if (!c.succeeded()) {
+            System.err.println(c.diagnostics().get(0));
+            System.exit(1);
+        }
+        try {
+            StaticTypeCheck.V(c.program());
+        } catch (CompileError e) {
+            System.err.println(e.diagnostic());
+            System.exit(1);
+        }
+        TieredInterpreter interp;
+        try {
+            interp = new TieredInterpreter(c.program(), threshold);
+            interp.run();
+        } catch (IllegalArgumentException | IllegalStateException
+                 | ArithmeticException e) {
+            System.err.println("Runtime error: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        interp.display();
+        if (verbose)
+            System.err.println(interp.compilations + " loops compiled");
+    } // main
+
+} // TieredInterpreter
@@ -2,54 +2,89 @@ public class Token {
 
     private static final int KEYWORDS = TokenType.Eof.ordinal();
 
+    // The tables below are filled only by fixed(), and fixed() is only
+    // called from the static initializers of this class.  Class
+    // initialization runs once under the JVM's initialization lock and
+    // completes before any other thread can use Token (JLS 12.4.2), so
+    // every thread sees the tables complete, and they are never written
+    // again.  Lexers and Parsers on many threads can share them freely.
     private static final String[] reserved = new String[KEYWORDS];
-    private static Token[] token = new Token[KEYWORDS];
-
-    public static final Token eofTok = new Token(TokenType.Eof, "<<EOF>>");
-    public static final Token boolTok = new Token(TokenType.Bool, "bool");
-    public static final Token charTok = new Token(TokenType.Char, "char");
-    public static final Token elseTok = new Token(TokenType.Else, "else");
-    public static final Token falseTok = new Token(TokenType.False, "false");
-    public static final Token floatTok = new Token(TokenType.Float, "float");
-    public static final Token ifTok = new Token(TokenType.If, "if");
-    public static final Token intTok = new Token(TokenType.Int, "int");
-    public static final Token mainTok = new Token(TokenType.Main, "main");
-    public static final Token trueTok = new Token(TokenType.True, "true");
-    public static final Token whileTok = new Token(TokenType.While, "while");
-    public static final Token leftBraceTok = new Token(TokenType.LeftBrace, "{");
-    public static final Token rightBraceTok = new Token(TokenType.RightBrace, "}");
-    public static final Token leftBracketTok = new Token(TokenType.LeftBracket, "[");
-    public static final Token rightBracketTok = new Token(TokenType.RightBracket, "]");
-    public static final Token leftParenTok = new Token(TokenType.LeftParen, "(");
-    public static final Token rightParenTok = new Token(TokenType.RightParen, ")");
-    public static final Token semicolonTok = new Token(TokenType.Semicolon, ";");
-    public static final Token commaTok = new Token(TokenType.Comma, ",");
-    public static final Token assignTok = new Token(TokenType.Assign, "=");
-    public static final Token eqeqTok = new Token(TokenType.Equals, "==");
-    public static final Token ltTok = new Token(TokenType.Less, "<");
-    public static final Token lteqTok = new Token(TokenType.LessEqual, "<=");
-    public static final Token gtTok = new Token(TokenType.Greater, ">");
-    public static final Token gteqTok = new Token(TokenType.GreaterEqual, ">=");
-    public static final Token notTok = new Token(TokenType.Not, "!");
-    public static final Token noteqTok = new Token(TokenType.NotEqual, "!=");
-    public static final Token plusTok = new Token(TokenType.Plus, "+");
-    public static final Token minusTok = new Token(TokenType.Minus, "-");
-    public static final Token multiplyTok = new Token(TokenType.Multiply, "*");
-    public static final Token divideTok = new Token(TokenType.Divide, "/");
-    public static final Token andTok = new Token(TokenType.And, "&&");
-    public static final Token orTok = new Token(TokenType.Or, "||");
-
-    private TokenType type;
-    private String value = "";
+    private static final Token[] token = new Token[KEYWORDS];
+    private static final Token[] byType =
+        new Token[TokenType.Identifier.ordinal()];
+
+    public static final Token eofTok = fixed(TokenType.Eof, "<<EOF>>");
+    public static final Token boolTok = fixed(TokenType.Bool, "bool");
+    public static final Token charTok = fixed(TokenType.Char, "char");
+    public static final Token elseTok = fixed(TokenType.Else, "else");
+    public static final Token falseTok = fixed(TokenType.False, "false");
+    public static final Token floatTok = fixed(TokenType.Float, "float");
+    public static final Token ifTok = fixed(TokenType.If, "if");
+    public static final Token intTok = fixed(TokenType.Int, "int");
+    public static final Token mainTok = fixed(TokenType.Main, "main");
+    public static final Token returnTok = fixed(TokenType.Return, "return");
+    public static final Token trueTok = fixed(TokenType.True, "true");
+    public static final Token voidTok = fixed(TokenType.Void, "void");
+    public static final Token whileTok = fixed(TokenType.While, "while");
+    public static final Token leftBraceTok = fixed(TokenType.LeftBrace, "{");
+    public static final Token rightBraceTok = fixed(TokenType.RightBrace, "}");
+    public static final Token leftBracketTok = fixed(TokenType.LeftBracket, "[");
+    public static final Token rightBracketTok = fixed(TokenType.RightBracket, "]");
+    public static final Token leftParenTok = fixed(TokenType.LeftParen, "(");
+    public static final Token rightParenTok = fixed(TokenType.RightParen, ")");
+    public static final Token semicolonTok = fixed(TokenType.Semicolon, ";");
+    public static final Token commaTok = fixed(TokenType.Comma, ",");
+    public static final Token assignTok = fixed(TokenType.Assign, "=");
+    public static final Token eqeqTok = fixed(TokenType.Equals, "==");
+    public static final Token ltTok = fixed(TokenType.Less, "<");
+    public static final Token lteqTok = fixed(TokenType.LessEqual, "<=");
+    public static final Token gtTok = fixed(TokenType.Greater, ">");
+    public static final Token gteqTok = fixed(TokenType.GreaterEqual, ">=");
+    public static final Token notTok = fixed(TokenType.Not, "!");
+    public static final Token noteqTok = fixed(TokenType.NotEqual, "!=");
+    public static final Token plusTok = fixed(TokenType.Plus, "+");
+    public static final Token minusTok = fixed(TokenType.Minus, "-");
+    public static final Token multiplyTok = fixed(TokenType.Multiply, "*");
+    public static final Token divideTok = fixed(TokenType.Divide, "/");
+    public static final Token andTok = fixed(TokenType.And, "&&");
+    public static final Token orTok = fixed(TokenType.Or, "||");
+
+    // Keyword table: a perfect hash on (first char, last char, length)
+    // into 16 slots, checked for collisions when the class loads.  A
+    // hit still compares the spelling, so one probe classifies a word.
+    private static final Token[] hashed = new Token[16];
+
+    private static int hash (char first, char last, int len) {
+        return (first + 12 * last + len) & 15;
+    }
+
+    static {
+        for (int i = 0; i < KEYWORDS; i++) {
+            String w = reserved[i];
+            int h = hash(w.charAt(0), w.charAt(w.length() - 1), w.length());
+            if (hashed[h] != null)
+                throw new ExceptionInInitializerError("keyword hash collision: " + w);
+            hashed[h] = token[i];
+        }
+    }
+
+    private final TokenType type;
+    private final String value;
 
     private Token (TokenType t, String v) {
         type = t;
         value = v;
+    }
+
+    private static Token fixed (TokenType t, String v) { // class init only
+        Token k = new Token(t, v);
+        int ti = t.ordinal();
         if (t.compareTo(TokenType.Eof) < 0) {
-            int ti = t.ordinal();
             reserved[ti] = v;
-            token[ti] = this;
+            token[ti] = k;
         }
+        byType[ti] = k;
+        return k;
     }
 
     public TokenType type( ) { return type; }
@@ -57,13 +92,42 @@ public class Token {
     public String value( ) { return value; }
 
     public static Token keyword  ( String name ) {
-        char ch = name.charAt(0);
-        if (ch >= 'A' && ch <= 'Z') return mkIdentTok(name);
-        for (int i = 0; i < KEYWORDS; i++)
-           if (name.equals(reserved[i]))  return token[i];
-        return mkIdentTok(name);
+        TokenType t = keywordType(name, 0, name.length());
+        if (t == TokenType.Identifier) return mkIdentTok(name);
+        return token[t.ordinal()];
     } // keyword
 
+    public static TokenType keywordType (CharSequence s, int start, int len) {
+        // Classify s[start, start+len) without building a String
+        char ch = s.charAt(start);
+        if (ch >= 'A' && ch <= 'Z') return TokenType.Identifier;
+        Token k = hashed[hash(ch, s.charAt(start + len - 1), len)];
+        if (k == null || k.value.length() != len)
+            return TokenType.Identifier;
+        for (int i = 0; i < len; i++)
+            if (s.charAt(start + i) != k.value.charAt(i))
+                return TokenType.Identifier;
+        return k.type;
+    } // keywordType
+
+    public static TokenType keywordType (java.nio.ByteBuffer b, int start, int len) {
+        // Same, for an ASCII byte range
+        char ch = (char) (b.get(start) & 0xff);
+        if (ch >= 'A' && ch <= 'Z') return TokenType.Identifier;
+        char last = (char) (b.get(start + len - 1) & 0xff);
+        Token k = hashed[hash(ch, last, len)];
+        if (k == null || k.value.length() != len)
+            return TokenType.Identifier;
+        for (int i = 0; i < len; i++)
+            if (b.get(start + i) != k.value.charAt(i))
+                return TokenType.Identifier;
+        return k.type;
+    } // keywordType
+
+    public static Token of (TokenType t) { // shared token of a fixed type
+        return byType[t.ordinal()];
+    }
+
     public static Token mkIdentTok (String name) {
         return new Token(TokenType.Identifier, name);
     }
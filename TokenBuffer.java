@@ -0,0 +1,106 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class TokenBuffer {
+    // Packed token stream: one entry per token, kept in parallel
+    // primitive arrays.  Spellings are not copied out of the source;
+    // text(i) builds a String only for identifiers and literals, and
+    // only when asked.
+
+    private ByteBuffer source;
+    private byte[] kinds;     // TokenType ordinals
+    private int[] starts;     // offset of the spelling in source
+    private int[] lengths;
+    private int[] lines;
+    private int[] cols;
+    private int size = 0;
+    private int lineCount = 0;  // source lines covered
+
+    static final int CAPACITY = 4096;   // default entries, about 68K
+
+    public TokenBuffer (ByteBuffer src) {
+        // grows by doubling: a short source costs little, and a long
+        // one is never preallocated at its worst-case token count
+        this(src, Math.max(16, Math.min(CAPACITY, src.remaining() / 4)));
+    }
+
+    public TokenBuffer (ByteBuffer src, int capacity) {
+        source = src;
+        kinds = new byte[capacity];
+        starts = new int[capacity];
+        lengths = new int[capacity];
+        lines = new int[capacity];
+        cols = new int[capacity];
+    }
+
+    public void add (TokenType t, int start, int length, int line, int col) {
+        if (size == kinds.length) grow();
+        kinds[size] = (byte) t.ordinal();
+        starts[size] = start;
+        lengths[size] = length;
+        lines[size] = line;
+        cols[size] = col;
+        size++;
+    }
+
+    void copy (TokenBuffer b, int count, int at, int lineOffset) {
+        // Copy b's first count tokens to position at, shifting their
+        // line numbers; the caller has sized this buffer already.
+        System.arraycopy(b.kinds, 0, kinds, at, count);
+        System.arraycopy(b.starts, 0, starts, at, count);
+        System.arraycopy(b.lengths, 0, lengths, at, count);
+        System.arraycopy(b.cols, 0, cols, at, count);
+        for (int i = 0; i < count; i++)
+            lines[at + i] = b.lines[i] + lineOffset;
+    }
+
+    void setSize (int n, int lines) { size = n; lineCount = lines; }
+
+    private void grow( ) {
+        int n = kinds.length * 2;
+        kinds = Arrays.copyOf(kinds, n);
+        starts = Arrays.copyOf(starts, n);
+        lengths = Arrays.copyOf(lengths, n);
+        lines = Arrays.copyOf(lines, n);
+        cols = Arrays.copyOf(cols, n);
+    }
+
+    private static final TokenType[] types = TokenType.values();
+
+    public int size( ) { return size; }
+
+    public int lineCount( ) { return lineCount; }
+
+    public ByteBuffer source( ) { return source; }
+
+    public TokenType type (int i) { return types[kinds[i]]; }
+
+    public int start (int i) { return starts[i]; }
+
+    public int length (int i) { return lengths[i]; }
+
+    public int line (int i) { return lines[i]; }
+
+    public int column (int i) { return cols[i]; }
+
+    public String text (int i) { // spelling of token i
+        TokenType t = type(i);
+        if (t.compareTo(TokenType.Identifier) < 0)
+            return Token.of(t).value();
+        char[] r = new char[lengths[i]];
+        for (int k = 0; k < r.length; k++)
+            r[k] = (char) (source.get(starts[i] + k) & 0xff);
+        return new String(r);
+    }
+
+    public Token token (int i) { // token i as a Token object
+        switch (type(i)) {
+        case Identifier:   return Token.mkIdentTok(text(i));
+        case IntLiteral:   return Token.mkIntLiteral(text(i));
+        case FloatLiteral: return Token.mkFloatLiteral(text(i));
+        case CharLiteral:  return Token.mkCharLiteral(text(i));
+        default:           return Token.of(type(i));
+        }
+    }
+
+} // TokenBuffer
@@ -0,0 +1,26 @@
+import java.util.*;
+
+class TypeMap extends LinkedHashMap<Variable, Type> {
+    // The declared Type of each Variable, as built by
+    // StaticTypeCheck.typing( ), in declaration order, with the
+    // Functions a Call may name and the Function whose body it types
+    // (null for main), and the types StaticTypeCheck.typeOf has found.
+
+    private static final long serialVersionUID = 1L;
+
+    Functions functions = new Functions();
+    Function function;
+    final IdentityHashMap<Expression, Type> types =   // see typeOf
+        new IdentityHashMap<Expression, Type>();
+
+    public void display ( ) {
+        StringBuilder disp = new StringBuilder("{ ");
+        String sep = "";
+        for (Map.Entry<Variable, Type> e : entrySet()) {
+            disp.append(sep).append("<").append(e.getKey().name())
+                .append(", ").append(e.getValue()).append(">");
+            sep = ", ";
+        }
+        System.out.println(disp.append(" }"));
+    }
+}
@@ -0,0 +1,170 @@
+// Type transformation for C++Lite: rewrites a type-checked Program so
+// that every operator is type specific (INT+, FLOAT<, ...) and every
+// implicit widening is an explicit C2I or I2F conversion.
+
+public class TypeTransformer {
+    // T expects a Program that has passed StaticTypeCheck.V.  The
+    // result shares the Variables and Values of its input; only the
+    // Statement and operator nodes are new.  Casts that change
+    // nothing, such as int(i) on an int, disappear.  Each argument
+    // of a Call is widened to its parameter's type, and each result
+    // of a Return to its function's.
+
+    public static Program T (Program p, TypeMap tm) {
+        // tm: main's typing, with p's functions (StaticTypeCheck.typing(p))
+        Block body = (Block)T(p.body, tm);
+        Functions functions = new Functions();
+        for (Function f : p.functions) {
+            TypeMap ftm = StaticTypeCheck.typing(f, p.functions);
+            functions.add(new Function(f.t, f.id, f.params, f.locals,
+                                       (Block)T(f.body, ftm)));
+        }
+        return new Program(p.decpart, body, functions);
+    }
+
+    static Expression widen (Expression e, Type from, Type to) {
+        // char -> int -> float, one conversion node per step
+        if (from == to)  return e;
+        if (from == Type.CHAR) {
+            e = new Unary(Operator.of(Opcode.C2I), e);
+            from = Type.INT;
+        }
+        if (from == to)  return e;
+        return new Unary(Operator.of(Opcode.I2F), e);
+    }
+
+    public static Expression T (Expression e, TypeMap tm) {
+        if (e instanceof Value)
+            return e;
+        if (e instanceof Variable)
+            return e;
+        if (e instanceof ArrayRef) {
+            ArrayRef r = (ArrayRef)e;
+            Type typ = StaticTypeCheck.typeOf(r.index, tm);
+            return new ArrayRef(r.array, widen(T (r.index, tm), typ, Type.INT));
+        }
+        if (e instanceof Call) {
+            Call c = (Call)e;
+            Function f = tm.functions.get(c.name);
+            java.util.ArrayList<Expression> args = new java.util.ArrayList<Expression>();
+            for (int i = 0; i < c.args.size(); i++) {
+                Expression a = c.args.get(i);
+                args.add(widen(T (a, tm), StaticTypeCheck.typeOf(a, tm),
+                               f.params.get(i).t));
+            }
+            return new Call(c.name, args);
+        }
+        if (e instanceof Binary) {
+            Binary b = (Binary)e;
+            Type typ1 = StaticTypeCheck.typeOf(b.term1, tm);
+            Type typ2 = StaticTypeCheck.typeOf(b.term2, tm);
+            Expression t1 = T (b.term1, tm);
+            Expression t2 = T (b.term2, tm);
+            if (b.op.BooleanOp( ))
+                return new Binary(b.op, t1, t2);
+            if (typ1 == Type.BOOL)
+                return new Binary(Operator.boolMap(b.op), t1, t2);
+            if (typ1 == Type.CHAR && typ2 == Type.CHAR && b.op.RelationalOp( ))
+                return new Binary(Operator.charMap(b.op), t1, t2);
+            if (typ1 == Type.FLOAT || typ2 == Type.FLOAT)
+                return new Binary(Operator.floatMap(b.op),
+                                  widen(t1, typ1, Type.FLOAT),
+                                  widen(t2, typ2, Type.FLOAT));
+            return new Binary(Operator.intMap(b.op),
+                              widen(t1, typ1, Type.INT),
+                              widen(t2, typ2, Type.INT));
+        }
+        if (e instanceof Unary) {
+            Unary u = (Unary)e;
+            Type typ = StaticTypeCheck.typeOf(u.term, tm);
+            Expression t = T (u.term, tm);
+            if (u.op.NotOp( ))
+                return new Unary(u.op, t);
+            if (u.op.NegateOp( ))
+                if (typ == Type.FLOAT)
+                    return new Unary(Operator.floatMap(u.op), t);
+                else
+                    return new Unary(Operator.intMap(u.op),
+                                     widen(t, typ, Type.INT));
+            if (u.op.intOp( ))
+                if (typ == Type.FLOAT)
+                    return new Unary(Operator.floatMap(u.op), t);
+                else
+                    return widen(t, typ, Type.INT);
+            if (u.op.floatOp( ))
+                return widen(t, typ, Type.FLOAT);
+            if (u.op.charOp( ))
+                if (typ == Type.INT)
+                    return new Unary(Operator.intMap(u.op), t);
+                else
+                    return t;
+        }
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    public static Statement T (Statement s, TypeMap tm) {
+        if (s instanceof Skip) return s;
+        if (s instanceof Assignment) {
+            Assignment a = (Assignment)s;
+            Variable target = a.target;
+            Type ttype = tm.get(target);
+            Type srctype = StaticTypeCheck.typeOf(a.source, tm);
+            Expression src = widen(T (a.source, tm), srctype, ttype);
+            return new Assignment(target, src);
+        }
+        if (s instanceof ArrayAssignment) {
+            ArrayAssignment a = (ArrayAssignment)s;
+            ArrayRef target = (ArrayRef) T (a.target, tm);
+            Type ttype = StaticTypeCheck.typeOf(a.target, tm);
+            Type srctype = StaticTypeCheck.typeOf(a.source, tm);
+            Expression src = widen(T (a.source, tm), srctype, ttype);
+            return new ArrayAssignment(target, src);
+        }
+        if (s instanceof Conditional) {
+            Conditional c = (Conditional)s;
+            Expression test = T (c.test, tm);
+            Statement tbr = T (c.thenbranch, tm);
+            Statement ebr = c.elsebranch == null ? null
+                          : T (c.elsebranch, tm);
+            return new Conditional(test, tbr, ebr);
+        }
+        if (s instanceof Loop) {
+            Loop l = (Loop)s;
+            return new Loop(T (l.test, tm), T (l.body, tm));
+        }
+        if (s instanceof Block) {
+            Block b = (Block)s;
+            Block out = new Block();
+            for (Statement stmt : b.members)
+                out.members.add(T(stmt, tm));
+            return out;
+        }
+        if (s instanceof CallStatement)
+            return new CallStatement((Call) T (((CallStatement)s).call, tm));
+        if (s instanceof Return) {
+            Expression result = ((Return)s).result;
+            if (result == null) return s;
+            Type srctype = StaticTypeCheck.typeOf(result, tm);
+            return new Return(widen(T (result, tm), srctype, tm.function.t));
+        }
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    public static void main(String args[]) {
+        // java TypeTransformer [-s] file: display the typed program
+        Frontend fe = new Frontend();
+        fe.setTyped(true);
+        int a = 0;
+        if (args[a].equals("-s")) {
+            fe.setStackSafe(true);
+            a++;
+        }
+        Compilation c = fe.compile(java.nio.file.Paths.get(args[a]));
+        if (!c.succeeded()) {
+            System.err.println(c.diagnostics().get(0));
+            System.exit(1);
+        }
+        c.program().display();
+    } //main
+
+} // class TypeTransformer
@@ -0,0 +1,320 @@
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+public class VM {
+    // Dispatch loop for Bytecode.  The int and float register files
+    // are plain arrays, set up from the constant pool; running
+    // allocates nothing but the arrays a function declares.  Arrays
+    // are primitive arrays by variable number, in one table per
+    // element representation.
+    //
+    // Each call runs in a window of the register files and tables:
+    // its frame starts at ib, fb and vb, just above its caller's, and
+    // every operand is relative to that base.  A call saves where to
+    // go back to on a stack of its own, not Java's, so recursion is
+    // as deep as DEPTH frames, and the files grow as it deepens.
+
+    static final int DEPTH = 1 << 20;   // frames, before "stack overflow"
+
+    private final Bytecode b;
+    private int[] ir;
+    private float[] fr;
+    private boolean[] defined;  // by variable number
+    private int[][] ia;         // int and bool arrays
+    private char[][] ca;
+    private float[][] fa;
+    private final int[] iargs;          // ARG and FARG values, for the
+    private final float[] fargs;        // next CALL
+    private int[] frames = new int[5 * 16];   // per call: pc, ib, fb, vb, dst
+    private Bytecode[] callers = new Bytecode[16];
+
+    VM (Bytecode bytecode) {
+        b = bytecode;
+        ir = new int[b.iregs];
+        fr = new float[b.fregs];
+        int n = b.vars.length;
+        defined = new boolean[n];
+        ia = new int[n][];
+        ca = new char[n][];
+        fa = new float[n][];
+        arrays(b, 0);
+        int params = 0;
+        for (Bytecode f : b.functions)
+            params = Math.max(params, f.function.params.size());
+        iargs = new int[params];
+        fargs = new float[params];
+        System.arraycopy(b.iconsts, 0, ir, b.iconstBase, b.iconsts.length);
+        System.arraycopy(b.fconsts, 0, fr, b.fconstBase, b.fconsts.length);
+    }
+
+    private void arrays (Bytecode u, int vb) { // u's arrays, zeroed, from vb
+        for (int v = 0; v < u.vars.length; v++)
+            if (u.types[v].isArray()) {
+                Object a = ArrayValue.storage(u.types[v]);
+                if (a instanceof float[]) fa[vb + v] = (float[]) a;
+                else if (a instanceof char[]) ca[vb + v] = (char[]) a;
+                else ia[vb + v] = (int[]) a;
+            }
+    }
+
+    private void enter (Bytecode f, int ib, int fb, int vb) {
+        // f's frame at ib, fb and vb, with its arguments
+        if (ib + f.iregs > ir.length)
+            ir = Arrays.copyOf(ir, Math.max(ib + f.iregs, 2 * ir.length));
+        if (fb + f.fregs > fr.length)
+            fr = Arrays.copyOf(fr, Math.max(fb + f.fregs, 2 * fr.length));
+        int n = f.vars.length;
+        if (vb + n > defined.length) {
+            int size = Math.max(vb + n, 2 * defined.length);
+            defined = Arrays.copyOf(defined, size);
+            ia = Arrays.copyOf(ia, size);
+            ca = Arrays.copyOf(ca, size);
+            fa = Arrays.copyOf(fa, size);
+        }
+        System.arraycopy(f.iconsts, 0, ir, ib + f.iconstBase, f.iconsts.length);
+        System.arraycopy(f.fconsts, 0, fr, fb + f.fconstBase, f.fconsts.length);
+        int params = f.function.params.size();
+        Arrays.fill(defined, vb, vb + params, true);
+        Arrays.fill(defined, vb + params, vb + n, false);
+        arrays(f, vb);
+        for (int v = 0, i = 0, k = 0; v < params; v++)
+            if (f.types[v] == Type.FLOAT) fr[fb + f.regs[v]] = fargs[k++];
+            else ir[ib + f.regs[v]] = iargs[i++];
+    }
+
+    public void run ( ) {
+        Bytecode cur = b;   // the unit running, and its frame
+        int[] code = b.code;
+        int ib = 0, fb = 0, vb = 0;
+        int depth = 0;      // calls
+        int[] ir = this.ir;
+        float[] fr = this.fr;
+        int[][] ia = this.ia;
+        char[][] ca = this.ca;
+        float[][] fa = this.fa;
+        int pc = 0;
+        while (true) {
+            switch (code[pc]) {
+              case Bytecode.HALT:
+                return;
+              case Bytecode.MOV:
+                ir[ib+code[pc+1]] = ir[ib+code[pc+2]]; pc += 3; break;
+              case Bytecode.FMOV:
+                fr[fb+code[pc+1]] = fr[fb+code[pc+2]]; pc += 3; break;
+              case Bytecode.IADD:
+                ir[ib+code[pc+1]] = ir[ib+code[pc+2]] + ir[ib+code[pc+3]]; pc += 4; break;
+              case Bytecode.ISUB:
+                ir[ib+code[pc+1]] = ir[ib+code[pc+2]] - ir[ib+code[pc+3]]; pc += 4; break;
+              case Bytecode.IMUL:
+                ir[ib+code[pc+1]] = ir[ib+code[pc+2]] * ir[ib+code[pc+3]]; pc += 4; break;
+              case Bytecode.IDIV:
+                ir[ib+code[pc+1]] = ir[ib+code[pc+2]] / ir[ib+code[pc+3]]; pc += 4; break;
+              case Bytecode.INEG:
+                ir[ib+code[pc+1]] = -ir[ib+code[pc+2]]; pc += 3; break;
+              case Bytecode.FADD:
+                fr[fb+code[pc+1]] = fr[fb+code[pc+2]] + fr[fb+code[pc+3]]; pc += 4; break;
+              case Bytecode.FSUB:
+                fr[fb+code[pc+1]] = fr[fb+code[pc+2]] - fr[fb+code[pc+3]]; pc += 4; break;
+              case Bytecode.FMUL:
+                fr[fb+code[pc+1]] = fr[fb+code[pc+2]] * fr[fb+code[pc+3]]; pc += 4; break;
+              case Bytecode.FDIV:
+                fr[fb+code[pc+1]] = fr[fb+code[pc+2]] / fr[fb+code[pc+3]]; pc += 4; break;
+              case Bytecode.FNEG:
+                fr[fb+code[pc+1]] = -fr[fb+code[pc+2]]; pc += 3; break;
+              case Bytecode.ILT:
+                ir[ib+code[pc+1]] = ir[ib+code[pc+2]] < ir[ib+code[pc+3]] ? 1 : 0;
+                pc += 4; break;
+              case Bytecode.ILE:
+                ir[ib+code[pc+1]] = ir[ib+code[pc+2]] <= ir[ib+code[pc+3]] ? 1 : 0;
+                pc += 4; break;
+              case Bytecode.IEQ:
+                ir[ib+code[pc+1]] = ir[ib+code[pc+2]] == ir[ib+code[pc+3]] ? 1 : 0;
+                pc += 4; break;
+              case Bytecode.INE:
+                ir[ib+code[pc+1]] = ir[ib+code[pc+2]] != ir[ib+code[pc+3]] ? 1 : 0;
+                pc += 4; break;
+              case Bytecode.IGT:
+                ir[ib+code[pc+1]] = ir[ib+code[pc+2]] > ir[ib+code[pc+3]] ? 1 : 0;
+                pc += 4; break;
+              case Bytecode.IGE:
+                ir[ib+code[pc+1]] = ir[ib+code[pc+2]] >= ir[ib+code[pc+3]] ? 1 : 0;
+                pc += 4; break;
+              case Bytecode.FLT:
+                ir[ib+code[pc+1]] = fr[fb+code[pc+2]] < fr[fb+code[pc+3]] ? 1 : 0;
+                pc += 4; break;
+              case Bytecode.FLE:
+                ir[ib+code[pc+1]] = fr[fb+code[pc+2]] <= fr[fb+code[pc+3]] ? 1 : 0;
+                pc += 4; break;
+              case Bytecode.FEQ:
+                ir[ib+code[pc+1]] = fr[fb+code[pc+2]] == fr[fb+code[pc+3]] ? 1 : 0;
+                pc += 4; break;
+              case Bytecode.FNE:
+                ir[ib+code[pc+1]] = fr[fb+code[pc+2]] != fr[fb+code[pc+3]] ? 1 : 0;
+                pc += 4; break;
+              case Bytecode.FGT:
+                ir[ib+code[pc+1]] = fr[fb+code[pc+2]] > fr[fb+code[pc+3]] ? 1 : 0;
+                pc += 4; break;
+              case Bytecode.FGE:
+                ir[ib+code[pc+1]] = fr[fb+code[pc+2]] >= fr[fb+code[pc+3]] ? 1 : 0;
+                pc += 4; break;
+              case Bytecode.NOT:
+                ir[ib+code[pc+1]] = ir[ib+code[pc+2]] ^ 1; pc += 3; break;
+              case Bytecode.I2F:
+                fr[fb+code[pc+1]] = ir[ib+code[pc+2]]; pc += 3; break;
+              case Bytecode.F2I:
+                ir[ib+code[pc+1]] = (int) fr[fb+code[pc+2]]; pc += 3; break;
+              case Bytecode.I2C:
+                ir[ib+code[pc+1]] = (char) ir[ib+code[pc+2]]; pc += 3; break;
+              case Bytecode.JMP:
+                pc = code[pc+1]; break;
+              case Bytecode.JT:
+                pc = ir[ib+code[pc+1]] != 0 ? code[pc+2] : pc + 3; break;
+              case Bytecode.JF:
+                pc = ir[ib+code[pc+1]] == 0 ? code[pc+2] : pc + 3; break;
+              case Bytecode.JLT:
+                pc = ir[ib+code[pc+1]] < ir[ib+code[pc+2]] ? code[pc+3] : pc + 4; break;
+              case Bytecode.JLE:
+                pc = ir[ib+code[pc+1]] <= ir[ib+code[pc+2]] ? code[pc+3] : pc + 4; break;
+              case Bytecode.JEQ:
+                pc = ir[ib+code[pc+1]] == ir[ib+code[pc+2]] ? code[pc+3] : pc + 4; break;
+              case Bytecode.JNE:
+                pc = ir[ib+code[pc+1]] != ir[ib+code[pc+2]] ? code[pc+3] : pc + 4; break;
+              case Bytecode.JGT:
+                pc = ir[ib+code[pc+1]] > ir[ib+code[pc+2]] ? code[pc+3] : pc + 4; break;
+              case Bytecode.JGE:
+                pc = ir[ib+code[pc+1]] >= ir[ib+code[pc+2]] ? code[pc+3] : pc + 4; break;
+              case Bytecode.CHK:
+                if (!defined[vb+code[pc+1]])
+                    throw new IllegalStateException("reference to undefined variable "
+                                                    + cur.vars[code[pc+1]].name());
+                pc += 2; break;
+              case Bytecode.DEF:
+                defined[vb+code[pc+1]] = true; pc += 2; break;
+              case Bytecode.ILOADA:
+                ir[ib+code[pc+1]] = ia[vb+code[pc+2]][ir[ib+code[pc+3]]]; pc += 4; break;
+              case Bytecode.FLOADA:
+                fr[fb+code[pc+1]] = fa[vb+code[pc+2]][ir[ib+code[pc+3]]]; pc += 4; break;
+              case Bytecode.CLOADA:
+                ir[ib+code[pc+1]] = ca[vb+code[pc+2]][ir[ib+code[pc+3]]]; pc += 4; break;
+              case Bytecode.ISTOREA:
+                ia[vb+code[pc+1]][ir[ib+code[pc+2]]] = ir[ib+code[pc+3]]; pc += 4; break;
+              case Bytecode.FSTOREA:
+                fa[vb+code[pc+1]][ir[ib+code[pc+2]]] = fr[fb+code[pc+3]]; pc += 4; break;
+              case Bytecode.CSTOREA:
+                ca[vb+code[pc+1]][ir[ib+code[pc+2]]] = (char) ir[ib+code[pc+3]];
+                pc += 4; break;
+              case Bytecode.BND: {
+                int v = code[pc+1];
+                ArrayRef.check(ir[ib+code[pc+2]], cur.types[v].size(),
+                               cur.vars[v].name());
+                pc += 3; break;
+              }
+              case Bytecode.ARG:
+                iargs[code[pc+1]] = ir[ib+code[pc+2]]; pc += 3; break;
+              case Bytecode.FARG:
+                fargs[code[pc+1]] = fr[fb+code[pc+2]]; pc += 3; break;
+              case Bytecode.CALL: case Bytecode.FCALL: case Bytecode.VCALL: {
+                if (depth == DEPTH)
+                    throw new IllegalStateException("stack overflow");
+                if (depth == callers.length) {
+                    callers = Arrays.copyOf(callers, 2 * depth);
+                    frames = Arrays.copyOf(frames, 5 * 2 * depth);
+                }
+                boolean value = code[pc] != Bytecode.VCALL;
+                Bytecode f = b.functions[code[pc+1]];
+                int at = 5 * depth;
+                callers[depth++] = cur;
+                frames[at] = pc + (value ? 3 : 2);
+                frames[at+1] = ib;
+                frames[at+2] = fb;
+                frames[at+3] = vb;
+                frames[at+4] = value ? code[pc+2] : -1;
+                ib += cur.iregs;
+                fb += cur.fregs;
+                vb += cur.vars.length;
+                enter(f, ib, fb, vb);
+                ir = this.ir; fr = this.fr;   // maybe grown
+                ia = this.ia; ca = this.ca; fa = this.fa;
+                cur = f;
+                code = f.code;
+                pc = 0;
+                break;
+              }
+              case Bytecode.RET: case Bytecode.FRET: case Bytecode.RETV: {
+                int op = code[pc];
+                int i = op == Bytecode.RET ? ir[ib+code[pc+1]] : 0;
+                float x = op == Bytecode.FRET ? fr[fb+code[pc+1]] : 0;
+                int at = 5 * --depth;
+                cur = callers[depth];
+                callers[depth] = null;
+                code = cur.code;
+                pc = frames[at];
+                ib = frames[at+1];
+                fb = frames[at+2];
+                vb = frames[at+3];
+                if (op == Bytecode.RET) ir[ib+frames[at+4]] = i;
+                else if (op == Bytecode.FRET) fr[fb+frames[at+4]] = x;
+                break;
+              }
+              case Bytecode.NORET:
+                throw new IllegalStateException("function " + cur.function.id
+                                                + " ended without a return");
+              default:
+                throw new IllegalStateException("bad opcode " + code[pc] + " at " + pc);
+            }
+        }
+    }
+
+    Value value (int v) { // variable v's current value, or undef
+        Type t = b.types[v];
+        int r = b.regs[v];
+        if (t.isArray())
+            return new ArrayValue(t, fa[v] != null ? fa[v]
+                                  : ca[v] != null ? ca[v] : ia[v]);
+        if (!defined[v]) return Value.mkValue(t);
+        if (t == Type.INT) return new IntValue(ir[r]);
+        if (t == Type.FLOAT) return new FloatValue(fr[r]);
+        if (t == Type.CHAR) return new CharValue((char) ir[r]);
+        return new BoolValue(ir[r] != 0);
+    }
+
+    public void display ( ) { // final state, in declaration order
+        for (int v = 0; v < b.vars.length; v++)
+            if (!b.temporary[v])
+                System.out.println(b.vars[v].name() + " = " + value(v));
+    }
+
+    public static void main (String args[]) {
+        // java VM [-d] [-O] [-s] file
+        //   -d: print the bytecode instead of running it
+        //   -O: optimise first (see ConstantFolder, LoopOptimizer)
+        //   -s: stack-safe parsing (see Parser.stackSafe)
+        Frontend fe = new Frontend();
+        fe.setTyped(true);
+        boolean dump = false;
+        int a = 0;
+        for (; args[a].startsWith("-"); a++)
+            if (args[a].equals("-s")) fe.setStackSafe(true);
+            else if (args[a].equals("-d")) dump = true;
+            else if (args[a].equals("-O")) fe.setOptimize(true);
+        Compilation c = fe.compile(Paths.get(args[a]));
+        if (!c.succeeded()) {
+            System.err.println(c.diagnostics().get(0));
+            System.exit(1);
+        }
+        Bytecode code = BytecodeCompiler.compile(c.program());
+        if (dump) {
+            System.out.print(code);
+            return;
+        }
+        VM vm = new VM(code);
+        try {
+            vm.run();
+        } catch (IllegalStateException | ArithmeticException e) {
+            System.err.println("Runtime error: " + e.getMessage());
+            System.exit(1);
+        }
+        vm.display();
+    } // main
+
+} // VM
@@ -0,0 +1,20 @@
+int main ( ) {
+    int a[10];
+    float w[10];
+    char s[5];
+    int i, sum;
+    float total;
+    i = 0;
+    while (i < 10) {
+        a[i] = i * i;
+        w[i] = float(i) / 4.0;
+        i = i + 1;
+    }
+    s[0] = 'c'; s[1] = 'l'; s[2] = 'i'; s[3] = 't'; s[4] = 'e';
+    i = 0; sum = 0; total = 0.0;
+    while (i < 10) {
+        sum = sum + a[i];
+        total = total + w[i] * float(a[i]);
+        i = i + 1;
+    }
+}
@@ -0,0 +1,16 @@
+int main ( ) {
+    int a[8], b[8];
+    int i, j, k;
+    i = 0;
+    while (i < 8) {
+        a[i] = 8 - i;
+        i = i + 1;
+    }
+    i = 0; j = 0;
+    while (i < 8) {
+        k = a[i] - 1;
+        b[k] = b[k] + a[j];
+        j = b[k] / 3;
+        i = i + 1;
+    }
+}
@@ -0,0 +1,30 @@
+int fact (int n) {
+    if (n < 2) return 1;
+    return n * fact(n - 1);
+}
+float mean (int a, int b, int c) {
+    return float(a + b + c) / 3.0;
+}
+int fill (int n) {
+    int a[6];
+    int i, s;
+    i = 0; s = 0;
+    while (i < 6) {
+        a[i] = n + i;
+        s = s + a[i];
+        i = i + 1;
+    }
+    return s;
+}
+void note (int n) {
+    if (n > 0) return;
+    n = fact(n);
+}
+int main ( ) {
+    int f, g;
+    float m;
+    f = fact(10);
+    m = mean(f / 1000, fact(4), 3);
+    g = fill(f) - fill(0);
+    note(g);
+}